@@ -1,5 +1,6 @@
 package com.zhuo.mydb.backend;
 
+import com.zhuo.mydb.backend.common.DBOptions;
 import com.zhuo.mydb.backend.dm.DataManager;
 import com.zhuo.mydb.backend.server.Server;
 import com.zhuo.mydb.backend.tbm.TableManager;
@@ -24,55 +25,108 @@ public class Launcher {
         options.addOption("open", true, "-open DBPath");
         options.addOption("create", true, "-create DBPath");
         options.addOption("mem", true, "-mem 64MB");
+        options.addOption("shards", true, "-shards 16");
+        options.addOption("policy", true, "-policy clock|2q");
+        options.addOption("mmap", false, "-mmap");
+        options.addOption("compress", false, "-compress");
+        options.addOption("pagesize", true, "-pagesize 8KB");
+        options.addOption("prealloc", false, "-prealloc");
+        options.addOption("readahead", true, "-readahead 8");
+        options.addOption("extent", true, "-extent 8MB|0");
+        options.addOption("segment", true, "-segment 1GB|0");
+        options.addOption("segdirs", true, "-segdirs dir1,dir2");
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options,args);
 
+        DBOptions opts = parseOptions(cmd);
         if(cmd.hasOption("open")) {
-            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")));
+            openDB(cmd.getOptionValue("open"), opts);
             return;
         }
         if(cmd.hasOption("create")) {
-            createDB(cmd.getOptionValue("create"));
+            createDB(cmd.getOptionValue("create"), opts);
             return;
         }
         System.out.println("Usage: launcher (open|create) DBPath");
     }
 
-    private static void createDB(String path) {
+    private static void createDB(String path, DBOptions opts) {
         TransactionManager tm = TransactionManager.create(path);
-        DataManager dm = DataManager.create(path, DEFALUT_MEM, tm);
-        VersionManager vm = new VersionManagerImpl(tm, dm);
+        DataManager dm = DataManager.create(path, opts, tm);
+        VersionManager vm = new VersionManagerImpl(tm, dm, opts);
         TableManager.create(path, vm, dm);
         tm.close();
         dm.close();
     }
 
-    private static void openDB(String path, long mem) {
+    private static void openDB(String path, DBOptions opts) {
         TransactionManager tm = TransactionManager.open(path);
-        DataManager dm = DataManager.open(path, mem, tm);
-        VersionManager vm = new VersionManagerImpl(tm, dm);
+        DataManager dm = DataManager.open(path, opts, tm);
+        VersionManager vm = new VersionManagerImpl(tm, dm, opts);
         TableManager tbm = TableManager.open(path, vm, dm);
         new Server(port, tbm).start();
     }
 
+    // 创建和打开共用同一套参数，只在创建时生效的参数（如 -pagesize）在打开时以数据库头为准
+    private static DBOptions parseOptions(CommandLine cmd) {
+        DBOptions opts = new DBOptions(parseMem(cmd.getOptionValue("mem")));
+        if(cmd.hasOption("shards")) {
+            opts.cacheShards = Integer.parseInt(cmd.getOptionValue("shards"));
+        }
+        if(cmd.hasOption("policy")) {
+            opts.pagePolicy = cmd.getOptionValue("policy");
+        }
+        opts.mmap = cmd.hasOption("mmap");
+        opts.preallocFrames = cmd.hasOption("prealloc");
+        if(cmd.hasOption("readahead")) {
+            opts.readAhead = Integer.parseInt(cmd.getOptionValue("readahead"));
+        }
+        if(cmd.hasOption("extent")) {
+            opts.extentSize = parseMem(cmd.getOptionValue("extent"));
+        }
+        if(cmd.hasOption("segdirs")) {
+            opts.segmentDirs = cmd.getOptionValue("segdirs").split(",");
+        }
+        opts.compress = cmd.hasOption("compress");
+        if(cmd.hasOption("pagesize")) {
+            opts.pageSize = parsePageSize(cmd.getOptionValue("pagesize"));
+        }
+        if(cmd.hasOption("segment")) {
+            opts.segmentSize = parseMem(cmd.getOptionValue("segment"));
+        }
+        return opts;
+    }
+
+    // 页面大小可以写成 16KB，也可以直接给出字节数
+    private static int parsePageSize(String sizeStr) {
+        try {
+            if(sizeStr.endsWith("KB")) {
+                return (int) (Integer.parseInt(sizeStr.substring(0, sizeStr.length()-2))*KB);
+            }
+            return Integer.parseInt(sizeStr);
+        } catch (NumberFormatException e) {
+            Panic.panic(Error.InvalidPageSizeException);
+        }
+        return 0;
+    }
+
+    // 不带单位时按字节数解析，-extent 0、-segment 0 分别表示按页扩展、不分段
     private static long parseMem(String memStr) {
         if(memStr == null || "".equals(memStr)) {
             return DEFALUT_MEM;
         }
-        if(memStr.length() < 2) {
-            Panic.panic(Error.InvalidMemException);
+        long unit = 1;
+        if(memStr.endsWith("KB")) {
+            unit = KB;
+        } else if(memStr.endsWith("MB")) {
+            unit = MB;
+        } else if(memStr.endsWith("GB")) {
+            unit = GB;
         }
-        String unit = memStr.substring(memStr.length()-2);
-        long memNum = Long.parseLong(memStr.substring(0, memStr.length()-2));
-        switch(unit) {
-            case "KB":
-                return memNum*KB;
-            case "MB":
-                return memNum*MB;
-            case "GB":
-                return memNum*GB;
-            default:
-                Panic.panic(Error.InvalidMemException);
+        try {
+            return Long.parseLong(unit == 1 ? memStr : memStr.substring(0, memStr.length()-2))*unit;
+        } catch (NumberFormatException e) {
+            Panic.panic(Error.InvalidMemException);
         }
         return DEFALUT_MEM;
     }
@@ -1,121 +1,488 @@
 package com.zhuo.mydb.backend.common;
 
+import com.zhuo.mydb.backend.common.collection.ConcurrentLongObjectMap;
 import com.zhuo.mydb.common.Error;
 
-import java.util.HashMap;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 /**
  * 引用计数类型框架
+ * 缓存按 key 的哈希分成若干段，每段有独立的锁、容量份额、计数与驱逐，互不争用
+ * 命中走无锁路径：在段的 ConcurrentLongObjectMap 中找到缓存帧后 CAS 增加引用计数，不装箱 key
+ * 未命中时由第一个线程加载，并发请求同一资源的线程等待该帧的加载 future，加载完成即被唤醒
+ * getAsync 不等待加载：未命中时由 getForCacheAsync 发起加载，加载完成后在完成加载的线程中登记资源
+ * maxResource > 0 时为缓存容量，单位是 weigh() 给出的权重（默认每个资源为 1）。
+ * 引用归零的资源不会立即写回，而是留在缓存中，超出容量时按替换策略（默认 CLOCK，见 ReplacementPolicy）驱逐段内未被引用的资源；
+ * 段内没有可驱逐的资源时，先让上层缓存驱逐其空闲资源（它们可能正引用着本缓存的资源），仍不够才抛出 CacheFullException；
+ * softLimit 的缓存此时不抛出异常而是暂时超出容量，等资源引用归零后再驱逐
+ * maxResource == 0 时不限容量，引用归零即写回并移出缓存
  *
  * @author : wzq
  **/
 public abstract class AbstractCache<T> {
-    private HashMap<Long, T> cache;                     // 实际缓存的数据
-    private HashMap<Long, Integer> references;          // 元素的引用个数
-    private HashMap<Long, Boolean> getting;             // 正在获取某资源的线程
+    public static final int DEFAULT_SEGMENTS = 16;
+    // 有容量限制时每段至少分到的容量，避免段过小导致少量并发引用就占满一段
+    private static final int MIN_SEGMENT_RESOURCE = 64;
 
-    private int maxResource;                            // 缓存的最大缓存资源数
-    private int count = 0;                              // 缓存中元素的个数
-    private Lock lock;
+    private Segment[] segments;
+    private boolean softLimit;          // 容量用尽时是否允许暂时超出
+    private AbstractCache<?> upper;     // 空闲资源会引用本缓存资源的上层缓存
 
+    public AbstractCache(long maxResource) {
+        this(maxResource, DEFAULT_SEGMENTS);
+    }
+
+    public AbstractCache(long maxResource, int segmentCount) {
+        this(maxResource, segmentCount, false);
+    }
 
-    public AbstractCache(int maxResource) {
-        this.maxResource = maxResource;
-        cache = new HashMap<>();
-        references = new HashMap<>();
-        getting = new HashMap<>();
-        lock = new ReentrantLock();
+    public AbstractCache(long maxResource, int segmentCount, boolean softLimit) {
+        this(maxResource, segmentCount, softLimit, ReplacementPolicy.CLOCK);
+    }
+
+    /**
+     * @param policy 替换策略的名称，见 ReplacementPolicy
+     */
+    public AbstractCache(long maxResource, int segmentCount, boolean softLimit, String policy) {
+        this.softLimit = softLimit;
+        if(segmentCount < 1) {
+            segmentCount = 1;
+        }
+        if(maxResource > 0) {
+            segmentCount = (int) Math.max(1, Math.min(segmentCount, maxResource / MIN_SEGMENT_RESOURCE));
+        }
+        @SuppressWarnings("unchecked")
+        Segment[] segments = (Segment[]) new AbstractCache<?>.Segment[segmentCount];
+        this.segments = segments;
+        for (int i = 0; i < segmentCount; i++) {
+            //容量不能整除时，余数分给前面的段
+            long share = 0;
+            if(maxResource > 0) {
+                share = maxResource / segmentCount + (i < maxResource % segmentCount ? 1 : 0);
+            }
+            segments[i] = new Segment(share, policy);
+        }
+    }
+
+    /**
+     * 设置上层缓存：上层缓存中空闲的资源仍引用着本缓存的资源，本缓存满时会先让上层缓存驱逐空闲资源
+     */
+    public void setUpperCache(AbstractCache<?> upper) {
+        this.upper = upper;
+    }
+
+    private Segment segmentFor(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) ((h >>> 32) % segments.length)];
     }
 
     protected T get(long key) throws Exception {
-        while (true){
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * 异步获取资源，得到的资源与 get 一样被引用，用完后需 release
+     * 命中时返回已完成的 future，未命中时调用线程只负责发起加载
+     */
+    protected CompletableFuture<T> getAsync(long key) {
+        return segmentFor(key).getAsync(key);
+    }
+
+    /**
+     * 资源是否已在缓存中（包括正在加载），不加锁也不引用
+     */
+    protected boolean isCached(long key) {
+        return segmentFor(key).cache.get(key) != null;
+    }
+
+    /**
+     * 资源当前的引用数，不在缓存中时为 0，不加锁
+     */
+    protected int references(long key) {
+        CacheFrame<T> f = segmentFor(key).cache.get(key);
+        return f == null ? 0 : Math.max(0, f.references.get());
+    }
+
+    /**
+     * 缓存中资源的权重之和，逐段加锁读取
+     */
+    protected long weight() {
+        long w = 0;
+        for (Segment s : segments) {
+            s.lock.lock();
+            try {
+                w += s.weight;
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        return w;
+    }
+
+    /**
+     * 驱逐 key 对应的资源，仍被引用时不驱逐
+     * 用于上层缓存与本缓存以相同的 key 缓存对应资源的场合（如 Entry 与 DataItem），上层的空闲资源先被驱逐
+     */
+    protected void evictIfIdle(long key) {
+        if(upper != null) {
+            upper.evictIfIdle(key);
+        }
+        segmentFor(key).evictIfIdle(key);
+    }
+
+    /**
+     * 释放一个引用，引用归零后有容量限制的缓存保留该资源等待驱逐
+     */
+    protected void release(long key){
+        segmentFor(key).release(key);
+    }
+
+    /**
+     * 引用已加载且满足条件的资源放入 out，至多 limit 个，不算作一次访问，用完后需逐个 release
+     * @return 满足条件的资源总数
+     */
+    protected int pinIf(Predicate<T> filter, List<T> out, int limit) {
+        int matched = 0;
+        for (Segment s : segments) {
+            matched += s.pinIf(filter, out, limit);
+        }
+        return matched;
+    }
+
+    /**
+     * 驱逐所有未被引用的资源，先让上层缓存释放它们对本缓存资源的引用
+     */
+    public void evictIdle() {
+        if(upper != null) {
+            upper.evictIdle();
+        }
+        for (Segment s : segments) {
+            s.evictIdle();
+        }
+    }
+
+    /**
+     * 关闭缓存，写回所有资源
+     */
+    protected void close() {
+        for (Segment s : segments) {
+            s.close();
+        }
+    }
+
+    private class Segment {
+        private ConcurrentLongObjectMap<CacheFrame<T>> cache;    // 实际缓存的数据，包括正在加载的资源，写入需持有 lock
+        private ReplacementPolicy<T> policy;                // 加载完成的帧由替换策略管理，仅在有容量限制时使用
+        private String policyName;
+
+        private long maxResource;                           // 本段的容量
+        private long weight = 0;                            // 本段中资源的权重之和
+        private int count = 0;                              // 本段中元素的个数
+        private Lock lock;                                  // 保护本段的加载、驱逐与计数，命中路径不加锁
+
+        Segment(long maxResource, String policyName) {
+            this.maxResource = maxResource;
+            this.policyName = policyName;
+            cache = new ConcurrentLongObjectMap<>();
+            lock = new ReentrantLock();
+            if(maxResource > 0) {
+                policy = ReplacementPolicy.newPolicy(policyName, maxResource);
+            }
+        }
+
+        T get(long key) throws Exception {
+            while (true) {
+                CacheFrame<T> f = cache.get(key);
+                if(f == null) {
+                    f = load(key);
+                    if(f != null) {
+                        return f.obj;
+                    }
+                    //其他线程抢先开始加载，重新查找
+                    continue;
+                }
+                if(!f.loading.isDone()) {
+                    //请求的资源正在被其他线程加载，等待其完成
+                    try {
+                        f.loading.get();
+                    } catch (ExecutionException | InterruptedException e) {
+                        //加载失败的帧已被移出缓存，重新尝试
+                        continue;
+                    }
+                }
+                if(f.loading.isCompletedExceptionally()) {
+                    continue;
+                }
+                if(f.tryPin()) {
+                    return f.obj;
+                }
+                //该帧正在被驱逐，等驱逐结束后重试
+                lock.lock();
+                lock.unlock();
+            }
+        }
+
+        CompletableFuture<T> getAsync(long key) {
+            while (true) {
+                CacheFrame<T> f = cache.get(key);
+                if(f == null) {
+                    CacheFrame<T> nf;
+                    try {
+                        nf = register(key);
+                    } catch (Exception e) {
+                        return failed(e);
+                    }
+                    if(nf == null) {
+                        continue;
+                    }
+                    getForCacheAsync(key).whenComplete((obj, e) -> {
+                        if(e != null) {
+                            fail(nf, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                        } else {
+                            finish(nf, obj);
+                        }
+                    });
+                    //加载帧的引用已归本次请求所有
+                    return nf.loading.thenApply(obj -> obj);
+                }
+                if(!f.loading.isDone()) {
+                    //加载完成后再引用，加载失败或帧正被驱逐时重新请求
+                    return f.loading.handle((obj, e) -> e == null && f.tryPin() ? CompletableFuture.completedFuture(obj) : getAsync(key))
+                            .thenCompose(r -> r);
+                }
+                if(f.loading.isCompletedExceptionally()) {
+                    continue;
+                }
+                if(f.tryPin()) {
+                    return CompletableFuture.completedFuture(f.obj);
+                }
+                lock.lock();
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 在段中登记一个加载中的帧并加载资源
+         * @return 其他线程已登记该资源时返回 null
+         */
+        private CacheFrame<T> load(long key) throws Exception {
+            CacheFrame<T> f = register(key);
+            if(f == null) {
+                return null;
+            }
+            T obj = null;
+            try {
+                obj = getForCache(key);
+            } catch (Exception e) {
+                fail(f, e);
+                throw e;
+            }
+            finish(f, obj);
+            return f;
+        }
+
+        /**
+         * 在段中登记一个加载中的帧，段满时先驱逐
+         * @return 其他线程已登记该资源时返回 null
+         */
+        private CacheFrame<T> register(long key) throws Exception {
+            CacheFrame<T> f = new CacheFrame<>(key);
+            boolean reclaimed = false;
+            lock.lock();
+            try {
+                while (true) {
+                    if(cache.containsKey(key)) {
+                        return null;
+                    }
+                    //段已满时先驱逐一个未被引用的资源
+                    if(maxResource == 0 || weight + 1 <= maxResource || evict()) {
+                        break;
+                    }
+                    if(reclaimed || upper == null) {
+                        if(softLimit) {
+                            break;
+                        }
+                        throw Error.CacheFullException;
+                    }
+                    //本段资源都被引用，让上层缓存释放空闲资源后再试一次
+                    lock.unlock();
+                    try {
+                        upper.evictIdle();
+                    } finally {
+                        lock.lock();
+                    }
+                    reclaimed = true;
+                }
+                count++;
+                weight += f.weight;
+                cache.put(key, f);
+            } finally {
+                lock.unlock();
+            }
+            return f;
+        }
+
+        // 加载失败，移出帧并唤醒等待的线程，帧标记为驱逐中，已取得该帧的线程不能再引用它
+        private void fail(CacheFrame<T> f, Throwable e) {
+            f.references.set(-1);
             lock.lock();
-            if(getting.containsKey(key)){
-                //请求的资源正在被其他线程占用
+            try {
+                remove(f);
+            } finally {
                 lock.unlock();
+            }
+            f.loading.completeExceptionally(e);
+        }
+
+        // 加载完成，按实际权重计入容量并交给替换策略
+        private void finish(CacheFrame<T> f, T obj) {
+            f.obj = obj;
+            if(maxResource > 0) {
+                int w = weigh(obj);
+                lock.lock();
                 try {
-                    Thread.sleep(1);
-                }catch (InterruptedException e){
-                    e.printStackTrace();
-                    continue;
+                    weight += w - f.weight;
+                    f.weight = w;
+                    policy.admit(f);
+                    //按实际权重超出容量时尽量驱逐，驱逐不了就暂时超出
+                    while (weight > maxResource && evict()) {
+                    }
+                } finally {
+                    lock.unlock();
                 }
-                continue;
             }
-            if(cache.containsKey(key)){
-                T obj = cache.get(key);
-                references.put(key ,references.getOrDefault(key ,0) + 1);
+            f.loading.complete(obj);
+        }
+
+        /**
+         * 按替换策略驱逐一个未被引用的资源，调用时需持有锁
+         * @return 没有可驱逐的资源时返回 false
+         */
+        private boolean evict() {
+            CacheFrame<T> f = policy.victim();
+            if(f == null) {
+                return false;
+            }
+            remove(f);
+            releaseForCache(f.obj);
+            return true;
+        }
+
+        int pinIf(Predicate<T> filter, List<T> out, int limit) {
+            int matched = 0;
+            lock.lock();
+            try {
+                for (int i = cache.first(); i >= 0; i = cache.next(i)) {
+                    CacheFrame<T> f = cache.valueAt(i);
+                    if(!f.loading.isDone() || f.obj == null || !filter.test(f.obj)) {
+                        continue;
+                    }
+                    matched++;
+                    if(out.size() < limit && f.tryPin(false)) {
+                        out.add(f.obj);
+                    }
+                }
+            } finally {
                 lock.unlock();
-                return obj;
             }
-            //尝试获取该资源
-            if(maxResource > 0 && count == maxResource){
+            return matched;
+        }
+
+        // 驱逐本段所有未被引用的资源
+        void evictIdle() {
+            if(maxResource == 0) {
+                return;
+            }
+            lock.lock();
+            try {
+                for (int i = cache.first(); i >= 0; i = cache.next(i)) {
+                    CacheFrame<T> f = cache.valueAt(i);
+                    if(f.loading.isDone() && f.tryEvict()) {
+                        remove(f);
+                        releaseForCache(f.obj);
+                    }
+                }
+            } finally {
                 lock.unlock();
-                throw Error.CacheFullException;
             }
-            count++;
-            getting.put(key ,true);
-            lock.unlock();
-            break;
         }
-        T obj = null;
-        try {
-            obj = getForCache(key);
-        }catch (Exception e){
+
+        void evictIfIdle(long key) {
+            if(maxResource == 0) {
+                return;
+            }
             lock.lock();
+            try {
+                CacheFrame<T> f = cache.get(key);
+                if(f != null && f.loading.isDone() && f.tryEvict()) {
+                    remove(f);
+                    releaseForCache(f.obj);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // 将帧移出本段，调用时需持有锁
+        private void remove(CacheFrame<T> f) {
+            cache.remove(f.key);
+            if(policy != null) {
+                policy.remove(f);
+            }
+            weight -= f.weight;
             count--;
-            getting.remove(key);
-            lock.unlock();
-            throw e;
         }
-        lock.lock();
-        getting.remove(key);
-        cache.put(key, obj);
-        references.put(key, 1);
-        lock.unlock();
 
-        return obj;
-    }
+        void release(long key) {
+            CacheFrame<T> f = cache.get(key);
+            int ref = f.references.decrementAndGet();
+            if(ref != 0 || maxResource > 0) {
+                return;
+            }
+            lock.lock();
+            try {
+                //归零后可能又被其他线程引用，此时不再写回
+                if(f.tryEvict()) {
+                    remove(f);
+                    releaseForCache(f.obj);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
 
-    /**
-     * 强行释放一个缓存
-     */
-    protected void release(long key){
-        lock.lock();
-        try {
-            int ref = references.get(key) - 1;
-            if(ref == 0){
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
-                count--;
-            }else {
-                references.put(key ,ref);
+        void close() {
+            lock.lock();
+            try {
+                for (int i = cache.first(); i >= 0; i = cache.next(i)) {
+                    CacheFrame<T> f = cache.valueAt(i);
+                    if(f.obj != null) {
+                        releaseForCache(f.obj);
+                    }
+                }
+                cache.clear();
+                if(maxResource > 0) {
+                    policy = ReplacementPolicy.newPolicy(policyName, maxResource);
+                }
+                weight = 0;
+                count = 0;
+            } finally {
+                lock.unlock();
             }
-        }finally {
-            lock.unlock();
         }
     }
 
     /**
-     * 关闭缓存，写回所有资源
+     * 资源占用的容量，默认每个资源为 1
      */
-    protected void close() {
-        lock.lock();
-        try {
-            Set<Long> keys = cache.keySet();
-            for (long key : keys) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
-            }
-        } finally {
-            lock.unlock();
-        }
+    protected int weigh(T obj) {
+        return 1;
     }
 
     /**
@@ -123,6 +490,23 @@ public abstract class AbstractCache<T> {
      */
     protected abstract T getForCache(long key) throws Exception;
 
+    /**
+     * 异步获取不在缓存中的资源，默认在调用线程中同步加载
+     */
+    protected CompletableFuture<T> getForCacheAsync(long key) {
+        try {
+            return CompletableFuture.completedFuture(getForCache(key));
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        f.completeExceptionally(e);
+        return f;
+    }
+
     /**
      * 当资源被驱逐时的写回行为
      */
@@ -0,0 +1,52 @@
+package com.zhuo.mydb.backend.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AbstractCache 的缓存帧
+ * references 为 -1 时表示该帧正在被驱逐，不能再被引用
+ *
+ * @author : wzq
+ **/
+class CacheFrame<T> {
+    final long key;
+    volatile T obj;
+    final CompletableFuture<T> loading = new CompletableFuture<>();
+    final AtomicInteger references = new AtomicInteger(1);
+    volatile boolean referenced = true;             // 命中时置位，供替换策略判断近期是否被访问
+    int weight = 1;                                 // 加载完成前先按 1 占位
+
+    // 以下由替换策略维护，需持有段锁
+    int slot = -1;                                  // 在 CLOCK 环中的位置
+    int queue;                                      // 所在的队列
+
+    CacheFrame(long key) {
+        this.key = key;
+    }
+
+    boolean tryPin() {
+        return tryPin(true);
+    }
+
+    // touch 为 false 时不设置 referenced 位，不影响替换策略对访问热度的判断
+    boolean tryPin(boolean touch) {
+        while (true) {
+            int ref = references.get();
+            if(ref < 0) {
+                return false;
+            }
+            if(references.compareAndSet(ref, ref + 1)) {
+                if(touch) {
+                    referenced = true;
+                }
+                return true;
+            }
+        }
+    }
+
+    // 未被引用时将其标记为驱逐中
+    boolean tryEvict() {
+        return references.compareAndSet(0, -1);
+    }
+}
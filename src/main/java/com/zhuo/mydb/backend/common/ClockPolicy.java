@@ -0,0 +1,79 @@
+package com.zhuo.mydb.backend.common;
+
+import java.util.Arrays;
+
+/**
+ * CLOCK 替换策略
+ * 帧放在一个环上，指针扫过时清掉 referenced 位，再次扫到仍未被访问且未被引用的帧被驱逐
+ *
+ * @author : wzq
+ **/
+class ClockPolicy<T> implements ReplacementPolicy<T> {
+    // 按权重计容量时环的大小与帧数无关，先按此大小分配，不够再扩
+    private static final int MAX_INIT_SIZE = 4096;
+
+    private CacheFrame<T>[] clock;
+    private int[] freeSlots;                // 环中的空闲位置
+    private int freeTop;
+    private int hand;                       // CLOCK 指针
+
+    ClockPolicy(long capacity) {
+        int size = (int) Math.max(1, Math.min(capacity, MAX_INIT_SIZE));
+        @SuppressWarnings("unchecked")
+        CacheFrame<T>[] clock = (CacheFrame<T>[]) new CacheFrame<?>[size];
+        this.clock = clock;
+        freeSlots = new int[size];
+        for (int i = 0; i < size; i++) {
+            freeSlots[i] = size - 1 - i;
+        }
+        freeTop = size;
+    }
+
+    @Override
+    public void admit(CacheFrame<T> f) {
+        if(freeTop == 0) {
+            //环中没有空位时扩容一倍
+            int old = clock.length;
+            clock = Arrays.copyOf(clock, old << 1);
+            freeSlots = Arrays.copyOf(freeSlots, old << 1);
+            for (int i = clock.length - 1; i >= old; i--) {
+                freeSlots[freeTop++] = i;
+            }
+        }
+        f.slot = freeSlots[--freeTop];
+        clock[f.slot] = f;
+    }
+
+    @Override
+    public void remove(CacheFrame<T> f) {
+        if(f.slot < 0) {
+            return;
+        }
+        clock[f.slot] = null;
+        freeSlots[freeTop++] = f.slot;
+        f.slot = -1;
+    }
+
+    @Override
+    public CacheFrame<T> victim() {
+        for (int i = 0; i < 2 * clock.length; i++) {
+            CacheFrame<T> f = clock[hand];
+            hand = (hand + 1) % clock.length;
+            if(f == null || f.references.get() != 0) {
+                continue;
+            }
+            if(f.referenced) {
+                f.referenced = false;
+                continue;
+            }
+            if(f.tryEvict()) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return clock.length - freeTop;
+    }
+}
@@ -0,0 +1,42 @@
+package com.zhuo.mydb.backend.common;
+
+import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+
+/**
+ * 数据库启动参数，由 Launcher 从命令行解析，创建各模块时传入
+ * mem 是所有缓存共用的内存预算：DataItem 缓存占 1/8，Entry 缓存占 1/16，其余给页面缓存
+ *
+ * @author : wzq
+ **/
+public class DBOptions {
+    private static final int DATA_ITEM_CACHE_SHARE = 8;
+    private static final int ENTRY_CACHE_SHARE = 16;
+
+    public long mem;                                            // 缓存可用的内存
+    public int cacheShards = AbstractCache.DEFAULT_SEGMENTS;    // 各缓存的分段数
+    public String pagePolicy = ReplacementPolicy.CLOCK;         // 页面缓存的替换策略：clock 或 2q
+    public boolean mmap = false;                                // 是否以内存映射的方式读写页面文件
+    public boolean compress = false;                            // 创建数据库时是否压缩存储页面
+    public boolean preallocFrames = false;                      // 是否在启动时分配好页面缓存的所有帧
+    public int readAhead = 8;                                   // 顺序读时预读的页数，0 表示不预读
+    public int pageSize = PageCache.DEFAULT_PAGE_SIZE;          // 创建数据库时的页面大小，打开时以数据库头为准
+    public long extentSize = 8L << 20;                          // .db 文件每次预先扩展的长度，0 表示按页扩展
+    public long segmentSize = 1L << 30;                         // 创建数据库时页面文件每段的长度，0 表示不分段
+    public String[] segmentDirs;                                // 新建的段轮流放置的目录，默认与 .db 文件相同
+
+    public DBOptions(long mem) {
+        this.mem = mem;
+    }
+
+    public long dataItemCacheMem() {
+        return mem / DATA_ITEM_CACHE_SHARE;
+    }
+
+    public long entryCacheMem() {
+        return mem / ENTRY_CACHE_SHARE;
+    }
+
+    public long pageCacheMem() {
+        return mem - dataItemCacheMem() - entryCacheMem();
+    }
+}
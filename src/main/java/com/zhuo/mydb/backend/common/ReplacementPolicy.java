@@ -0,0 +1,42 @@
+package com.zhuo.mydb.backend.common;
+
+import com.zhuo.mydb.backend.utils.Panic;
+import com.zhuo.mydb.common.Error;
+
+/**
+ * 缓存段的替换策略，所有方法都在持有段锁时调用
+ * 命中路径不加锁，只会设置帧的 referenced 位，策略据此判断帧近期是否被访问
+ *
+ * @author : wzq
+ **/
+interface ReplacementPolicy<T> {
+    String CLOCK = "clock";
+    String TWO_QUEUE = "2q";
+
+    /**
+     * 新加载的帧进入段，此时帧已被引用
+     */
+    void admit(CacheFrame<T> f);
+
+    /**
+     * 帧被移出段
+     */
+    void remove(CacheFrame<T> f);
+
+    /**
+     * 选出一个未被引用的帧并将其标记为驱逐中
+     * @return 没有可驱逐的帧时返回 null
+     */
+    CacheFrame<T> victim();
+
+    static <T> ReplacementPolicy<T> newPolicy(String name, long capacity) {
+        if(name == null || CLOCK.equals(name)) {
+            return new ClockPolicy<>(capacity);
+        }
+        if(TWO_QUEUE.equals(name)) {
+            return new TwoQueuePolicy<>(capacity);
+        }
+        Panic.panic(Error.InvalidCachePolicyException);
+        return null;
+    }
+}
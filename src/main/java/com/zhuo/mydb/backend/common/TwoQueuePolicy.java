@@ -0,0 +1,104 @@
+package com.zhuo.mydb.backend.common;
+
+import com.zhuo.mydb.backend.common.collection.LongIntMap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 2Q 替换策略，抵抗全表扫描对热点页面的冲刷
+ * A1in：第一次载入的帧进入 FIFO 队列，被淘汰时只把 key 记入 A1out
+ * A1out：只记 key 的幽灵队列，载入时 key 在其中说明短期内被再次访问，直接进入 Am
+ * Am：热点帧，按 CLOCK 淘汰
+ * 一次扫描载入的帧只在 A1in 中流转，不会挤出 Am 中的热点帧
+ *
+ * @author : wzq
+ **/
+class TwoQueuePolicy<T> implements ReplacementPolicy<T> {
+    private static final int IN_A1 = 1;
+    private static final int IN_AM = 2;
+
+    private long a1Limit;                       // A1in 的容量，超过时优先从 A1in 淘汰
+    private long a1Weight;
+    private ArrayDeque<CacheFrame<T>> a1in;     // 已移出的帧在出队时跳过
+    private ClockPolicy<T> am;
+
+    private long[] ghosts;                      // A1out，按环形 FIFO 覆盖最旧的 key
+    private int ghostHead;
+    private LongIntMap ghostPos;                // key -> 在 ghosts 中的位置
+
+    TwoQueuePolicy(long capacity) {
+        a1Limit = Math.max(1, capacity / 4);
+        a1in = new ArrayDeque<>();
+        am = new ClockPolicy<>(capacity);
+        ghosts = new long[(int) Math.max(1, Math.min(capacity / 2, Integer.MAX_VALUE))];
+        ghostPos = new LongIntMap();
+    }
+
+    @Override
+    public void admit(CacheFrame<T> f) {
+        if(ghostPos.remove(f.key)) {
+            f.queue = IN_AM;
+            am.admit(f);
+            return;
+        }
+        f.queue = IN_A1;
+        a1in.addLast(f);
+        a1Weight += f.weight;
+    }
+
+    @Override
+    public void remove(CacheFrame<T> f) {
+        if(f.queue == IN_AM) {
+            am.remove(f);
+        } else if(f.queue == IN_A1) {
+            a1Weight -= f.weight;
+        }
+        f.queue = 0;
+    }
+
+    @Override
+    public CacheFrame<T> victim() {
+        CacheFrame<T> f = null;
+        if(a1Weight > a1Limit || am.size() == 0) {
+            f = evictA1();
+        }
+        if(f == null) {
+            f = am.victim();
+        }
+        if(f == null) {
+            f = evictA1();
+        }
+        return f;
+    }
+
+    // 按 FIFO 淘汰 A1in 中最早进入且未被引用的帧，其 key 记入 A1out
+    private CacheFrame<T> evictA1() {
+        Iterator<CacheFrame<T>> it = a1in.iterator();
+        while (it.hasNext()) {
+            CacheFrame<T> f = it.next();
+            if(f.queue != IN_A1) {
+                it.remove();
+                continue;
+            }
+            if(!f.tryEvict()) {
+                continue;
+            }
+            it.remove();
+            remember(f.key);
+            return f;
+        }
+        return null;
+    }
+
+    private void remember(long key) {
+        //被覆盖的 key 可能已被重新载入又再次淘汰，只有位置对得上才移除
+        long old = ghosts[ghostHead];
+        if(ghostPos.get(old, -1) == ghostHead) {
+            ghostPos.remove(old);
+        }
+        ghosts[ghostHead] = key;
+        ghostPos.put(key, ghostHead);
+        ghostHead = (ghostHead + 1) % ghosts.length;
+    }
+}
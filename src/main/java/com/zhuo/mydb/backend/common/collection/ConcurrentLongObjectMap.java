@@ -0,0 +1,173 @@
+package com.zhuo.mydb.backend.common.collection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * long -> Object 哈希表，读无锁，写操作必须由调用者加锁串行化
+ * <p>
+ * 一个槽一旦分配给某个键，直到下次重建表之前都归该键所有：删除只把值置为 DELETED，
+ * 所以读线程不会看到槽内的键被换掉。写入新槽时先写键再写值，读线程先读值再读键，
+ * 读到非空的值就一定能读到对应的键。重建时写出一张新表再整体发布，旧表不再修改，
+ * 读线程在旧表上最多读到稍旧的结果，调用者需在加锁后重新确认。
+ *
+ * @author : wzq
+ **/
+public class ConcurrentLongObjectMap<V> {
+    private static final int MIN_CAPACITY = 16;
+    private static final Object DELETED = new Object();
+
+    private static class Table {
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<Object> values;
+        final int mask;
+        int used;                                   // 已分配的槽数，包括已删除的
+
+        Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table;
+    private int size;
+
+    public ConcurrentLongObjectMap() {
+        table = new Table(MIN_CAPACITY);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        Table t = table;
+        int i = LongHashTable.hash(key) & t.mask;
+        while (true) {
+            Object v = t.values.get(i);
+            if(v == null) {
+                return null;
+            }
+            if(t.keys.get(i) == key) {
+                return v == DELETED ? null : (V) v;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    // 需持有写锁
+    public void put(long key, V value) {
+        Table t = table;
+        int i = LongHashTable.hash(key) & t.mask;
+        while (true) {
+            Object v = t.values.get(i);
+            if(v == null) {
+                break;
+            }
+            if(t.keys.get(i) == key) {
+                if(v == DELETED) {
+                    size++;
+                }
+                t.values.set(i, value);
+                return;
+            }
+            i = (i + 1) & t.mask;
+        }
+        if((t.used + 1) * 2 > t.mask + 1) {
+            rebuild();
+            put(key, value);
+            return;
+        }
+        t.keys.set(i, key);
+        t.values.set(i, value);
+        t.used++;
+        size++;
+    }
+
+    // 需持有写锁
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        Table t = table;
+        int i = LongHashTable.hash(key) & t.mask;
+        while (true) {
+            Object v = t.values.get(i);
+            if(v == null) {
+                return null;
+            }
+            if(t.keys.get(i) == key) {
+                if(v == DELETED) {
+                    return null;
+                }
+                t.values.set(i, DELETED);
+                size--;
+                return (V) v;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    // 需持有写锁
+    public void clear() {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // 按存活元素数重建表，清掉已删除的槽
+    private void rebuild() {
+        int cap = MIN_CAPACITY;
+        while (cap < (size + 1) * 4) {
+            cap <<= 1;
+        }
+        Table old = table;
+        Table t = new Table(cap);
+        for (int j = 0; j <= old.mask; j++) {
+            Object v = old.values.get(j);
+            if(v == null || v == DELETED) {
+                continue;
+            }
+            long key = old.keys.get(j);
+            int i = LongHashTable.hash(key) & t.mask;
+            while (t.values.get(i) != null) {
+                i = (i + 1) & t.mask;
+            }
+            t.keys.set(i, key);
+            t.values.set(i, v);
+            t.used++;
+        }
+        table = t;
+    }
+
+    /**
+     * 遍历存活元素，需持有写锁：
+     * for (int i = first(); i >= 0; i = next(i)) { valueAt(i) ... }
+     */
+    public int first() {
+        return next(-1);
+    }
+
+    public int next(int i) {
+        Table t = table;
+        for (i = i + 1; i <= t.mask; i++) {
+            Object v = t.values.get(i);
+            if(v != null && v != DELETED) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long keyAt(int i) {
+        return table.keys.get(i);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int i) {
+        return (V) table.values.get(i);
+    }
+}
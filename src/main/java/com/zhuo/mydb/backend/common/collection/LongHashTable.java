@@ -0,0 +1,163 @@
+package com.zhuo.mydb.backend.common.collection;
+
+/**
+ * long 为键的开放寻址哈希表骨架，线性探测，删除时向前搬移后继元素，不留墓碑
+ * 子类只负责值数组的分配与搬移，键的查找、扩容与遍历在这里完成
+ * 非线程安全，由调用者加锁
+ * <p>
+ * 遍历方式：for (int i = first(); i >= 0; i = next(i)) { keyAt(i) ... }
+ *
+ * @author : wzq
+ **/
+abstract class LongHashTable {
+    private static final int MIN_CAPACITY = 8;
+
+    long[] keys;
+    boolean[] used;
+    int size;
+
+    LongHashTable(int expectedSize) {
+        int cap = MIN_CAPACITY;
+        while (cap < expectedSize * 2) {
+            cap <<= 1;
+        }
+        keys = new long[cap];
+        used = new boolean[cap];
+        allocValues(cap);
+    }
+
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // 分配容量为 capacity 的值数组
+    abstract void allocValues(int capacity);
+
+    // 将值从 from 槽搬到 to 槽，旧值数组在扩容时由 oldValues 给出，否则为 null
+    abstract void moveValue(Object oldValues, int from, int to);
+
+    // 扩容前取出当前值数组
+    abstract Object values();
+
+    // 清除 i 槽中的值，便于对象引用被回收
+    abstract void clearValue(int i);
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return slotOf(key) >= 0;
+    }
+
+    // 返回 key 所在槽，不存在返回 -1
+    final int slotOf(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (used[i]) {
+            if(keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    // 返回 key 所在槽，不存在时占用一个新槽，新槽的值由调用者写入
+    final int claimSlot(long key) {
+        int i = slotOf(key);
+        if(i >= 0) {
+            return i;
+        }
+        if((size + 1) * 2 > keys.length) {
+            resize(keys.length << 1);
+        }
+        int mask = keys.length - 1;
+        i = hash(key) & mask;
+        while (used[i]) {
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        size++;
+        return i;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        Object oldValues = values();
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        allocValues(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if(!oldUsed[j]) {
+                continue;
+            }
+            int i = hash(oldKeys[j]) & mask;
+            while (used[i]) {
+                i = (i + 1) & mask;
+            }
+            used[i] = true;
+            keys[i] = oldKeys[j];
+            moveValue(oldValues, j, i);
+        }
+    }
+
+    // 删除 i 槽，把探测链上可以前移的元素前移，保证查找不断链
+    final void removeSlot(int i) {
+        int mask = keys.length - 1;
+        size--;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if(!used[j]) {
+                break;
+            }
+            int home = hash(keys[j]) & mask;
+            // home 落在 (i, j] 之间的元素留在原处
+            boolean stay = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if(stay) {
+                continue;
+            }
+            keys[i] = keys[j];
+            moveValue(null, j, i);
+            i = j;
+        }
+        used[i] = false;
+        clearValue(i);
+    }
+
+    public void clear() {
+        for (int i = 0; i < keys.length; i++) {
+            if(used[i]) {
+                used[i] = false;
+                clearValue(i);
+            }
+        }
+        size = 0;
+    }
+
+    public int first() {
+        return next(-1);
+    }
+
+    public int next(int i) {
+        for (i = i + 1; i < keys.length; i++) {
+            if(used[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long keyAt(int i) {
+        return keys[i];
+    }
+}
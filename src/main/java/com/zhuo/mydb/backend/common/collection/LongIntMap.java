@@ -0,0 +1,62 @@
+package com.zhuo.mydb.backend.common.collection;
+
+/**
+ * long -> int 哈希表，非线程安全
+ *
+ * @author : wzq
+ **/
+public class LongIntMap extends LongHashTable {
+    private int[] values;
+
+    public LongIntMap() {
+        this(0);
+    }
+
+    public LongIntMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    public int get(long key, int defaultValue) {
+        int i = slotOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public void put(long key, int value) {
+        int i = claimSlot(key);
+        values[i] = value;
+    }
+
+    public boolean remove(long key) {
+        int i = slotOf(key);
+        if(i < 0) {
+            return false;
+        }
+        removeSlot(i);
+        return true;
+    }
+
+    public int valueAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    void allocValues(int capacity) {
+        values = new int[capacity];
+    }
+
+    @Override
+    void moveValue(Object oldValues, int from, int to) {
+        int[] src = oldValues == null ? values : (int[]) oldValues;
+        values[to] = src[from];
+    }
+
+    @Override
+    Object values() {
+        return values;
+    }
+
+    @Override
+    void clearValue(int i) {
+        values[i] = 0;
+    }
+}
@@ -0,0 +1,107 @@
+package com.zhuo.mydb.backend.common.collection;
+
+import java.util.Arrays;
+
+/**
+ * 可变长的 long 列表，非线程安全
+ *
+ * @author : wzq
+ **/
+public class LongList {
+    private long[] elements;
+    private int size;
+
+    public LongList() {
+        this(4);
+    }
+
+    public LongList(int capacity) {
+        elements = new long[Math.max(capacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long get(int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    public void add(long e) {
+        ensureCapacity(size + 1);
+        elements[size++] = e;
+    }
+
+    public void add(int index, long e) {
+        if(index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = e;
+        size++;
+    }
+
+    public void addAll(LongList other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.elements, 0, elements, size, other.size);
+        size += other.size;
+    }
+
+    // 删除 index 处的元素并返回
+    public long removeAt(int index) {
+        checkIndex(index);
+        long e = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        size--;
+        return e;
+    }
+
+    // 删除第一个等于 e 的元素
+    public boolean remove(long e) {
+        int index = indexOf(e);
+        if(index < 0) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    public int indexOf(long e) {
+        for (int i = 0; i < size; i++) {
+            if(elements[i] == e) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(long e) {
+        return indexOf(e) >= 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(capacity > elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(capacity, elements.length << 1));
+        }
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
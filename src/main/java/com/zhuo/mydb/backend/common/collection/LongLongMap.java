@@ -0,0 +1,62 @@
+package com.zhuo.mydb.backend.common.collection;
+
+/**
+ * long -> long 哈希表，非线程安全
+ *
+ * @author : wzq
+ **/
+public class LongLongMap extends LongHashTable {
+    private long[] values;
+
+    public LongLongMap() {
+        this(0);
+    }
+
+    public LongLongMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    public long get(long key, long defaultValue) {
+        int i = slotOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public void put(long key, long value) {
+        int i = claimSlot(key);
+        values[i] = value;
+    }
+
+    public boolean remove(long key) {
+        int i = slotOf(key);
+        if(i < 0) {
+            return false;
+        }
+        removeSlot(i);
+        return true;
+    }
+
+    public long valueAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    void allocValues(int capacity) {
+        values = new long[capacity];
+    }
+
+    @Override
+    void moveValue(Object oldValues, int from, int to) {
+        long[] src = oldValues == null ? values : (long[]) oldValues;
+        values[to] = src[from];
+    }
+
+    @Override
+    Object values() {
+        return values;
+    }
+
+    @Override
+    void clearValue(int i) {
+        values[i] = 0;
+    }
+}
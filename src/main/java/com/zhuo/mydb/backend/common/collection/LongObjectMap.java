@@ -0,0 +1,75 @@
+package com.zhuo.mydb.backend.common.collection;
+
+/**
+ * long -> Object 哈希表，非线程安全
+ *
+ * @author : wzq
+ **/
+public class LongObjectMap<V> extends LongHashTable {
+    private Object[] values;
+
+    public LongObjectMap() {
+        this(0);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = slotOf(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    public void put(long key, V value) {
+        int i = claimSlot(key);
+        values[i] = value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = slotOf(key);
+        if(i < 0) {
+            return null;
+        }
+        V v = (V) values[i];
+        removeSlot(i);
+        return v;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int i) {
+        return (V) values[i];
+    }
+
+    // 以拷贝的形式返回所有键
+    public LongSet keySet() {
+        LongSet set = new LongSet(size);
+        for (int i = first(); i >= 0; i = next(i)) {
+            set.add(keyAt(i));
+        }
+        return set;
+    }
+
+    @Override
+    void allocValues(int capacity) {
+        values = new Object[capacity];
+    }
+
+    @Override
+    void moveValue(Object oldValues, int from, int to) {
+        Object[] src = oldValues == null ? values : (Object[]) oldValues;
+        values[to] = src[from];
+    }
+
+    @Override
+    Object values() {
+        return values;
+    }
+
+    @Override
+    void clearValue(int i) {
+        values[i] = null;
+    }
+}
@@ -0,0 +1,63 @@
+package com.zhuo.mydb.backend.common.collection;
+
+/**
+ * long 集合，非线程安全
+ *
+ * @author : wzq
+ **/
+public class LongSet extends LongHashTable {
+
+    public LongSet() {
+        this(0);
+    }
+
+    public LongSet(int expectedSize) {
+        super(expectedSize);
+    }
+
+    public boolean contains(long key) {
+        return containsKey(key);
+    }
+
+    public void add(long key) {
+        claimSlot(key);
+    }
+
+    public boolean remove(long key) {
+        int i = slotOf(key);
+        if(i < 0) {
+            return false;
+        }
+        removeSlot(i);
+        return true;
+    }
+
+    @Override
+    void allocValues(int capacity) {
+    }
+
+    @Override
+    void moveValue(Object oldValues, int from, int to) {
+    }
+
+    @Override
+    Object values() {
+        return null;
+    }
+
+    @Override
+    void clearValue(int i) {
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = first(); i >= 0; i = next(i)) {
+            if(sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(keyAt(i));
+        }
+        return sb.append("]").toString();
+    }
+}
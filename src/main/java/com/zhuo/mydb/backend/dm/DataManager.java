@@ -1,36 +1,62 @@
 package com.zhuo.mydb.backend.dm;
 
+import com.zhuo.mydb.backend.common.DBOptions;
 import com.zhuo.mydb.backend.dm.dataItem.DataItem;
 import com.zhuo.mydb.backend.dm.logger.Logger;
 import com.zhuo.mydb.backend.dm.page.PageOne;
 import com.zhuo.mydb.backend.dm.pageCache.PageCache;
 import com.zhuo.mydb.backend.tm.TransactionManager;
 
+import java.util.List;
+
 /**
  * @author : wzq
  **/
 public interface DataManager {
     DataItem read(long uid) throws Exception;
     long insert(long xid, byte[] data) throws Exception;
+    // 插入一条记录，尽量与 uid 放在同一页，放不下时与 insert 相同
+    long insertNear(long xid, long uid, byte[] data) throws Exception;
+    // 批量插入，记录按顺序填满页面，每页只写一条日志，返回各记录的 uid
+    List<Long> insertBatch(long xid, List<byte[]> datas) throws Exception;
+    // 释放 uid 的记录，之后读出为 null，空间在页面整理时被复用，槽号仍被占用
+    void free(long xid, long uid) throws Exception;
+    // 回收已释放记录的槽号，之后的插入可以复用它，调用者需保证已没有 uid 指向它；uid 仍被缓存引用时返回 false
+    boolean recycle(long uid) throws Exception;
+    // 把超过一页的数据切块存成溢出链，返回第一块的 uid
+    long insertOverflow(long xid, byte[] data) throws Exception;
+    byte[] readOverflow(long uid) throws Exception;
+    // 释放整条溢出链，返回各块的 uid
+    List<Long> freeOverflow(long xid, long uid) throws Exception;
+    // 提示 uid 所在的页面即将被读取，异步读入缓存
+    void prefetch(long uid);
+    // 数据库的页面大小，决定单条记录和索引节点的上限
+    int getPageSize();
+    // 日志写入时不刷盘，事务提交前调用，保证已写入的日志落盘
+    void flushLog();
     void close();
 
-    public static DataManager create(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.create(path, mem);
+    public static DataManager create(String path, DBOptions opts, TransactionManager tm) {
+        PageCache pc = PageCache.create(path, opts);
         Logger lg = Logger.create(path);
 
-        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm, opts);
         dm.initPageOne();
         return dm;
     }
 
-    public static DataManager open(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.open(path, mem);
+    public static DataManager open(String path, DBOptions opts, TransactionManager tm) {
+        PageCache pc = PageCache.open(path, opts);
         Logger lg = Logger.open(path);
-        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
-        if(!dm.loadCheckPageOne()) {
+        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm, opts);
+        boolean clean = dm.loadCheckPageOne();
+        if(!clean) {
+            //崩溃后 PageOne 中的页数不可信，由恢复按日志截断
             Recover.recover(tm, lg, pc);
+        } else {
+            dm.loadPageNumber();
         }
-        dm.fillPageIndex();
+        dm.fillPageIndex(clean);
         PageOne.setVcOpen(dm.pageOne);
         dm.pc.flushPage(dm.pageOne);
 
@@ -1,6 +1,8 @@
 package com.zhuo.mydb.backend.dm;
 
 import com.zhuo.mydb.backend.common.AbstractCache;
+import com.zhuo.mydb.backend.common.DBOptions;
+import com.zhuo.mydb.backend.common.SubArray;
 import com.zhuo.mydb.backend.dm.dataItem.DataItem;
 import com.zhuo.mydb.backend.dm.dataItem.DataItemImpl;
 import com.zhuo.mydb.backend.dm.logger.Logger;
@@ -8,39 +10,83 @@ import com.zhuo.mydb.backend.dm.page.Page;
 import com.zhuo.mydb.backend.dm.page.PageOne;
 import com.zhuo.mydb.backend.dm.page.PageX;
 import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import com.zhuo.mydb.backend.dm.pageCache.PageCacheImpl;
+import com.zhuo.mydb.backend.dm.pageIndex.FreeSpaceMap;
 import com.zhuo.mydb.backend.dm.pageIndex.PageIndex;
 import com.zhuo.mydb.backend.dm.pageIndex.PageInfo;
 import com.zhuo.mydb.backend.tm.TransactionManager;
 import com.zhuo.mydb.backend.utils.Panic;
+import com.zhuo.mydb.backend.utils.Parser;
 import com.zhuo.mydb.backend.utils.Types;
 import com.zhuo.mydb.common.Error;
 
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * @author : wzq
  **/
 public class DataManagerImpl extends AbstractCache<DataItem> implements DataManager {
+    // DataItemImpl 及其 SubArray、读写锁的对象开销，数据本身在页面中，由页面缓存计入
+    private static final int DATA_ITEM_OVERHEAD = 128;
+    // 溢出链中每一块的结构：[NextUid 8][Data]，NextUid 为 0 表示最后一块
+    private static final int OF_OVERFLOW_DATA = 8;
 
     TransactionManager tm;
     PageCache pc;
     Logger logger;
     PageIndex pIndex;
+    FreeSpaceMap fsm;
+    Map<Thread, PageInfo> inserting;        // 各线程正在填充的页面，这些页面不在索引中
+    Set<Integer> deferred;                  // 整理被推迟的页面，索引中只记着连续空间
     Page pageOne;
 
-    public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm) {
-        super(0);
+    public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm, DBOptions opts) {
+        super(opts.dataItemCacheMem(), opts.cacheShards, true);
         this.pc = pc;
+        //空闲的 DataItem 仍引用着页面，页面缓存满时先驱逐它们
+        ((PageCacheImpl) pc).setUpperCache(this);
+        //页面写回前由页面缓存把日志刷到页面的 LSN
+        ((PageCacheImpl) pc).setLogger(logger);
         this.logger = logger;
         this.tm = tm;
-        this.pIndex = new PageIndex();
+        this.pIndex = new PageIndex(pc.getPageSize());
+        this.fsm = new FreeSpaceMap(pc);
+        this.inserting = new ConcurrentHashMap<>();
+        this.deferred = ConcurrentHashMap.newKeySet();
     }
 
     @Override
     protected DataItem getForCache(long uid) throws Exception {
-        short offset = (short) (uid & ((1L << 16) - 1));
+        int slot = (int) (uid & ((1L << 16) - 1));
         uid >>>= 32;
         int pgno = (int) (uid & ((1L << 32) - 1));
         Page pg = pc.getPage(pgno);
-        return DataItem.parseDataItem(pg, offset, this);
+        //整理页面时持有页面锁，解析期间记录不会移动
+        pg.lock();
+        DataItem di;
+        try {
+            di = DataItem.parseDataItem(pg, slot, this);
+        } finally {
+            pg.unlock();
+        }
+        //槽还没有分配时不缓存占位的 DataItem，之后插入到这个槽的记录重新从页面读出
+        if(di == null) {
+            pg.release();
+            throw Error.NullEntryException;
+        }
+        return di;
+    }
+
+    @Override
+    protected int weigh(DataItem di) {
+        return DATA_ITEM_OVERHEAD + di.getOldRaw().length;
     }
 
     @Override
@@ -48,10 +94,10 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         di.page().release();
     }
 
-    // 为xid生成update日志
-    public void logDataItem(long xid, DataItem di) {
+    // 为xid生成update日志，返回日志的 LSN
+    public long logDataItem(long xid, DataItem di) {
         byte[] log = Recover.updateLog(xid, di);
-        logger.log(log);
+        return logger.log(log);
     }
 
     public void releaseDataItem(DataItem di) {
@@ -59,9 +105,35 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     }
 
 
+    @Override
+    public void prefetch(long uid) {
+        if(isCached(uid)) {
+            return;
+        }
+        pc.prefetch((int) ((uid >>> 32) & ((1L << 32) - 1)));
+    }
+
+    @Override
+    public int getPageSize() {
+        return pc.getPageSize();
+    }
+
+    @Override
+    public void flushLog() {
+        logger.flush(logger.getLsn());
+    }
+
     @Override
     public DataItem read(long uid) throws Exception {
-        DataItemImpl di = (DataItemImpl) super.get(uid);
+        DataItemImpl di;
+        try {
+            di = (DataItemImpl) super.get(uid);
+        } catch (Exception e) {
+            if (e == Error.NullEntryException) {
+                return null;
+            }
+            throw e;
+        }
         if (!di.isValid()) {
             di.release();
             return null;
@@ -71,69 +143,389 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
 
     @Override
     public long insert(long xid, byte[] data) throws Exception {
-        //构造一条记录
-        byte[] raw = DataItem.wrapDataItemRaw(data);
-        //如果当前记录 大于 一页的记录 则直接抛出错误不存储
-        if (raw.length > PageX.MAX_FREE_SPACE) {
-            throw Error.DataTooLargeException;
-        }
-
-        PageInfo pi = null;
-        //重复尝试5次，不加锁的原因：插入是高频操作，加锁影响性能
-        for (int i = 0; i < 5; i++) {
-            //找到相应的存储位置
-            pi = pIndex.select(raw.length);
-            if (pi != null) {
-                //找到了，出循环
-                break;
-            } else {
-                //没找到符合位置，申请新页
-                int newPgno = pc.newPage(PageX.initRaw());
-                pIndex.add(newPgno, PageX.MAX_FREE_SPACE);
+        return insertBatch(xid, Collections.singletonList(data)).get(0);
+    }
+
+    @Override
+    public List<Long> insertBatch(long xid, List<byte[]> datas) throws Exception {
+        //如果当前记录 大于 一页的记录 则直接抛出错误不存储，大的值由上层用 insertOverflow 存放
+        int maxFreeSpace = PageX.maxFreeSpace(pc.getPageSize());
+        List<byte[]> raws = new ArrayList<>(datas.size());
+        for (byte[] data : datas) {
+            //构造一条记录
+            byte[] raw = DataItem.wrapDataItemRaw(data);
+            if (raw.length > maxFreeSpace) {
+                throw Error.DataTooLargeException;
             }
+            raws.add(raw);
         }
-        //尝试5次不行，抛出数据库繁忙
-        if (pi == null) {
-            throw Error.DatabaseBusyException;
+        List<Long> uids = new ArrayList<>(raws.size());
+        while (uids.size() < raws.size()) {
+            insertIntoPage(xid, raws, uids, holdPage(raws.get(uids.size()).length, maxFreeSpace), true, true);
+        }
+        return uids;
+    }
+
+    /**
+     * uid 所在的页面是本线程正在填充的页面，或者在索引中没有被其他插入者取走时，直接插入该页
+     * 调用者引用着 uid 的记录，页面要整理才放得下时整理不了，改为普通插入
+     */
+    @Override
+    public long insertNear(long xid, long uid, byte[] data) throws Exception {
+        int pgno = (int) (uid >>> 32);
+        PageInfo cur = inserting.get(Thread.currentThread());
+        if (cur == null || cur.pgno != pgno) {
+            byte[] raw = DataItem.wrapDataItemRaw(data);
+            PageInfo pi = pIndex.take(pgno);
+            if (pi != null) {
+                List<Long> uids = new ArrayList<>(1);
+                insertIntoPage(xid, Collections.singletonList(raw), uids, pi, false, false);
+                if (!uids.isEmpty()) {
+                    return uids.get(0);
+                }
+            }
         }
+        return insert(xid, data);
+    }
 
+    /**
+     * 把raws中尚未插入的记录（从第 uids.size() 条起）尽量多地放进页面pi，一页只写一条日志
+     * 页面连一条都放不下时把页面放回索引后返回，由调用者换一页重试
+     * keep 表示pi是本线程正在填充的页面，插入后继续留给本线程，否则用完放回索引
+     * compactable 为 false 时不尝试整理，页面按整理后的空间放回索引，留给之后的插入整理
+     */
+    private void insertIntoPage(long xid, List<byte[]> raws, List<Long> uids, PageInfo pi, boolean keep, boolean compactable) throws Exception {
+        int from = uids.size();
+        int length = raws.get(from).length;
         Page pg = null;
-        int freeSpace = 0;
+        boolean kept = false;
+        int persisted = -1;
         try {
             //通过页号获取实际的页面
             pg = pc.getPage(pi.pgno);
-            //生成一份插入的日志，用于数据恢复，相当于redoLog
-            byte[] log = Recover.insertLog(xid, pg, raw);
-            logger.log(log);
-            //物理插入
-            short offset = PageX.insert(pg, raw);
+            //连续空间不够时整理页面中已释放的记录；整理不了的页面按连续空间放回索引并记入 deferred，换一页重试
+            //页面只是暂时被引用而整理不了，FSM 中仍记录整理后的空间，重新打开后可以整理
+            if (!PageX.canInsert(pg, length)
+                    && !(compactable && PageX.getFreeSpace(pg) >= length && compact(pg) && PageX.canInsert(pg, length))) {
+                persisted = PageX.getFreeSpace(pg);
+                pi.freeSpace = compactable ? PageX.getContiguousFreeSpace(pg) : persisted;
+                if (pi.freeSpace < persisted) {
+                    deferred.add(pi.pgno);
+                }
+                return;
+            }
+            //写日志、插入与记录 LSN 之间页面不会被写回，持有页面锁时槽目录不会被 recycle 改动
+            pg.lock();
+            pg.beginUpdate();
+            try {
+                int slot = PageX.nextSlot(pg);
+                //批量插入的槽号须连续，复用回收的槽时一次只插入一条
+                int fit = slot > PageX.getSlotCount(pg) ? PageX.countFit(pg, raws, from) : 1;
+                List<byte[]> batch = raws.subList(from, from + fit);
+                //生成一份插入的日志，用于数据恢复，相当于redoLog
+                byte[] log = batch.size() == 1 ? Recover.insertLog(xid, pg, slot, batch.get(0))
+                        : Recover.batchInsertLog(xid, pg, slot, batch);
+                long lsn = logger.log(log);
+                //物理插入
+                for (byte[] raw : batch) {
+                    //通过页号和槽号获得唯一标识
+                    uids.add(Types.addressToUid(pi.pgno, PageX.insert(pg, raw)));
+                }
+                pg.setLsn(lsn);
+            } finally {
+                pg.endUpdate();
+                pg.unlock();
+            }
+            pi.freeSpace = PageX.getFreeSpace(pg);
+            if (keep) {
+                fsm.set(pi.pgno, pi.freeSpace);
+                //本线程之后的插入继续填充这一页
+                inserting.put(Thread.currentThread(), pi);
+                kept = true;
+            }
+        } finally {
             //将页面缓存释放，解决一致性问题
+            if (pg != null) {
+                pg.release();
+            }
+            if (!kept) {
+                if (keep) {
+                    inserting.remove(Thread.currentThread());
+                }
+                returnPage(pi, persisted < 0 ? pi.freeSpace : persisted);
+            }
+        }
+    }
+
+    /**
+     * 除最后一块外每块都几乎占满一页，只能落在新申请或已经空出的页面上，与普通记录的页面分开
+     * 每块留出页面的 1/16，容纳页面被反复复用后留下的已释放的槽
+     * 从最后一块开始插入，每一块都能记下下一块的 uid
+     */
+    @Override
+    public long insertOverflow(long xid, byte[] data) throws Exception {
+        int pageSize = pc.getPageSize();
+        int chunk = PageX.maxFreeSpace(pageSize) - pageSize / 16 - DataItemImpl.OF_DATA - OF_OVERFLOW_DATA;
+        int chunks = Math.max(1, (data.length + chunk - 1) / chunk);
+        long next = 0;
+        for (int i = chunks - 1; i >= 0; i--) {
+            int from = i * chunk;
+            int to = Math.min(data.length, from + chunk);
+            byte[] raw = new byte[OF_OVERFLOW_DATA + to - from];
+            System.arraycopy(Parser.long2Byte(next), 0, raw, 0, OF_OVERFLOW_DATA);
+            System.arraycopy(data, from, raw, OF_OVERFLOW_DATA, to - from);
+            next = insert(xid, raw);
+        }
+        return next;
+    }
+
+    @Override
+    public byte[] readOverflow(long uid) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (uid != 0) {
+            DataItem di = read(uid);
+            if (di == null) {
+                throw Error.NullEntryException;
+            }
+            di.rLock();
+            try {
+                SubArray sa = di.data();
+                uid = Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start, sa.start + OF_OVERFLOW_DATA));
+                out.write(sa.raw, sa.start + OF_OVERFLOW_DATA, sa.end - sa.start - OF_OVERFLOW_DATA);
+            } finally {
+                di.rUnLock();
+                di.release();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // 逐块释放溢出链，遇到已释放的块时停止
+    @Override
+    public List<Long> freeOverflow(long xid, long uid) throws Exception {
+        List<Long> freed = new ArrayList<>();
+        while (uid != 0) {
+            DataItem di = read(uid);
+            if (di == null) {
+                break;
+            }
+            long next;
+            di.rLock();
+            try {
+                SubArray sa = di.data();
+                next = Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start, sa.start + OF_OVERFLOW_DATA));
+            } finally {
+                di.rUnLock();
+                di.release();
+            }
+            free(xid, uid);
+            freed.add(uid);
+            uid = next;
+        }
+        return freed;
+    }
+
+    /**
+     * 取得本线程插入用的页面：优先继续使用本线程正在填充的页面，放不下时把它放回索引，
+     * 从索引中取一页，索引中没有合适的页面时申请新页，因此不会因为争抢页面而失败
+     */
+    private PageInfo holdPage(int length, int maxFreeSpace) throws Exception {
+        Thread self = Thread.currentThread();
+        PageInfo pi = inserting.get(self);
+        if (pi != null) {
+            if (pi.freeSpace >= length) {
+                return pi;
+            }
+            inserting.remove(self);
+            returnHeldPage(pi);
+        }
+        reclaimPages();
+        pi = pIndex.select(length);
+        if (pi == null) {
+            pi = takeDeferred(length);
+        }
+        if (pi == null) {
+            //没找到符合位置，申请新页，直接归本线程使用
+            int newPgno = fsm.newPage(PageX.initRaw(pc.getPageSize()));
+            pi = pIndex.hold(newPgno, maxFreeSpace);
+        }
+        return pi;
+    }
+
+    /**
+     * 整理被推迟的页面之后没有记录再被释放时，索引中一直只记着连续空间，不会再被选中
+     * 申请新页前把它们逐个取出再整理一次，整理后放得下的页面归本线程使用，其余放回索引
+     */
+    private PageInfo takeDeferred(int length) throws Exception {
+        for (Integer pgno : deferred) {
+            //正被其他插入者使用的页面由它放回
+            PageInfo pi = pIndex.take(pgno);
+            if (pi == null) {
+                continue;
+            }
+            Page pg = pc.getPage(pgno);
+            int persisted;
+            boolean fit;
+            try {
+                fit = PageX.canInsert(pg, length)
+                        || PageX.getFreeSpace(pg) >= length && compact(pg) && PageX.canInsert(pg, length);
+                persisted = PageX.getFreeSpace(pg);
+                pi.freeSpace = fit ? persisted : PageX.getContiguousFreeSpace(pg);
+            } finally {
+                pg.release();
+            }
+            if (pi.freeSpace == persisted) {
+                deferred.remove(pgno);
+            }
+            if (fit) {
+                return pi;
+            }
+            returnPage(pi, persisted);
+        }
+        return null;
+    }
+
+    // 将页剩下的空间放到索引中，方便下次快速找到空闲的位置
+    private void returnPage(PageInfo pi) {
+        returnPage(pi, pi.freeSpace);
+    }
+
+    // FSM 中记录的空闲空间可以大于索引中的，即页面整理后的空间
+    private void returnPage(PageInfo pi, int persisted) {
+        fsm.set(pi.pgno, persisted);
+        pIndex.add(pi.pgno, pi.freeSpace);
+    }
+
+    /**
+     * 放回某个线程正在填充的页面：页面被取走期间释放的记录不会计入 pi，
+     * 按页面当前的空闲空间放回，否则会用过时的值覆盖 FSM 与索引
+     */
+    private void returnHeldPage(PageInfo pi) throws Exception {
+        Page pg = pc.getPage(pi.pgno);
+        try {
+            pi.freeSpace = PageX.getFreeSpace(pg);
+        } finally {
             pg.release();
-            //通过页号和偏移量获得唯一标识并返回
-            return Types.addressToUid(pi.pgno, offset);
+        }
+        returnPage(pi);
+    }
+
+    // 线程结束后它正在填充的页面放回索引
+    private void reclaimPages() throws Exception {
+        for (Thread t : inserting.keySet()) {
+            if (!t.isAlive()) {
+                PageInfo pi = inserting.remove(t);
+                if (pi != null) {
+                    returnHeldPage(pi);
+                }
+            }
+        }
+    }
+
+    /**
+     * 整理页面中已释放的空间，记录会移动，页面上不能有缓存的 DataItem
+     * 先驱逐该页空闲的 DataItem（及上层引用它们的 Entry），仍有其他引用时放弃
+     */
+    private boolean compact(Page pg) {
+        int pgno = pg.getPageNumber();
+        int slots = PageX.getSlotCount(pg);
+        for (int slot = 1; slot <= slots; slot++) {
+            evictIfIdle(Types.addressToUid(pgno, slot));
+        }
+        pg.lock();
+        try {
+            if (!pc.isExclusive(pg)) {
+                return false;
+            }
+            PageX.compact(pg);
+            return true;
         } finally {
-            // 将页剩下的空间放到缓存中，方便下次快速找到空闲的位置
-            if (pg != null) {
-                pIndex.add(pi.pgno, PageX.getFreeSpace(pg));
-            } else {
-                pIndex.add(pi.pgno, freeSpace);
+            pg.unlock();
+        }
+    }
+
+    @Override
+    public void free(long xid, long uid) throws Exception {
+        DataItem di = super.get(uid);
+        try {
+            Page pg = di.page();
+            int slot = (int) (uid & ((1L << 16) - 1));
+            di.lock();
+            pg.beginUpdate();
+            try {
+                if (PageX.getOffset(pg, slot) == 0) {
+                    return;
+                }
+                long lsn = logger.log(Recover.freeLog(xid, uid));
+                //缓存中的 DataItem 仍指向页面中的记录，标记为无效后读出为 null
+                DataItem.setDataItemRawInvalid(di.getRaw());
+                PageX.free(pg, slot);
+                pg.setLsn(lsn);
+            } finally {
+                pg.endUpdate();
+                di.unlock();
+            }
+            int freeSpace = PageX.getFreeSpace(pg);
+            fsm.set(pg.getPageNumber(), freeSpace);
+            pIndex.update(pg.getPageNumber(), freeSpace);
+        } finally {
+            di.release();
+        }
+    }
+
+    /**
+     * 回收已释放记录的槽号：先驱逐缓存中该 uid 空闲的 DataItem（及 Entry），仍被引用时放弃
+     * 槽号被复用后，残留在缓存中的 DataItem 会把新记录读成已释放的记录
+     */
+    @Override
+    public boolean recycle(long uid) throws Exception {
+        evictIfIdle(uid);
+        if (isCached(uid)) {
+            return false;
+        }
+        int pgno = (int) (uid >>> 32);
+        int slot = (int) (uid & ((1L << 16) - 1));
+        Page pg = pc.getPage(pgno);
+        try {
+            pg.lock();
+            pg.beginUpdate();
+            try {
+                if (!PageX.isDead(pg, slot)) {
+                    return true;
+                }
+                long lsn = logger.log(Recover.recycleLog(uid));
+                PageX.recycle(pg, slot);
+                pg.setLsn(lsn);
+            } finally {
+                pg.endUpdate();
+                pg.unlock();
             }
+            int freeSpace = PageX.getFreeSpace(pg);
+            fsm.set(pgno, freeSpace);
+            pIndex.update(pgno, freeSpace);
+        } finally {
+            pg.release();
         }
+        return true;
     }
 
     @Override
     public void close() {
         super.close();
-        logger.close();
+        fsm.close();
 
+        PageOne.setPageCount(pageOne, pc.getPageNumber());
+        PageOne.setFsmValid(pageOne, fsm.isValid());
         PageOne.setVcClose(pageOne);
         pageOne.release();
+        //页面写回时还要刷日志，日志最后关闭
         pc.close();
+        logger.close();
     }
 
     // 在创建文件时初始化PageOne
     void initPageOne() {
-        int pgno = pc.newPage(PageOne.initRaw());
+        int pgno = pc.newPage(PageOne.initRaw(pc.getPageSize(), pc.getSegmentSize()));
         assert pgno == 1;
         try {
             pageOne = pc.getPage(pgno);
@@ -150,21 +542,29 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         } catch (Exception e) {
             Panic.panic(e);
         }
+        //页面缓存按打开时读到的页面大小划分，必须与 PageOne 记录的一致
+        if(PageOne.getPageSize(pageOne) != pc.getPageSize()) {
+            Panic.panic(Error.InvalidPageSizeException);
+        }
         return PageOne.checkVc(pageOne);
     }
 
-    // 初始化pageIndex
-    void fillPageIndex() {
-        int pageNumber = pc.getPageNumber();
-        for (int i = 2; i <= pageNumber; i++) {
-            Page pg = null;
-            try {
-                pg = pc.getPage(i);
-            } catch (Exception e) {
-                Panic.panic(e);
-            }
-            pIndex.add(pg.getPageNumber(), PageX.getFreeSpace(pg));
-            pg.release();
+    // 正常关闭的数据库按 PageOne 记录的逻辑页数截掉预先扩展的部分
+    void loadPageNumber() {
+        int pageCount = PageOne.getPageCount(pageOne);
+        if(pageCount > 0) {
+            pc.truncateByBgno(pageCount);
+        }
+    }
+
+    // 初始化pageIndex，正常关闭且 FSM 页可信时只读 FSM 页，否则在后台逐页重建
+    void fillPageIndex(boolean clean) {
+        if (clean && PageOne.isFsmValid(pageOne)) {
+            fsm.load(pIndex);
+        } else {
+            fsm.rebuild(pIndex);
         }
+        //运行期间 FSM 页的修改不写日志，崩溃后不可信
+        PageOne.setFsmValid(pageOne, false);
     }
 }
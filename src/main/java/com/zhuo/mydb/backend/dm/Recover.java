@@ -8,10 +8,13 @@ import com.zhuo.mydb.backend.dm.page.Page;
 import com.zhuo.mydb.backend.dm.page.PageX;
 import com.zhuo.mydb.backend.dm.pageCache.PageCache;
 import com.zhuo.mydb.backend.tm.TransactionManager;
+import com.zhuo.mydb.backend.tm.TransactionManagerImpl;
 import com.zhuo.mydb.backend.utils.Panic;
 import com.zhuo.mydb.backend.utils.Parser;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * @author : wzq
@@ -19,6 +22,9 @@ import java.util.Arrays;
 public class Recover {
     private static final byte LOG_TYPE_INSERT = 0;
     private static final byte LOG_TYPE_UPDATE = 1;
+    private static final byte LOG_TYPE_FREE = 2;
+    private static final byte LOG_TYPE_BATCH_INSERT = 3;
+    private static final byte LOG_TYPE_RECYCLE = 4;
 
     private static final int REDO = 0;
     private static final int UNDO = 1;
@@ -26,18 +32,31 @@ public class Recover {
     static class InsertLogInfo {
         long xid;
         int pgno;
-        short offset;
+        int slot;
         byte[] raw;
     }
 
+    static class BatchInsertLogInfo {
+        long xid;
+        int pgno;
+        int slot;
+        List<byte[]> raws;
+    }
+
     static class UpdateLogInfo {
         long xid;
         int pgno;
-        short offset;
+        int slot;
         byte[] oldRaw;
         byte[] newRaw;
     }
 
+    static class FreeLogInfo {
+        long xid;
+        int pgno;
+        int slot;
+    }
+
     public static void recover(TransactionManager tm, Logger lg, PageCache pc) {
         System.out.println("Recovering...");
 
@@ -50,6 +69,10 @@ public class Recover {
             if (isInsertLog(log)) {
                 InsertLogInfo li = parseInsertLog(log);
                 pgno = li.pgno;
+            } else if (isBatchInsertLog(log)) {
+                pgno = parseBatchInsertLog(log).pgno;
+            } else if (isFreeLog(log) || isRecycleLog(log)) {
+                pgno = parseFreeLog(log).pgno;
             } else {
                 UpdateLogInfo li = parseUpdateLog(log);
                 pgno = li.pgno;
@@ -71,22 +94,43 @@ public class Recover {
         System.out.println("Recovery Over.");
     }
 
+    /**
+     * 按日志顺序重做，页面的 LSN 不小于日志的 LSN 时说明修改已在页面中，跳过
+     * 记录按槽号定位，页面整理不写日志也不影响重做
+     */
     private static void redoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
         lg.rewind();
         while (true) {
             byte[] log = lg.next();
             if (log == null) break;
+            long lsn = lg.getPosition();
             if (isInsertLog(log)) {
                 InsertLogInfo li = parseInsertLog(log);
                 long xid = li.xid;
                 if (!tm.isActive(xid)) {
-                    doInsertLog(pc, log, REDO);
+                    doInsertLog(pc, log, REDO, lsn);
+                } else {
+                    doDiscardInsert(pc, li.pgno, li.slot, 1, lsn);
+                }
+            } else if (isBatchInsertLog(log)) {
+                BatchInsertLogInfo li = parseBatchInsertLog(log);
+                if (!tm.isActive(li.xid)) {
+                    doBatchInsertLog(pc, li, lsn);
+                } else {
+                    doDiscardInsert(pc, li.pgno, li.slot, li.raws.size(), lsn);
                 }
+            } else if (isFreeLog(log)) {
+                FreeLogInfo li = parseFreeLog(log);
+                if (!tm.isActive(li.xid)) {
+                    doFreeLog(pc, li, lsn);
+                }
+            } else if (isRecycleLog(log)) {
+                doRecycleLog(pc, parseFreeLog(log), lsn);
             } else {
                 UpdateLogInfo li = parseUpdateLog(log);
                 long xid = li.xid;
                 if (!tm.isActive(xid)) {
-                    doUpdateLog(pc, log, REDO);
+                    doUpdateLog(pc, log, REDO, lsn);
                 }
             }
         }
@@ -96,6 +140,28 @@ public class Recover {
         return log[0] == LOG_TYPE_INSERT;
     }
 
+    private static boolean isBatchInsertLog(byte[] log) {
+        return log[0] == LOG_TYPE_BATCH_INSERT;
+    }
+
+    private static boolean isFreeLog(byte[] log) {
+        return log[0] == LOG_TYPE_FREE;
+    }
+
+    private static boolean isRecycleLog(byte[] log) {
+        return log[0] == LOG_TYPE_RECYCLE;
+    }
+
+    private static Page getPage(PageCache pc, int pgno) {
+        Page pg = null;
+        try {
+            pg = pc.getPage(pgno);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        return pg;
+    }
+
     // [LogType] [XID] [UID] [OldRaw] [NewRaw]
     private static final int OF_TYPE = 0;
     private static final int OF_XID = OF_TYPE + 1;
@@ -117,7 +183,7 @@ public class Recover {
         UpdateLogInfo li = new UpdateLogInfo();
         li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_UPDATE_UID));
         long uid = Parser.parseLong(Arrays.copyOfRange(log, OF_UPDATE_UID, OF_UPDATE_RAW));
-        li.offset = (short) (uid & ((1L << 16) - 1));
+        li.slot = (int) (uid & ((1L << 16) - 1));
         uid >>>= 32;
         li.pgno = (int) (uid & ((1L << 32) - 1));
         int length = (log.length - OF_UPDATE_RAW) / 2;
@@ -126,71 +192,203 @@ public class Recover {
         return li;
     }
 
-    private static void doUpdateLog(PageCache pc, byte[] log, int flag) {
+    private static void doUpdateLog(PageCache pc, byte[] log, int flag, long lsn) {
         int pgno;
-        short offset;
+        int slot;
         byte[] raw;
         if (flag == REDO) {
             UpdateLogInfo xi = parseUpdateLog(log);
             pgno = xi.pgno;
-            offset = xi.offset;
+            slot = xi.slot;
             raw = xi.newRaw;
         } else {
             UpdateLogInfo xi = parseUpdateLog(log);
             pgno = xi.pgno;
-            offset = xi.offset;
+            slot = xi.slot;
             raw = xi.oldRaw;
         }
-        Page pg = null;
+        Page pg = getPage(pc, pgno);
+        pg.beginUpdate();
         try {
-            pg = pc.getPage(pgno);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
-        try {
-            PageX.recoverUpdate(pg, raw, offset);
+            if (flag == REDO && pg.getLsn() >= lsn) {
+                return;
+            }
+            PageX.recoverUpdate(pg, raw, slot);
+            pg.setLsn(lsn);
         } finally {
+            pg.endUpdate();
             pg.release();
         }
     }
 
 
-    // [LogType] [XID] [Pgno] [Offset] [Raw]
+    // [LogType] [XID] [Pgno] [Slot] [Raw]
     private static final int OF_INSERT_PGNO = OF_XID + 8;
-    private static final int OF_INSERT_OFFSET = OF_INSERT_PGNO + 4;
-    private static final int OF_INSERT_RAW = OF_INSERT_OFFSET + 2;
+    private static final int OF_INSERT_SLOT = OF_INSERT_PGNO + 4;
+    private static final int OF_INSERT_RAW = OF_INSERT_SLOT + 2;
 
-    public static byte[] insertLog(long xid, Page pg, byte[] raw) {
+    public static byte[] insertLog(long xid, Page pg, int slot, byte[] raw) {
         byte[] logTypeRaw = {LOG_TYPE_INSERT};
         byte[] xidRaw = Parser.long2Byte(xid);
         byte[] pgnoRaw = Parser.int2Byte(pg.getPageNumber());
-        byte[] offsetRaw = Parser.short2Byte(PageX.getFSO(pg));
-        return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, offsetRaw, raw);
+        byte[] slotRaw = Parser.short2Byte((short) slot);
+        return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, slotRaw, raw);
     }
 
     private static InsertLogInfo parseInsertLog(byte[] log) {
         InsertLogInfo li = new InsertLogInfo();
         li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_INSERT_PGNO));
-        li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_OFFSET));
-        li.offset = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_OFFSET, OF_INSERT_RAW));
+        li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_SLOT));
+        li.slot = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_SLOT, OF_INSERT_RAW)) & 0xFFFF;
         li.raw = Arrays.copyOfRange(log, OF_INSERT_RAW, log.length);
         return li;
     }
 
-    private static void doInsertLog(PageCache pc, byte[] log, int flag) {
+    private static void doInsertLog(PageCache pc, byte[] log, int flag, long lsn) {
         InsertLogInfo li = parseInsertLog(log);
-        Page pg = null;
-        try {
-            pg = pc.getPage(li.pgno);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
+        Page pg = getPage(pc, li.pgno);
+        pg.beginUpdate();
         try {
+            if (flag == REDO && pg.getLsn() >= lsn) {
+                return;
+            }
             if (flag == UNDO) {
                 DataItem.setDataItemRawInvalid(li.raw);
             }
-            PageX.recoverInsert(pg, li.raw, li.offset);
+            PageX.recoverInsert(pg, li.raw, li.slot);
+            pg.setLsn(lsn);
+        } finally {
+            pg.endUpdate();
+            pg.release();
+        }
+    }
+
+    // [LogType] [XID] [Pgno] [FirstSlot] [Length1] [Raw1] ... [LengthN] [RawN]
+    // 一页中连续插入的多条记录，槽号从 FirstSlot 起依次递增
+    private static final int OF_BATCH_PGNO = OF_XID + 8;
+    private static final int OF_BATCH_SLOT = OF_BATCH_PGNO + 4;
+    private static final int OF_BATCH_RAWS = OF_BATCH_SLOT + 2;
+
+    public static byte[] batchInsertLog(long xid, Page pg, int slot, List<byte[]> raws) {
+        int size = OF_BATCH_RAWS;
+        for (byte[] raw : raws) {
+            size += 2 + raw.length;
+        }
+        byte[] log = new byte[size];
+        log[OF_TYPE] = LOG_TYPE_BATCH_INSERT;
+        System.arraycopy(Parser.long2Byte(xid), 0, log, OF_XID, 8);
+        System.arraycopy(Parser.int2Byte(pg.getPageNumber()), 0, log, OF_BATCH_PGNO, 4);
+        System.arraycopy(Parser.short2Byte((short) slot), 0, log, OF_BATCH_SLOT, 2);
+        int pos = OF_BATCH_RAWS;
+        for (byte[] raw : raws) {
+            System.arraycopy(Parser.short2Byte((short) raw.length), 0, log, pos, 2);
+            System.arraycopy(raw, 0, log, pos + 2, raw.length);
+            pos += 2 + raw.length;
+        }
+        return log;
+    }
+
+    private static BatchInsertLogInfo parseBatchInsertLog(byte[] log) {
+        BatchInsertLogInfo li = new BatchInsertLogInfo();
+        li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_BATCH_PGNO));
+        li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_BATCH_PGNO, OF_BATCH_SLOT));
+        li.slot = Parser.parseShort(Arrays.copyOfRange(log, OF_BATCH_SLOT, OF_BATCH_RAWS)) & 0xFFFF;
+        li.raws = new ArrayList<>();
+        int pos = OF_BATCH_RAWS;
+        while (pos < log.length) {
+            int length = Parser.parseShort(Arrays.copyOfRange(log, pos, pos + 2)) & 0xFFFF;
+            li.raws.add(Arrays.copyOfRange(log, pos + 2, pos + 2 + length));
+            pos += 2 + length;
+        }
+        return li;
+    }
+
+    private static void doBatchInsertLog(PageCache pc, BatchInsertLogInfo li, long lsn) {
+        Page pg = getPage(pc, li.pgno);
+        pg.beginUpdate();
+        try {
+            if (pg.getLsn() >= lsn) {
+                return;
+            }
+            for (int i = 0; i < li.raws.size(); i++) {
+                PageX.recoverInsert(pg, li.raws.get(i), li.slot + i);
+            }
+            pg.setLsn(lsn);
+        } finally {
+            pg.endUpdate();
+            pg.release();
+        }
+    }
+
+    /**
+     * 崩溃时仍活跃的事务的插入不重做，但索引的插入以 SUPER_XID 记录并会被重做，可能已指向这些槽号
+     * 因此仍占住这些槽并置为已释放，之后的插入不会再分到这些槽号；记录已在页面中时同样释放
+     */
+    private static void doDiscardInsert(PageCache pc, int pgno, int slot, int count, long lsn) {
+        Page pg = getPage(pc, pgno);
+        pg.beginUpdate();
+        try {
+            for (int i = 0; i < count; i++) {
+                PageX.recoverFree(pg, slot + i);
+            }
+            if (pg.getLsn() < lsn) {
+                pg.setLsn(lsn);
+            }
+        } finally {
+            pg.endUpdate();
+            pg.release();
+        }
+    }
+
+    // [LogType] [XID] [UID]
+    private static final int OF_FREE_UID = OF_XID + 8;
+
+    public static byte[] freeLog(long xid, long uid) {
+        byte[] logTypeRaw = {LOG_TYPE_FREE};
+        return Bytes.concat(logTypeRaw, Parser.long2Byte(xid), Parser.long2Byte(uid));
+    }
+
+    private static FreeLogInfo parseFreeLog(byte[] log) {
+        FreeLogInfo li = new FreeLogInfo();
+        li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_FREE_UID));
+        long uid = Parser.parseLong(Arrays.copyOfRange(log, OF_FREE_UID, OF_FREE_UID + 8));
+        li.slot = (int) (uid & ((1L << 16) - 1));
+        li.pgno = (int) (uid >>> 32);
+        return li;
+    }
+
+    private static void doFreeLog(PageCache pc, FreeLogInfo li, long lsn) {
+        Page pg = getPage(pc, li.pgno);
+        pg.beginUpdate();
+        try {
+            if (pg.getLsn() >= lsn) {
+                return;
+            }
+            PageX.free(pg, li.slot);
+            pg.setLsn(lsn);
+        } finally {
+            pg.endUpdate();
+            pg.release();
+        }
+    }
+
+    // [LogType] [XID] [UID]，与 free 日志相同，由 SUPER_XID 写入
+    public static byte[] recycleLog(long uid) {
+        byte[] logTypeRaw = {LOG_TYPE_RECYCLE};
+        return Bytes.concat(logTypeRaw, Parser.long2Byte(TransactionManagerImpl.SUPER_XID), Parser.long2Byte(uid));
+    }
+
+    private static void doRecycleLog(PageCache pc, FreeLogInfo li, long lsn) {
+        Page pg = getPage(pc, li.pgno);
+        pg.beginUpdate();
+        try {
+            if (pg.getLsn() >= lsn) {
+                return;
+            }
+            PageX.recycle(pg, li.slot);
+            pg.setLsn(lsn);
         } finally {
+            pg.endUpdate();
             pg.release();
         }
     }
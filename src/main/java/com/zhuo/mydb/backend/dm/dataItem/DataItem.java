@@ -4,6 +4,7 @@ import com.google.common.primitives.Bytes;
 import com.zhuo.mydb.backend.common.SubArray;
 import com.zhuo.mydb.backend.dm.DataManagerImpl;
 import com.zhuo.mydb.backend.dm.page.Page;
+import com.zhuo.mydb.backend.dm.page.PageX;
 import com.zhuo.mydb.backend.utils.Parser;
 import com.zhuo.mydb.backend.utils.Types;
 
@@ -36,16 +37,31 @@ public interface DataItem {
         return Bytes.concat(valid, size, raw);
     }
 
-    // 从页面的offset处解析处dataitem
-    public static DataItem parseDataItem(Page pg, short offset, DataManagerImpl dm) {
+    // 从页面的slot中解析处dataitem，需持有页面锁，防止记录被整理移动；槽还没有分配时返回 null
+    public static DataItem parseDataItem(Page pg, int slot, DataManagerImpl dm) {
+        long uid = Types.addressToUid(pg.getPageNumber(), slot);
+        if(slot > PageX.getSlotCount(pg)) {
+            return null;
+        }
+        int offset = PageX.getOffset(pg, slot);
+        if(offset == 0) {
+            //已释放的记录读出为一个不在页面中的无效 DataItem
+            byte[] raw = new byte[DataItemImpl.OF_DATA];
+            setDataItemRawInvalid(raw);
+            return new DataItemImpl(new SubArray(raw, 0, raw.length), new byte[raw.length], pg, uid, dm);
+        }
         byte[] raw = pg.getData();
-        short size = Parser.parseShort(Arrays.copyOfRange(raw, offset+DataItemImpl.OF_SIZE, offset+DataItemImpl.OF_DATA));
-        short length = (short)(size + DataItemImpl.OF_DATA);
-        long uid = Types.addressToUid(pg.getPageNumber(), offset);
+        //大页面中 size 可能超过 short 的范围，按无符号数解释
+        int size = Parser.parseShort(Arrays.copyOfRange(raw, offset+DataItemImpl.OF_SIZE, offset+DataItemImpl.OF_DATA)) & 0xFFFF;
+        int length = size + DataItemImpl.OF_DATA;
         return new DataItemImpl(new SubArray(raw, offset, offset+length), new byte[length], pg, uid, dm);
     }
 
     public static void setDataItemRawInvalid(byte[] raw) {
         raw[DataItemImpl.OF_VALID] = (byte)1;
     }
+
+    public static void setDataItemRawInvalid(SubArray raw) {
+        raw.raw[raw.start+DataItemImpl.OF_VALID] = (byte)1;
+    }
 }
@@ -17,7 +17,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class DataItemImpl implements DataItem{
     static final int OF_VALID = 0;
     static final int OF_SIZE = 1;
-    static final int OF_DATA = 3;
+    public static final int OF_DATA = 3;
 
     private SubArray raw;
     private byte[] oldRaw;
@@ -53,18 +53,22 @@ public class DataItemImpl implements DataItem{
     public void before() {
         wLock.lock();
         pg.setDirty(true);
+        pg.beginUpdate();
         System.arraycopy(raw.raw, raw.start, oldRaw, 0, oldRaw.length);
     }
 
     @Override
     public void unBefore() {
         System.arraycopy(oldRaw, 0, raw.raw, raw.start, oldRaw.length);
+        pg.endUpdate();
         wLock.unlock();
     }
 
     @Override
     public void after(long xid) {
-        dm.logDataItem(xid, this);
+        //记下日志的 LSN 后修改才算完成，页面写回前会先把日志刷到这里
+        pg.setLsn(dm.logDataItem(xid, this));
+        pg.endUpdate();
         wLock.unlock();
     }
 
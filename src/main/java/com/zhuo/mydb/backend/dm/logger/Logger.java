@@ -12,12 +12,21 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 /**
+ * log 只写入不刷盘，返回这条日志的 LSN（日志在文件中的结束位置）；
+ * 需要持久化时调用 flush，一次 force 覆盖此前写入的所有日志
+ *
  * @author : wzq
  **/
 public interface Logger {
-    void log(byte[] data);
+    long log(byte[] data);
+    // 保证 LSN 不超过 lsn 的日志都已落盘
+    void flush(long lsn);
+    // 已写入的最后一条日志的 LSN
+    long getLsn();
     void truncate(long x) throws Exception;
     byte[] next();
+    // next 读出的上一条日志的 LSN
+    long getPosition();
     void rewind();
     void close();
 
@@ -52,7 +61,7 @@ public interface Logger {
             Panic.panic(e);
         }
 
-        return new LoggerImpl(raf, fc, 0);
+        return new LoggerImpl(raf, fc, 0, 4);
     }
 
     public static Logger open(String path) {
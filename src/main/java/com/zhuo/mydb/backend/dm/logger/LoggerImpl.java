@@ -19,6 +19,8 @@ import java.util.concurrent.locks.ReentrantLock;
  * 日志文件标准格式为：
  * [XChecksum] [Log1] [Log2] ... [LogN] [BadTail]
  * XChecksum 为后续所有日志计算的Checksum，int类型
+ * XChecksum 在 flush 中于 force 之后写入，随下一次 force 落盘，因此可能落后于已落盘的日志：
+ * 打开时只要它等于某个前缀的校验和即可，BadTail 之前的日志全部保留
  * <p>
  * 每条正确日志的格式为：
  * [Size] [Checksum] [Data]
@@ -37,22 +39,26 @@ public class LoggerImpl implements Logger {
     private RandomAccessFile file;
     private FileChannel fc;
     private Lock lock;
+    private Lock flushLock;
 
     private long position;  // 当前日志指针的位置
     private long fileSize;  // 初始化时记录，log操作不更新
     private int xChecksum;
+    private long end;                       // 文件末尾，即最后一条日志的 LSN
+    private volatile long flushedLsn;       // 已落盘的位置
 
     LoggerImpl(RandomAccessFile raf, FileChannel fc) {
         this.file = raf;
         this.fc = fc;
         lock = new ReentrantLock();
+        flushLock = new ReentrantLock();
     }
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc, int xChecksum) {
-        this.file = raf;
-        this.fc = fc;
+    LoggerImpl(RandomAccessFile raf, FileChannel fc, int xChecksum, long end) {
+        this(raf, fc);
         this.xChecksum = xChecksum;
-        lock = new ReentrantLock();
+        this.end = end;
+        this.flushedLsn = end;
     }
 
     void init() {
@@ -80,17 +86,19 @@ public class LoggerImpl implements Logger {
         checkAndRemoveTail();
     }
 
-    // 检查并移除bad tail
+    // 检查并移除bad tail，XChecksum 须与某个前缀的校验和一致
     private void checkAndRemoveTail() {
         rewind();
 
         int xCheck = 0;
+        boolean matched = xCheck == xChecksum;
         while (true) {
             byte[] log = internNext();
             if (log == null) break;
             xCheck = calChecksum(xCheck, log);
+            matched |= xCheck == xChecksum;
         }
-        if (xCheck != xChecksum) {
+        if (!matched) {
             Panic.panic(Error.BadLogFileException);
         }
 
@@ -104,6 +112,14 @@ public class LoggerImpl implements Logger {
         } catch (IOException e) {
             Panic.panic(e);
         }
+        fileSize = position;
+        end = position;
+        flushedLsn = position;
+        if(xCheck != xChecksum) {
+            xChecksum = xCheck;
+            writeXChecksum(xCheck);
+            force();
+        }
         rewind();
     }
 
@@ -115,25 +131,77 @@ public class LoggerImpl implements Logger {
     }
 
     @Override
-    public void log(byte[] data) {
+    public long log(byte[] data) {
         byte[] log = wrapLog(data);
         ByteBuffer buf = ByteBuffer.wrap(log);
         lock.lock();
         try {
-            fc.position(fc.size());
-            fc.write(buf);
+            while (buf.hasRemaining()) {
+                fc.write(buf, end + buf.position());
+            }
+            //校验和与写入顺序一致，需在锁内更新
+            xChecksum = calChecksum(xChecksum, log);
+            end += log.length;
+            return end;
         } catch (IOException e) {
             Panic.panic(e);
+            return 0;
         } finally {
             lock.unlock();
         }
-        updateXChecksum(log);
     }
-    private void updateXChecksum(byte[] log) {
-        this.xChecksum = calChecksum(this.xChecksum, log);
+
+    /**
+     * 一次 force 覆盖调用时已写入的全部日志，并发的提交由先拿到锁的线程一并刷盘
+     * force 之后再写 XChecksum，它只描述已落盘的日志，本身随下一次 force 落盘
+     */
+    @Override
+    public void flush(long lsn) {
+        if (lsn <= flushedLsn) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            if (lsn <= flushedLsn) {
+                return;
+            }
+            long target;
+            int xCheck;
+            lock.lock();
+            try {
+                target = end;
+                xCheck = xChecksum;
+            } finally {
+                lock.unlock();
+            }
+            force();
+            writeXChecksum(xCheck);
+            flushedLsn = target;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public long getLsn() {
+        lock.lock();
+        try {
+            return end;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeXChecksum(int xCheck) {
+        try {
+            fc.write(ByteBuffer.wrap(Parser.int2Byte(xCheck)), 0);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    private void force() {
         try {
-            fc.position(0);
-            fc.write(ByteBuffer.wrap(Parser.int2Byte(xChecksum)));
             fc.force(false);
         } catch (IOException e) {
             Panic.panic(e);
@@ -168,6 +236,11 @@ public class LoggerImpl implements Logger {
         }
     }
 
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
     @Override
     public void rewind() {
         position = 4;
@@ -175,6 +248,8 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void close() {
+        flush(getLsn());
+        force();
         try {
             fc.close();
             file.close();
@@ -6,6 +6,15 @@ public interface Page {
     void release();
     void setDirty(boolean dirty);
     boolean isDirty();
+    // DataItem 修改期间页面内容不完整，后台写回会跳过正在修改的页面
+    void beginUpdate();
+    void endUpdate();
+    // 将页面内容的一致副本复制到 dst，复制期间有修改时返回 false
+    boolean snapshot(byte[] dst);
     int getPageNumber();
     byte[] getData();
+    // 页面最后一次修改对应日志的 LSN，记录在页尾，写回前日志须落盘到该位置
+    long getLsn();
+    // 只会增大，需在 beginUpdate 与 endUpdate 之间调用
+    void setLsn(long lsn);
 }
\ No newline at end of file
@@ -0,0 +1,57 @@
+package com.zhuo.mydb.backend.dm.page;
+
+import com.zhuo.mydb.backend.utils.Parser;
+
+import java.util.Arrays;
+
+/**
+ * PageFsm管理空闲空间页（FSM 页）
+ * FSM 页结构
+ * [Entry1] [Entry2] ... [EntryN] ... [PageLSN]
+ * Entry: 2字节 对应数据页整理后的空闲空间，按无符号数解释，0 表示没有空间或尚未记录
+ * FSM 页固定在 2、2+(N+1)、2+2(N+1) ... 处，每个 FSM 页记录紧随其后的 N 个数据页
+ * FSM 页不写日志，只在数据库正常关闭后可信
+ *
+ * @author : wzq
+ **/
+public class PageFsm {
+    private static final int FIRST_PGNO = 2;
+    private static final int ENTRY_SIZE = 2;
+
+    // 每个 FSM 页记录的数据页个数
+    public static int entriesPerPage(int pageSize) {
+        return (pageSize - PageImpl.LSN_SIZE) / ENTRY_SIZE;
+    }
+
+    public static boolean isFsmPage(int pgno, int pageSize) {
+        return pgno >= FIRST_PGNO && (pgno - FIRST_PGNO) % (entriesPerPage(pageSize) + 1) == 0;
+    }
+
+    // 记录数据页pgno的 FSM 页
+    public static int fsmPgno(int pgno, int pageSize) {
+        int group = entriesPerPage(pageSize) + 1;
+        return FIRST_PGNO + (pgno - FIRST_PGNO) / group * group;
+    }
+
+    private static int entryPos(int pgno, int pageSize) {
+        return (pgno - fsmPgno(pgno, pageSize) - 1) * ENTRY_SIZE;
+    }
+
+    public static int getFreeSpace(Page fsm, int pgno) {
+        byte[] raw = fsm.getData();
+        int pos = entryPos(pgno, raw.length);
+        return Parser.parseShort(Arrays.copyOfRange(raw, pos, pos + ENTRY_SIZE)) & 0xFFFF;
+    }
+
+    public static void setFreeSpace(Page fsm, int pgno, int freeSpace) {
+        byte[] raw = fsm.getData();
+        int pos = entryPos(pgno, raw.length);
+        fsm.beginUpdate();
+        try {
+            System.arraycopy(Parser.short2Byte((short) freeSpace), 0, raw, pos, ENTRY_SIZE);
+            fsm.setDirty(true);
+        } finally {
+            fsm.endUpdate();
+        }
+    }
+}
@@ -1,25 +1,36 @@
 package com.zhuo.mydb.backend.dm.page;
 
 import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import com.zhuo.mydb.backend.utils.Parser;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * 每个页面的最后 8 字节为 [PageLSN]，即最后一次修改该页的日志结束位置，新页面为 0
+ *
  * @author : wzq
  **/
 public class PageImpl implements Page{
+    public static final int LSN_SIZE = 8;
+
     private int pageNumber;
     private byte[] data;
-    private boolean dirty;
+    private volatile boolean dirty;
     private Lock lock;
     private PageCache pc;
+    private AtomicInteger updating;         // 正在进行的修改数
+    private AtomicInteger updates;          // 开始过的修改数，用于判断复制期间是否有修改
 
     public PageImpl(int pageNumber, byte[] data, PageCache pc) {
         this.pageNumber = pageNumber;
         this.data = data;
         this.pc = pc;
         lock = new ReentrantLock();
+        updating = new AtomicInteger();
+        updates = new AtomicInteger();
     }
 
     @Override
@@ -47,6 +58,27 @@ public class PageImpl implements Page{
         return dirty;
     }
 
+    @Override
+    public void beginUpdate() {
+        updating.incrementAndGet();
+        updates.incrementAndGet();
+    }
+
+    @Override
+    public void endUpdate() {
+        updating.decrementAndGet();
+    }
+
+    @Override
+    public boolean snapshot(byte[] dst) {
+        int seq = updates.get();
+        if(updating.get() != 0) {
+            return false;
+        }
+        System.arraycopy(data, 0, dst, 0, data.length);
+        return updating.get() == 0 && updates.get() == seq;
+    }
+
     @Override
     public int getPageNumber() {
         return pageNumber;
@@ -56,4 +88,21 @@ public class PageImpl implements Page{
     public byte[] getData() {
         return data;
     }
+
+    @Override
+    public long getLsn() {
+        return parseLsn(data);
+    }
+
+    // 同一页面上的修改可能并发写日志，只保留较大的 LSN
+    @Override
+    public synchronized void setLsn(long lsn) {
+        if(lsn > parseLsn(data)) {
+            System.arraycopy(Parser.long2Byte(lsn), 0, data, data.length - LSN_SIZE, LSN_SIZE);
+        }
+    }
+
+    public static long parseLsn(byte[] raw) {
+        return Parser.parseLong(Arrays.copyOfRange(raw, raw.length - LSN_SIZE, raw.length));
+    }
 }
@@ -1,12 +1,19 @@
 package com.zhuo.mydb.backend.dm.page;
 
 import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import com.zhuo.mydb.backend.utils.Parser;
 import com.zhuo.mydb.backend.utils.RandomUtil;
 
 import java.util.Arrays;
 
 /**
  * 特殊管理第一页
+ * Header
+ * 0~22 字节为数据库头：[Magic 4][Version 2][PageSize 4][PageCount 4][SegmentSize 8][FsmValid 1]，创建时写入，打开时据此确定页面大小与分段
+ * 没有 Magic 的旧文件按 8K 页面处理
+ * PageCount 是正常关闭时的逻辑页数（.db 文件按区段预先扩展，长度不等于页数），为 0 表示按文件长度计算
+ * SegmentSize 是页面文件每段的长度，为 0 表示不分段
+ * FsmValid 为 1 表示关闭时 FSM 页与数据页一致，打开后清零，关闭时按 FSM 的状态重新写入
  * ValidCheck
  * db启动时给100~107字节处填入一个随机字节，db关闭时将其拷贝到108~115字节
  * 用于判断上一次数据库是否正常关闭
@@ -16,12 +23,69 @@ public class PageOne {
     private static final int OF_VC = 100;
     private static final int LEN_VC = 8;
 
-    public static byte[] initRaw(){
-        byte[] raw = new byte[PageCache.PAGE_SIZE];
+    private static final int MAGIC = 0x53444231;
+    private static final short VERSION = 1;
+    private static final int OF_MAGIC = 0;
+    private static final int OF_VERSION = OF_MAGIC + 4;
+    private static final int OF_PAGE_SIZE = OF_VERSION + 2;
+    private static final int OF_PAGE_COUNT = OF_PAGE_SIZE + 4;
+    private static final int OF_SEGMENT_SIZE = OF_PAGE_COUNT + 4;
+    private static final int OF_FSM_VALID = OF_SEGMENT_SIZE + 8;
+    public static final int HEADER_SIZE = OF_FSM_VALID + 1;
+
+    public static byte[] initRaw(int pageSize, long segmentSize){
+        byte[] raw = new byte[pageSize];
+        System.arraycopy(Parser.int2Byte(MAGIC), 0, raw, OF_MAGIC, 4);
+        System.arraycopy(Parser.short2Byte(VERSION), 0, raw, OF_VERSION, 2);
+        System.arraycopy(Parser.int2Byte(pageSize), 0, raw, OF_PAGE_SIZE, 4);
+        System.arraycopy(Parser.long2Byte(segmentSize), 0, raw, OF_SEGMENT_SIZE, 8);
         setVcOpen(raw);
         return raw;
     }
 
+    public static int getPageSize(Page pg) {
+        return parsePageSize(pg.getData());
+    }
+
+    public static void setPageCount(Page pg, int pageCount) {
+        pg.setDirty(true);
+        System.arraycopy(Parser.int2Byte(pageCount), 0, pg.getData(), OF_PAGE_COUNT, 4);
+    }
+
+    public static int getPageCount(Page pg) {
+        byte[] raw = pg.getData();
+        if(Parser.parseInt(Arrays.copyOfRange(raw, OF_MAGIC, OF_MAGIC + 4)) != MAGIC) {
+            return 0;
+        }
+        return Parser.parseInt(Arrays.copyOfRange(raw, OF_PAGE_COUNT, OF_PAGE_COUNT + 4));
+    }
+
+    /**
+     * 从第一页开头的 HEADER_SIZE 个字节中解析页面大小
+     */
+    public static int parsePageSize(byte[] header) {
+        if(Parser.parseInt(Arrays.copyOfRange(header, OF_MAGIC, OF_MAGIC + 4)) != MAGIC) {
+            return PageCache.DEFAULT_PAGE_SIZE;
+        }
+        return Parser.parseInt(Arrays.copyOfRange(header, OF_PAGE_SIZE, OF_PAGE_SIZE + 4));
+    }
+
+    public static long parseSegmentSize(byte[] header) {
+        if(Parser.parseInt(Arrays.copyOfRange(header, OF_MAGIC, OF_MAGIC + 4)) != MAGIC) {
+            return 0;
+        }
+        return Parser.parseLong(Arrays.copyOfRange(header, OF_SEGMENT_SIZE, OF_SEGMENT_SIZE + 8));
+    }
+
+    public static void setFsmValid(Page pg, boolean valid) {
+        pg.setDirty(true);
+        pg.getData()[OF_FSM_VALID] = (byte) (valid ? 1 : 0);
+    }
+
+    public static boolean isFsmValid(Page pg) {
+        return pg.getData()[OF_FSM_VALID] == 1;
+    }
+
     public static void setVcOpen(Page pg){
         pg.setDirty(true);
         setVcOpen(pg.getData());
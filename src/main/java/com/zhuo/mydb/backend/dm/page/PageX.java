@@ -1,70 +1,294 @@
 package com.zhuo.mydb.backend.dm.page;
 
-import com.zhuo.mydb.backend.dm.pageCache.PageCache;
 import com.zhuo.mydb.backend.utils.Parser;
 
 import java.util.Arrays;
+import java.util.List;
 
 /**
- * PageX管理普通页
+ * PageX管理普通页，采用槽页结构
  * 普通页结构
- * [FreeSpaceOffset] [Data]
- * FreeSpaceOffset: 2字节 空闲位置开始偏移
+ * [FreeSpaceOffset] [SlotCount] [Slot1] [Slot2] ... [SlotN] ... [空闲] ... [RecordN] ... [Record1] [PageLSN]
+ * FreeSpaceOffset: 2字节 记录区的起始偏移，记录从页尾向前增长，按无符号数解释
+ * SlotCount: 2字节 槽的个数
+ * Slot: 4字节 [Offset 2][Length 2]，槽号从 1 开始，uid 中记录的是槽号而不是偏移；Offset 为 0 表示记录已被释放
+ * PageLSN: 页尾 8 字节，由 PageImpl 维护，数据不能写到这里
+ * 释放的记录只清空槽，空间在 compact 时整理到一起
+ * 已释放的槽分两种：Length 为 0 时槽号仍被占用，可能还有 uid 指向它，只会读到无效的记录；
+ * Length 为 0xFFFF 时槽号已回收（recycle），之后的 insert 优先复用，位于末尾的回收槽直接从槽目录中去掉
+ * 页面大小由数据库头决定，偏移最大为 0xFFFF
  *
  * @author : wzq
  **/
 public class PageX {
     private static final short OF_FREE = 0;
-    private static final short OF_DATA = 2;
-    public static final int MAX_FREE_SPACE = PageCache.PAGE_SIZE - OF_DATA;
+    private static final short OF_SLOT_COUNT = 2;
+    private static final short OF_SLOTS = 4;
+    private static final int SLOT_SIZE = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    // 已回收的槽的 Length
+    private static final int RECYCLED = 0xFFFF;
 
-    public static byte[] initRaw() {
-        byte[] raw = new byte[PageCache.PAGE_SIZE];
-        setFSO(raw, OF_DATA);
+    public static byte[] initRaw(int pageSize) {
+        byte[] raw = new byte[pageSize];
+        setFSO(raw, usableEnd(pageSize));
         return raw;
     }
 
-    private static void setFSO(byte[] raw, short ofData) {
-        System.arraycopy(Parser.short2Byte(ofData), 0, raw, OF_FREE, OF_DATA);
+    // 页面中可存放的最大记录
+    public static int maxFreeSpace(int pageSize) {
+        return usableEnd(pageSize) - OF_SLOTS - SLOT_SIZE;
     }
 
-    // 获取pg的FSO
-    public static short getFSO(Page pg) {
-        return getFSO(pg.getData());
+    private static int usableEnd(int pageSize) {
+        return Math.min(pageSize - PageImpl.LSN_SIZE, MAX_OFFSET);
     }
 
-    private static short getFSO(byte[] raw) {
-        return Parser.parseShort(Arrays.copyOfRange(raw, 0, 2));
+    private static void setFSO(byte[] raw, int ofData) {
+        writeShort(raw, OF_FREE, ofData);
     }
 
-    // 将raw插入pg中，返回插入位置
-    public static short insert(Page pg, byte[] raw) {
-        pg.setDirty(true);
-        short offset = getFSO(pg.getData());
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
-        setFSO(pg.getData(), (short) (offset + raw.length));
-        return offset;
+    private static int getFSO(byte[] raw) {
+        return readShort(raw, OF_FREE);
+    }
+
+    public static int getSlotCount(Page pg) {
+        return getSlotCount(pg.getData());
+    }
+
+    private static int getSlotCount(byte[] raw) {
+        return readShort(raw, OF_SLOT_COUNT);
+    }
+
+    private static int slotPos(int slot) {
+        return OF_SLOTS + (slot - 1) * SLOT_SIZE;
+    }
+
+    // 槽所指记录的偏移，槽不存在或记录已被释放时返回 0
+    public static int getOffset(Page pg, int slot) {
+        byte[] raw = pg.getData();
+        if(slot < 1 || slot > getSlotCount(raw)) {
+            return 0;
+        }
+        return readShort(raw, slotPos(slot));
+    }
+
+    public static int getLength(Page pg, int slot) {
+        byte[] raw = pg.getData();
+        if(slot < 1 || slot > getSlotCount(raw)) {
+            return 0;
+        }
+        return readShort(raw, slotPos(slot) + 2);
+    }
+
+    private static void setSlot(byte[] raw, int slot, int offset, int length) {
+        writeShort(raw, slotPos(slot), offset);
+        writeShort(raw, slotPos(slot) + 2, length);
     }
 
-    // 获取页面的空闲空间大小
+    // 下一次 insert 使用的槽号：最小的已回收的槽，没有时在槽目录末尾新增
+    public static int nextSlot(Page pg) {
+        byte[] raw = pg.getData();
+        int count = getSlotCount(raw);
+        for (int slot = 1; slot <= count; slot++) {
+            if(isRecycled(raw, slot)) {
+                return slot;
+            }
+        }
+        return count + 1;
+    }
+
+    private static boolean isRecycled(byte[] raw, int slot) {
+        int pos = slotPos(slot);
+        return raw[pos] == 0 && raw[pos + 1] == 0 && (raw[pos + 2] & raw[pos + 3] & 0xFF) == 0xFF;
+    }
+
+    // 槽已释放且槽号仍被占用，可以回收
+    public static boolean isDead(Page pg, int slot) {
+        return slot >= 1 && slot <= getSlotCount(pg) && getOffset(pg, slot) == 0 && getLength(pg, slot) == 0;
+    }
+
+    // 不整理页面时能插入的最大记录
+    public static int getContiguousFreeSpace(Page pg) {
+        byte[] raw = pg.getData();
+        return Math.max(0, getFSO(raw) - slotPos(getSlotCount(raw) + 1) - SLOT_SIZE);
+    }
+
+    // 整理页面后能插入的最大记录，包括已释放的记录占用的空间
     public static int getFreeSpace(Page pg) {
-        return PageCache.PAGE_SIZE - (int) getFSO(pg.getData());
+        byte[] raw = pg.getData();
+        int count = getSlotCount(raw);
+        int live = 0;
+        for (int slot = 1; slot <= count; slot++) {
+            if(readShort(raw, slotPos(slot)) != 0) {
+                live += readShort(raw, slotPos(slot) + 2);
+            }
+        }
+        return Math.max(0, usableEnd(raw.length) - slotPos(count + 1) - SLOT_SIZE - live);
+    }
+
+    public static boolean canInsert(Page pg, int length) {
+        return getContiguousFreeSpace(pg) >= length;
     }
 
-    // 将raw插入pg中的offset位置，并将pg的offset设置为较大的offset
-    public static void recoverInsert(Page pg, byte[] raw, short offset) {
+    // 从raws的第from条起，连续多少条记录能一起插入pg而不整理页面
+    public static int countFit(Page pg, List<byte[]> raws, int from) {
+        int free = getContiguousFreeSpace(pg);
+        int count = 0;
+        for (int i = from; i < raws.size(); i++) {
+            //第一条记录的槽已计入 getContiguousFreeSpace
+            int need = raws.get(i).length + (count == 0 ? 0 : SLOT_SIZE);
+            if(need > free) {
+                break;
+            }
+            free -= need;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 将raw插入pg中 nextSlot 所指的槽，返回槽号，调用者需先用 canInsert 确认空间足够
+     * 调用者需持有页面锁，槽目录不会在选定槽号与写入之间被 recycle 改动
+     */
+    public static int insert(Page pg, byte[] raw) {
         pg.setDirty(true);
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
+        byte[] data = pg.getData();
+        int slot = nextSlot(pg);
+        int offset = getFSO(data) - raw.length;
+        System.arraycopy(raw, 0, data, offset, raw.length);
+        setSlot(data, slot, offset, raw.length);
+        if(slot > getSlotCount(data)) {
+            writeShort(data, OF_SLOT_COUNT, slot);
+        }
+        setFSO(data, offset);
+        return slot;
+    }
+
+    // 释放槽所指的记录，空间留到 compact 时回收
+    public static void free(Page pg, int slot) {
+        if(getOffset(pg, slot) == 0) {
+            return;
+        }
+        pg.setDirty(true);
+        setSlot(pg.getData(), slot, 0, 0);
+    }
+
+    /**
+     * 回收已释放的槽的槽号，调用者需保证已没有 uid 指向它；槽不是已释放且被占用的状态时忽略
+     * 槽目录末尾连续的回收槽直接去掉，腾出的空间计入空闲空间
+     */
+    public static void recycle(Page pg, int slot) {
+        if(!isDead(pg, slot)) {
+            return;
+        }
+        pg.setDirty(true);
+        byte[] raw = pg.getData();
+        setSlot(raw, slot, 0, RECYCLED);
+        int count = getSlotCount(raw);
+        while (count > 0 && isRecycled(raw, count)) {
+            count--;
+        }
+        writeShort(raw, OF_SLOT_COUNT, count);
+    }
 
-        short rawFSO = getFSO(pg.getData());
-        if (rawFSO < offset + raw.length) {
-            setFSO(pg.getData(), (short) (offset + raw.length));
+    /**
+     * 把存活的记录紧凑地移到页尾，槽号不变，只改变槽中的偏移
+     * 记录移动后缓存中指向旧位置的 DataItem 会失效，调用者需保证页面上没有 DataItem
+     */
+    public static void compact(Page pg) {
+        byte[] raw = pg.getData();
+        int count = getSlotCount(raw);
+        Integer[] slots = new Integer[count];
+        int n = 0;
+        for (int slot = 1; slot <= count; slot++) {
+            if(readShort(raw, slotPos(slot)) != 0) {
+                slots[n++] = slot;
+            }
+        }
+        //从最靠后的记录开始移动，向后移动不会覆盖尚未移动的记录
+        Arrays.sort(slots, 0, n, (a, b) -> readShort(raw, slotPos(b)) - readShort(raw, slotPos(a)));
+        int end = usableEnd(raw.length);
+        for (int i = 0; i < n; i++) {
+            int slot = slots[i];
+            int offset = readShort(raw, slotPos(slot));
+            int length = readShort(raw, slotPos(slot) + 2);
+            end -= length;
+            if(end != offset) {
+                System.arraycopy(raw, offset, raw, end, length);
+                setSlot(raw, slot, end, length);
+            }
         }
+        setFSO(raw, end);
+        pg.setDirty(true);
     }
 
-    // 将raw插入pg中的offset位置，不更新update
-    public static void recoverUpdate(Page pg, byte[] raw, short offset) {
+    /**
+     * 将raw放入pg的slot中：槽中已有等长的记录时原地覆盖，否则重新分配空间，必要时整理页面
+     * 恢复时页面上没有 DataItem，可以整理
+     */
+    public static void recoverInsert(Page pg, byte[] raw, int slot) {
+        pg.setDirty(true);
+        byte[] data = pg.getData();
+        int offset = getOffset(pg, slot);
+        if(offset != 0 && getLength(pg, slot) == raw.length) {
+            System.arraycopy(raw, 0, data, offset, raw.length);
+            return;
+        }
+        free(pg, slot);
+        int count = getSlotCount(data);
+        if(getFSO(data) - slotPos(Math.max(count, slot) + 1) < raw.length) {
+            compact(pg);
+        }
+        //中间缺少的槽（如未重做的活跃事务的插入）保持为已释放
+        for (int s = count + 1; s <= slot; s++) {
+            setSlot(data, s, 0, 0);
+        }
+        if(slot > count) {
+            writeShort(data, OF_SLOT_COUNT, slot);
+        }
+        offset = getFSO(data) - raw.length;
+        System.arraycopy(raw, 0, data, offset, raw.length);
+        setSlot(data, slot, offset, raw.length);
+        setFSO(data, offset);
+    }
+
+    /**
+     * 将slot置为已释放：槽还不存在时把槽数扩到 slot，其间缺少的槽同样为已释放
+     * 用于不重做的插入，占住它的槽号，槽号已被回收时同样重新占住，之后的插入不会再用到这个槽号
+     */
+    public static void recoverFree(Page pg, int slot) {
+        byte[] data = pg.getData();
+        int count = getSlotCount(data);
+        pg.setDirty(true);
+        if(slot <= count) {
+            setSlot(data, slot, 0, 0);
+            return;
+        }
+        if(getFSO(data) < slotPos(slot + 1)) {
+            compact(pg);
+        }
+        for (int s = count + 1; s <= slot; s++) {
+            setSlot(data, s, 0, 0);
+        }
+        writeShort(data, OF_SLOT_COUNT, slot);
+    }
+
+    // 将raw写入pg中slot所指的记录，记录已被释放时忽略
+    public static void recoverUpdate(Page pg, byte[] raw, int slot) {
+        int offset = getOffset(pg, slot);
+        if(offset == 0) {
+            return;
+        }
         pg.setDirty(true);
         System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
     }
+
+    private static int readShort(byte[] raw, int pos) {
+        return Parser.parseShort(Arrays.copyOfRange(raw, pos, pos + 2)) & 0xFFFF;
+    }
+
+    private static void writeShort(byte[] raw, int pos, int value) {
+        System.arraycopy(Parser.short2Byte((short) value), 0, raw, pos, 2);
+    }
 }
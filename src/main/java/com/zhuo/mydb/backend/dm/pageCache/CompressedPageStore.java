@@ -0,0 +1,383 @@
+package com.zhuo.mydb.backend.dm.pageCache;
+
+import com.zhuo.mydb.backend.common.collection.LongList;
+import com.zhuo.mydb.backend.utils.Panic;
+import com.zhuo.mydb.backend.utils.Parser;
+import com.zhuo.mydb.common.Error;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 压缩存储页面：写出时用 PageCodec 压缩，读入时解压
+ * .db 文件按 GRANULE 字节划分，每个页面占一段连续的粒；压缩后不小于一页的页面原样存放
+ * .pmap 文件以 [PageSize 4] 开头，之后记录每个页面的位置，第 i 项对应第 i + 1 页：
+ * [Offset 8][Length 4]，Length 为 0 表示该页面从未写出，等于页面大小表示未压缩
+ * 页面重写时总是写到新的位置再更新内存中的映射，旧位置在下一次 force 之后才复用；
+ * 更新的映射项先攒在内存中，force 时先把数据刷盘，再写入 .pmap 并刷盘，
+ * 崩溃时映射要么指向旧页面要么指向已落盘的新页面，不会指向写了一半或未落盘的数据
+ *
+ * @author : wzq
+ **/
+public class CompressedPageStore implements PageStore {
+    public static final String MAP_SUFFIX = ".pmap";
+    private static final int MAP_HEADER_SIZE = 4;
+    private static final int ENTRY_SIZE = 12;
+    private static final int GRANULE = 256;
+    private static final int GRANULE_COUNT_BITS = 9;    // 64K 页面最多占 256 个粒
+
+    private RandomAccessFile file;
+    private FileChannel fc;
+    private RandomAccessFile mapFile;
+    private FileChannel mapFc;
+    private int pageSize;
+    private int maxGranules;                    // 一个页面最多占的粒数
+
+    private long[] offsets;
+    private int[] lengths;
+    private int pages;                          // 映射中的页数
+    private long end;                           // .db 文件中已分配空间的末尾
+    private LongList[] free;                    // 按粒数分类的空闲位置
+    private LongList[] pendingFree;             // 等下一次 force 之后才能复用的位置
+    private BitSet dirty;                       // 映射已更新、还未写入 .pmap 的页面
+    private Lock lock;                          // 保护映射与空间分配
+    private Lock forceLock;                     // force 串行执行，后写入的映射项不会被先前的 force 覆盖
+
+    private AtomicLong rawBytes = new AtomicLong();
+    private AtomicLong storedBytes = new AtomicLong();
+
+    private final ThreadLocal<byte[]> buffers;
+
+    public CompressedPageStore(RandomAccessFile file, FileChannel fc, RandomAccessFile mapFile, int pageSize) {
+        this.file = file;
+        this.fc = fc;
+        this.mapFile = mapFile;
+        this.mapFc = mapFile.getChannel();
+        this.pageSize = pageSize;
+        this.maxGranules = pageSize / GRANULE;
+        this.buffers = ThreadLocal.withInitial(() -> new byte[PageCodec.maxCompressedLength(pageSize)]);
+        this.lock = new ReentrantLock();
+        this.forceLock = new ReentrantLock();
+        this.dirty = new BitSet();
+        this.free = new LongList[maxGranules + 1];
+        this.pendingFree = new LongList[maxGranules + 1];
+        for (int i = 0; i <= maxGranules; i++) {
+            free[i] = new LongList();
+            pendingFree[i] = new LongList();
+        }
+        loadMap();
+    }
+
+    /**
+     * 读出 .pmap 头部记录的页面大小
+     */
+    public static int readPageSize(File map) {
+        try (RandomAccessFile raf = new RandomAccessFile(map, "r")) {
+            if(raf.length() < MAP_HEADER_SIZE) {
+                Panic.panic(Error.BadPageException);
+            }
+            return raf.readInt();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return 0;
+    }
+
+    // 读入映射，映射之外的空间都是空闲的；新建的映射先写入头部
+    private void loadMap() {
+        byte[] raw = null;
+        try {
+            if(mapFc.size() == 0) {
+                mapFc.write(ByteBuffer.wrap(Parser.int2Byte(pageSize)), 0);
+            }
+            raw = new byte[(int) mapFc.size()];
+            ByteBuffer buf = ByteBuffer.wrap(raw);
+            while (buf.hasRemaining() && mapFc.read(buf, buf.position()) >= 0) {
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        if(Parser.parseInt(raw) != pageSize) {
+            Panic.panic(Error.InvalidPageSizeException);
+        }
+        pages = (raw.length - MAP_HEADER_SIZE) / ENTRY_SIZE;
+        offsets = new long[Math.max(16, pages)];
+        lengths = new int[Math.max(16, pages)];
+        long[] used = new long[pages];
+        int n = 0;
+        for (int i = 0; i < pages; i++) {
+            int pos = MAP_HEADER_SIZE + i * ENTRY_SIZE;
+            offsets[i] = Parser.parseLong(Arrays.copyOfRange(raw, pos, pos + 8));
+            lengths[i] = Parser.parseInt(Arrays.copyOfRange(raw, pos + 8, pos + 12));
+            if(lengths[i] > 0) {
+                //高位是位置，低位是粒数，排序后按位置有序
+                used[n++] = offsets[i] / GRANULE << GRANULE_COUNT_BITS | granules(lengths[i]);
+            }
+        }
+        Arrays.sort(used, 0, n);
+        long cur = 0;
+        for (int i = 0; i < n; i++) {
+            long start = (used[i] >>> GRANULE_COUNT_BITS) * GRANULE;
+            addFree(free, cur, start);
+            cur = start + (used[i] & ((1 << GRANULE_COUNT_BITS) - 1)) * GRANULE;
+        }
+        end = cur;
+    }
+
+    // 将 [from, to) 按最大的粒数切分后放入空闲列表
+    private void addFree(LongList[] lists, long from, long to) {
+        while (from < to) {
+            int g = (int) Math.min(maxGranules, (to - from) / GRANULE);
+            lists[g].add(from);
+            from += (long) g * GRANULE;
+        }
+    }
+
+    private static int granules(int length) {
+        return (length + GRANULE - 1) / GRANULE;
+    }
+
+    @Override
+    public void read(long offset, byte[] page) {
+        int idx = (int) (offset / pageSize);
+        long off;
+        int len;
+        lock.lock();
+        try {
+            off = idx < pages ? offsets[idx] : 0;
+            len = idx < pages ? lengths[idx] : 0;
+        } finally {
+            lock.unlock();
+        }
+        if(len == 0) {
+            Arrays.fill(page, (byte) 0);
+            return;
+        }
+        if(len == pageSize) {
+            readFully(off, page, len);
+            return;
+        }
+        byte[] buf = buffers.get();
+        readFully(off, buf, len);
+        if(PageCodec.decompress(buf, len, page) != page.length) {
+            Panic.panic(Error.BadPageException);
+        }
+    }
+
+    private void readFully(long off, byte[] dst, int len) {
+        ByteBuffer buf = ByteBuffer.wrap(dst, 0, len);
+        try {
+            while (buf.hasRemaining()) {
+                if(fc.read(buf, off + buf.position()) < 0) {
+                    Panic.panic(Error.BadPageException);
+                }
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void write(long offset, byte[] page) {
+        int idx = (int) (offset / pageSize);
+        byte[] data = buffers.get();
+        int len = PageCodec.compress(page, page.length, data);
+        if(len >= page.length) {
+            data = page;
+            len = page.length;
+        }
+        int g = granules(len);
+        long off;
+        lock.lock();
+        try {
+            off = allocate(g);
+        } finally {
+            lock.unlock();
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, len);
+        try {
+            while (buf.hasRemaining()) {
+                fc.write(buf, off + buf.position());
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        lock.lock();
+        try {
+            setEntry(idx, off, len);
+        } finally {
+            lock.unlock();
+        }
+        rawBytes.addAndGet(page.length);
+        storedBytes.addAndGet(len);
+    }
+
+    // 优先复用大小正好的空闲位置，否则从更大的位置中切分，都没有时追加到末尾
+    private long allocate(int g) {
+        for (int i = g; i <= maxGranules; i++) {
+            LongList l = free[i];
+            if(l.isEmpty()) {
+                continue;
+            }
+            long off = l.removeAt(l.size() - 1);
+            if(i > g) {
+                free[i - g].add(off + (long) g * GRANULE);
+            }
+            return off;
+        }
+        long off = end;
+        end += (long) g * GRANULE;
+        return off;
+    }
+
+    // 更新第 idx 页在内存中的映射，.pmap 中的映射项和旧位置的复用都等到下一次 force
+    private void setEntry(int idx, long off, int len) {
+        if(idx >= offsets.length) {
+            int cap = Math.max(idx + 1, offsets.length << 1);
+            offsets = Arrays.copyOf(offsets, cap);
+            lengths = Arrays.copyOf(lengths, cap);
+        }
+        if(idx < pages && lengths[idx] > 0) {
+            pendingFree[granules(lengths[idx])].add(offsets[idx]);
+        }
+        offsets[idx] = off;
+        lengths[idx] = len;
+        if(idx >= pages) {
+            pages = idx + 1;
+        }
+        dirty.set(idx);
+    }
+
+    @Override
+    public void write(long offset, byte[][] pages) {
+        for (byte[] page : pages) {
+            write(offset, page);
+            offset += page.length;
+        }
+    }
+
+    /**
+     * 先刷数据再写映射：取下此刻更新过的映射项，它们指向的数据都已写完，
+     * 数据落盘后再写入 .pmap 并刷盘，之后这些映射项换下的旧位置才能复用
+     */
+    @Override
+    public void force() {
+        forceLock.lock();
+        try {
+            LongList[] released = new LongList[maxGranules + 1];
+            byte[] entries;
+            int[] idxs;
+            lock.lock();
+            try {
+                for (int i = 0; i <= maxGranules; i++) {
+                    released[i] = pendingFree[i];
+                    pendingFree[i] = new LongList();
+                }
+                //截断后映射之外的页面不再写入
+                idxs = dirty.get(0, pages).stream().toArray();
+                entries = new byte[idxs.length * ENTRY_SIZE];
+                for (int i = 0; i < idxs.length; i++) {
+                    System.arraycopy(Parser.long2Byte(offsets[idxs[i]]), 0, entries, i * ENTRY_SIZE, 8);
+                    System.arraycopy(Parser.int2Byte(lengths[idxs[i]]), 0, entries, i * ENTRY_SIZE + 8, 4);
+                }
+                dirty.clear();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                fc.force(false);
+                for (int i = 0; i < idxs.length; i++) {
+                    mapFc.write(ByteBuffer.wrap(entries, i * ENTRY_SIZE, ENTRY_SIZE), MAP_HEADER_SIZE + (long) idxs[i] * ENTRY_SIZE);
+                }
+                mapFc.force(false);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            //force 之前换下的位置，此时映射已经不再指向它们
+            lock.lock();
+            try {
+                for (int i = 0; i <= maxGranules; i++) {
+                    free[i].addAll(released[i]);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        lock.lock();
+        try {
+            return (long) pages * pageSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 页面的位置按粒分配，不需要预先扩展
+    @Override
+    public void allocate(long size) {
+    }
+
+    @Override
+    public void truncate(long size) {
+        int n = (int) (size / pageSize);
+        //与 force 互斥，截掉的映射项不会再被写回 .pmap
+        forceLock.lock();
+        lock.lock();
+        try {
+            for (int i = n; i < pages; i++) {
+                if(lengths[i] > 0) {
+                    pendingFree[granules(lengths[i])].add(offsets[i]);
+                }
+                lengths[i] = 0;
+            }
+            pages = Math.min(pages, n);
+            mapFile.setLength(MAP_HEADER_SIZE + (long) pages * ENTRY_SIZE);
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            lock.unlock();
+            forceLock.unlock();
+        }
+    }
+
+    // 压缩率：实际写入的字节数 / 写出的页面原始大小，小于 1 表示压缩省下了空间
+    public double getCompressionRatio() {
+        long raw = rawBytes.get();
+        return raw == 0 ? 1 : (double) storedBytes.get() / raw;
+    }
+
+    // 磁盘占用率：.db 文件中已分配的空间 / 未压缩时的大小
+    public double getSpaceRatio() {
+        lock.lock();
+        try {
+            return pages == 0 ? 1 : (double) end / ((long) pages * pageSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            fc.close();
+            file.close();
+            mapFc.close();
+            mapFile.close();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.zhuo.mydb.backend.dm.pageCache;
+
+import com.zhuo.mydb.backend.utils.Panic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 通过 FileChannel 读写页面
+ * 使用带偏移的 read(buf, offset) / write(buf, offset)，不改变 channel 的 position，
+ * 各线程的页面 I/O 无需加锁，可以同时提交给磁盘
+ * 多页的聚集写只有依赖 position 的 write(ByteBuffer[])，由 writeBackLock 串行化，不影响带偏移的读写
+ * 异步读通过 AsynchronousFileChannel 提交，I/O 由调用者给出的线程池完成，第一次异步读时才打开该 channel
+ *
+ * @author : wzq
+ **/
+public class FilePageStore implements PageStore {
+    private File path;
+    private RandomAccessFile file;
+    private FileChannel fc;
+    private Lock writeBackLock;
+    private volatile AsynchronousFileChannel afc;
+
+    public FilePageStore(File path, RandomAccessFile file, FileChannel fc) {
+        this.path = path;
+        this.file = file;
+        this.fc = fc;
+        this.writeBackLock = new ReentrantLock();
+    }
+
+    @Override
+    public void read(long offset, byte[] page) {
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        try {
+            //一次可能读不满，读到文件末尾时剩余部分填 0（数组可能是复用的）
+            while (buf.hasRemaining()) {
+                if(fc.read(buf, offset + buf.position()) < 0) {
+                    Arrays.fill(page, buf.position(), page.length, (byte) 0);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> readAsync(long offset, byte[] page, ExecutorService executor) {
+        AsynchronousFileChannel ch = asyncChannel(executor);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        ch.read(buf, offset, done, new CompletionHandler<Integer, CompletableFuture<Void>>() {
+            @Override
+            public void completed(Integer n, CompletableFuture<Void> d) {
+                if(n < 0) {
+                    Arrays.fill(page, buf.position(), page.length, (byte) 0);
+                    d.complete(null);
+                } else if(!buf.hasRemaining()) {
+                    d.complete(null);
+                } else {
+                    ch.read(buf, offset + buf.position(), d, this);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, CompletableFuture<Void> d) {
+                d.completeExceptionally(e);
+            }
+        });
+        return done;
+    }
+
+    private AsynchronousFileChannel asyncChannel(ExecutorService executor) {
+        AsynchronousFileChannel ch = afc;
+        if(ch != null) {
+            return ch;
+        }
+        synchronized (this) {
+            if(afc == null) {
+                try {
+                    afc = AsynchronousFileChannel.open(path.toPath(),
+                            Collections.singleton(StandardOpenOption.READ), executor);
+                } catch (IOException e) {
+                    Panic.panic(e);
+                }
+            }
+            return afc;
+        }
+    }
+
+    @Override
+    public void write(long offset, byte[] page) {
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        try {
+            while (buf.hasRemaining()) {
+                fc.write(buf, offset + buf.position());
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void write(long offset, byte[][] pages) {
+        ByteBuffer[] bufs = new ByteBuffer[pages.length];
+        long remaining = 0;
+        for (int i = 0; i < pages.length; i++) {
+            bufs[i] = ByteBuffer.wrap(pages[i]);
+            remaining += pages[i].length;
+        }
+        writeBackLock.lock();
+        try {
+            fc.position(offset);
+            while (remaining > 0) {
+                remaining -= fc.write(bufs);
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            writeBackLock.unlock();
+        }
+    }
+
+    @Override
+    public void force() {
+        try {
+            fc.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public long size() {
+        try {
+            return file.length();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return 0;
+    }
+
+    @Override
+    public void allocate(long size) {
+        try {
+            if(file.length() < size) {
+                file.setLength(size);
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void truncate(long size) {
+        try {
+            file.setLength(size);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if(afc != null) {
+                afc.close();
+            }
+            fc.close();
+            file.close();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+}
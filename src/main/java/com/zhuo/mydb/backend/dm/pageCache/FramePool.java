@@ -0,0 +1,58 @@
+package com.zhuo.mydb.backend.dm.pageCache;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 页面帧池
+ * 被驱逐页面的数组写回后归还到池中，下一次未命中直接复用，缓存满了以后不再分配新数组
+ * 池中最多保留 capacity 个空闲帧，可以在启动时一次性分配好
+ *
+ * @author : wzq
+ **/
+public class FramePool {
+    private byte[][] frames;
+    private int top;
+    private int frameSize;
+    private Lock lock;
+
+    public FramePool(int capacity, int frameSize, boolean prealloc) {
+        this.frameSize = frameSize;
+        frames = new byte[capacity][];
+        lock = new ReentrantLock();
+        if(prealloc) {
+            for (int i = 0; i < capacity; i++) {
+                frames[i] = new byte[frameSize];
+            }
+            top = capacity;
+        }
+    }
+
+    /**
+     * 取出一个帧，内容是上一个使用者留下的，调用者需整页覆盖
+     */
+    public byte[] allocate() {
+        lock.lock();
+        try {
+            if(top > 0) {
+                byte[] frame = frames[--top];
+                frames[top] = null;
+                return frame;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new byte[frameSize];
+    }
+
+    public void free(byte[] frame) {
+        lock.lock();
+        try {
+            if(top < frames.length) {
+                frames[top++] = frame;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.zhuo.mydb.backend.dm.pageCache;
+
+import com.zhuo.mydb.backend.utils.Panic;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 将 .db 文件按 CHUNK_SIZE 分段映射到内存，页面读写直接拷贝映射区，热数据不再经过系统调用
+ * 映射超出文件末尾会把文件撑大，所以只映射文件已有的部分：
+ * 文件按区段预先扩展后重新映射最后一段，超出映射范围的写入走 FileChannel，读到映射范围之外时再按当前文件长度重新映射
+ *
+ * @author : wzq
+ **/
+public class MappedPageStore implements PageStore {
+    private static final int CHUNK_SHIFT = 26;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;      // 64MB，是页面大小的整数倍，页面不会跨段
+
+    private RandomAccessFile file;
+    private FileChannel fc;
+    private volatile MappedByteBuffer[] chunks;
+    private volatile long mapped;                                   // 已映射的长度
+    private Lock mapLock;
+
+    public MappedPageStore(RandomAccessFile file, FileChannel fc) {
+        this.file = file;
+        this.fc = fc;
+        this.chunks = new MappedByteBuffer[0];
+        this.mapLock = new ReentrantLock();
+        remap();
+    }
+
+    // 按文件当前长度映射，已完整映射的段保持不变
+    private void remap() {
+        mapLock.lock();
+        try {
+            long size = fc.size();
+            if(size <= mapped) {
+                return;
+            }
+            int n = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+            MappedByteBuffer[] cs = Arrays.copyOf(chunks, n);
+            for (int i = (int) (mapped >>> CHUNK_SHIFT); i < n; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                cs[i] = fc.map(FileChannel.MapMode.READ_WRITE, start, Math.min(CHUNK_SIZE, size - start));
+            }
+            chunks = cs;
+            mapped = size;
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            mapLock.unlock();
+        }
+    }
+
+    // 每次访问复制一个视图，各线程的 position 互不影响
+    private ByteBuffer slice(long offset, int length) {
+        if(offset + length > mapped) {
+            return null;
+        }
+        ByteBuffer buf = chunks[(int) (offset >>> CHUNK_SHIFT)].duplicate();
+        buf.position((int) (offset & (CHUNK_SIZE - 1)));
+        return buf;
+    }
+
+    @Override
+    public void read(long offset, byte[] page) {
+        ByteBuffer buf = slice(offset, page.length);
+        if(buf == null) {
+            remap();
+            buf = slice(offset, page.length);
+        }
+        if(buf != null) {
+            buf.get(page);
+            return;
+        }
+        //超出映射范围的部分与 FileChannel 一样读，文件末尾之后为 0
+        buf = ByteBuffer.wrap(page);
+        try {
+            while (buf.hasRemaining()) {
+                if(fc.read(buf, offset + buf.position()) < 0) {
+                    Arrays.fill(page, buf.position(), page.length, (byte) 0);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    // 映射区内的读取只是内存拷贝，直接在调用线程完成
+    @Override
+    public CompletableFuture<Void> readAsync(long offset, byte[] page, ExecutorService executor) {
+        read(offset, page);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void write(long offset, byte[] page) {
+        ByteBuffer buf = slice(offset, page.length);
+        if(buf != null) {
+            buf.put(page);
+            return;
+        }
+        try {
+            fc.write(ByteBuffer.wrap(page), offset);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void write(long offset, byte[][] pages) {
+        for (byte[] page : pages) {
+            write(offset, page);
+            offset += page.length;
+        }
+    }
+
+    @Override
+    public void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        try {
+            fc.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public long size() {
+        try {
+            return fc.size();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return 0;
+    }
+
+    @Override
+    public void allocate(long size) {
+        try {
+            if(fc.size() >= size) {
+                return;
+            }
+            file.setLength(size);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        remap();
+    }
+
+    @Override
+    public void truncate(long size) {
+        mapLock.lock();
+        try {
+            //截断前先丢掉映射，之后按新的长度重新映射
+            mapped = 0;
+            chunks = new MappedByteBuffer[0];
+            file.setLength(size);
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            mapLock.unlock();
+        }
+        remap();
+    }
+
+    @Override
+    public void close() {
+        force();
+        mapped = 0;
+        chunks = new MappedByteBuffer[0];
+        try {
+            fc.close();
+            file.close();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+}
@@ -1,29 +1,60 @@
 package com.zhuo.mydb.backend.dm.pageCache;
 
+import com.zhuo.mydb.backend.common.DBOptions;
 import com.zhuo.mydb.backend.dm.page.Page;
+import com.zhuo.mydb.backend.dm.page.PageOne;
 import com.zhuo.mydb.backend.utils.Panic;
 import com.zhuo.mydb.common.Error;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
 
 /**
+ * 页面大小在创建数据库时选定（4K ~ 64K 之间的 2 的幂），记录在 PageOne 的头部，打开时读出
+ * 页面文件可以按段切分成多个文件，段大小同样在创建时选定并记录在 PageOne 的头部
+ *
  * @author : wzq
  **/
 public interface PageCache {
-    public static final int PAGE_SIZE = 1 << 13;
+    public static final int DEFAULT_PAGE_SIZE = 1 << 13;
+    public static final int MIN_PAGE_SIZE = 1 << 12;
+    public static final int MAX_PAGE_SIZE = 1 << 16;
 
     int newPage(byte[] initData);
     Page getPage(int pgno) throws Exception;
+    // 异步获取页面，未命中时不阻塞调用线程，得到的页面同样需要 release
+    CompletableFuture<Page> getPageAsync(int pgno);
     void close();
     void release(Page page);
     void truncateByBgno(int maxPgno);
     int getPageNumber();
     void flushPage(Page pg);
+    // 异步地把页面读入缓存，不引用该页面
+    void prefetch(int pgno);
+    int getPageSize();
+    // 页面是否只被调用者引用，此时没有缓存的 DataItem 指向页面中的位置
+    boolean isExclusive(Page pg);
+    // 页面文件每段的长度，0 表示不分段
+    long getSegmentSize();
+    // 压缩存储的压缩率与磁盘占用率，见 CompressedPageStore，不压缩时都为 1
+    double getCompressionRatio();
+    double getSpaceRatio();
+    // 后台写回的统计：最近一轮的脏页数、累计写出的页数与 force 次数、平均每次 force 的耗时（微秒）
+    int getDirtyPages();
+    long getFlushedPages();
+    long getForces();
+    long getAvgForceMicros();
 
-    public static PageCacheImpl create(String path ,long memory){
+    public static PageCacheImpl create(String path ,DBOptions opts){
+        int pageSize = opts.pageSize;
+        if(!isValidPageSize(pageSize)){
+            Panic.panic(Error.InvalidPageSizeException);
+        }
         File f = new File(path + PageCacheImpl.DB_SUFFIX);
         try {
             if(!f.createNewFile()){
@@ -44,10 +75,12 @@ public interface PageCache {
         }catch (FileNotFoundException e){
             Panic.panic(e);
         }
-        return new PageCacheImpl(raf ,fc ,(int) memory / PAGE_SIZE);
+        //压缩存储自行分配空间，不分段
+        long segmentSize = opts.compress ? 0 : opts.segmentSize / pageSize * pageSize;
+        return new PageCacheImpl(newStore(path ,raf ,fc ,pageSize ,segmentSize ,opts ,true) ,pageSize ,segmentSize ,(int) (opts.pageCacheMem() / pageSize) ,opts);
     }
 
-    public static PageCacheImpl open(String path ,long memory){
+    public static PageCacheImpl open(String path ,DBOptions opts){
         File f = new File(path + PageCacheImpl.DB_SUFFIX);
         if(!f.exists()){
             Panic.panic(Error.FileNotExistsException);
@@ -64,6 +97,55 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
             Panic.panic(e);
         }
-        return new PageCacheImpl(raf ,fc ,(int) memory / PAGE_SIZE);
+        int pageSize;
+        long segmentSize = 0;
+        File map = new File(path + CompressedPageStore.MAP_SUFFIX);
+        if(map.exists()){
+            //压缩存储的 PageOne 需要先知道页面大小才能解压，页面大小同时记在 .pmap 的头部
+            pageSize = CompressedPageStore.readPageSize(map);
+        }else{
+            byte[] header = readHeader(fc);
+            pageSize = PageOne.parsePageSize(header);
+            segmentSize = PageOne.parseSegmentSize(header);
+        }
+        if(!isValidPageSize(pageSize)){
+            Panic.panic(Error.InvalidPageSizeException);
+        }
+        return new PageCacheImpl(newStore(path ,raf ,fc ,pageSize ,segmentSize ,opts ,false) ,pageSize ,segmentSize ,(int) (opts.pageCacheMem() / pageSize) ,opts);
+    }
+
+    // 直接读出文件开头 PageOne 的头部
+    static byte[] readHeader(FileChannel fc){
+        ByteBuffer buf = ByteBuffer.allocate(PageOne.HEADER_SIZE);
+        try {
+            while (buf.hasRemaining() && fc.read(buf, buf.position()) >= 0) {
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return buf.array();
+    }
+
+    static boolean isValidPageSize(int pageSize){
+        return pageSize >= MIN_PAGE_SIZE && pageSize <= MAX_PAGE_SIZE && Integer.bitCount(pageSize) == 1;
+    }
+
+    // 压缩存储以 .pmap 文件是否存在为准，打开时不看启动参数
+    static PageStore newStore(String path ,RandomAccessFile raf ,FileChannel fc ,int pageSize ,long segmentSize ,DBOptions opts ,boolean create){
+        File map = new File(path + CompressedPageStore.MAP_SUFFIX);
+        if(create ? opts.compress : map.exists()){
+            try {
+                return new CompressedPageStore(raf ,fc ,new RandomAccessFile(map ,"rw") ,pageSize);
+            } catch (FileNotFoundException e) {
+                Panic.panic(e);
+            }
+        }
+        if(segmentSize > 0){
+            return new SegmentedPageStore(path ,raf ,fc ,segmentSize ,opts.segmentDirs ,opts.mmap);
+        }
+        if(opts.mmap){
+            return new MappedPageStore(raf ,fc);
+        }
+        return new FilePageStore(new File(path + PageCacheImpl.DB_SUFFIX) ,raf ,fc);
     }
 }
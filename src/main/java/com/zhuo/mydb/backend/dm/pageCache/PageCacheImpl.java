@@ -1,112 +1,381 @@
 package com.zhuo.mydb.backend.dm.pageCache;
 
 import com.zhuo.mydb.backend.common.AbstractCache;
+import com.zhuo.mydb.backend.common.DBOptions;
+import com.zhuo.mydb.backend.dm.logger.Logger;
 import com.zhuo.mydb.backend.dm.page.Page;
 import com.zhuo.mydb.backend.dm.page.PageImpl;
 import com.zhuo.mydb.backend.utils.Panic;
 import com.zhuo.mydb.common.Error;
 
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
 
 /**
+ * 页面写回不再每页刷盘：
+ * 后台写线程每隔 WRITER_INTERVAL 毫秒把脏页分批写出，每批按页号排序，连续的页面合并成一次聚集写，每批只 force 一次；
+ * 驱逐与新建页面只写不刷，崩溃后可由日志恢复；
+ * 写出任何页面之前先把日志刷到页面的 LSN（WAL），提交只需日志落盘，数据页面可以延迟写回；
+ * 只有 flushPage（PageOne 的校验位）和 close 同步刷盘；
+ * PageOne 不由后台写线程写出：关闭时写入的正常关闭标记必须在 close 把其他页面都刷盘之后才落盘
+ * 页面数组和写回用的副本都从 FramePool 中借用，驱逐后归还
+ * getPageAsync 未命中时把读请求提交给 I/O 线程池，调用线程不等待；预读也走这条路径，
+ * 同一线程顺序访问页面时提前把后面 readAhead 个页面读入缓存
+ * .db 文件按 extentSize 成段预先扩展，newPage 只在用完一段时才改变文件长度；
+ * 逻辑页数与文件长度分开维护，正常关闭时记入 PageOne，打开时由 DataManager 通过 truncateByBgno 恢复
+ *
  * @author : wzq
  **/
 public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     private static final int MEM_MIN_LIM = 10;
     public static final String DB_SUFFIX = ".db";
+    private static final long WRITER_INTERVAL = 500;
+    private static final int WRITER_BATCH = 64;
+    private static final int IO_THREADS = 4;
+    private static final int IO_QUEUE = 256;
+    private static final int SEQUENTIAL_STREAK = 2;   // 连续访问这么多个相邻页面后开始预读
 
-    private RandomAccessFile file;
-    private FileChannel fc;
-    private Lock fileLock;
+    private PageStore store;
+    private FramePool frames;
+    private volatile Logger logger;                     // 写回页面前刷日志，未设置时不检查
+    private int pageSize;
+    private long segmentSize;
 
-    private AtomicInteger pageNumbers;
-    public PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource) {
-        super(maxResource);
+    private AtomicInteger pageNumbers;                  // 逻辑页数
+    private volatile long allocated;                    // 文件已分配的长度
+    private long extentSize;                            // 每次扩展的长度，是页面大小的整数倍，0 表示按页扩展
+    private Lock allocLock;
+
+    private Thread writer;
+    private Set<Integer> writing = ConcurrentHashMap.newKeySet();  // 写回正引用着的页面，这个引用不指向页面中的位置
+    private int readAhead;
+    private ThreadPoolExecutor ioPool;                 // 异步读页面的 I/O 线程
+    // 本线程的顺序访问检测：[上次访问的页号, 连续相邻的次数, 已预读到的页号]
+    private ThreadLocal<int[]> sequence = ThreadLocal.withInitial(() -> new int[3]);
+    private volatile boolean closed;
+
+    // 写回统计
+    private volatile int dirtyPages;                    // 最近一轮后台写回时的脏页数
+    private AtomicLong flushedPages = new AtomicLong(); // 累计写出的页数
+    private AtomicLong forces = new AtomicLong();       // 累计 force 次数
+    private AtomicLong forceNanos = new AtomicLong();   // 累计 force 耗时
+
+    public PageCacheImpl(PageStore store, int pageSize, long segmentSize, int maxResource, DBOptions opts) {
+        super(maxResource, opts.cacheShards, false, opts.pagePolicy);
         if(maxResource < MEM_MIN_LIM){
             Panic.panic(Error.MemTooSmallException);
         }
-        long length = 0;
-        try {
-            length = file.length();
-        }catch (IOException e){
-            Panic.panic(e);
-        }
-        this.file = file;
-        this.fc = fileChannel;
-        this.fileLock = new ReentrantLock();
-        this.pageNumbers = new AtomicInteger((int) length / PAGE_SIZE);
+        long length = store.size();
+        this.store = store;
+        this.pageSize = pageSize;
+        this.segmentSize = segmentSize;
+        //写线程一批最多借出 WRITER_BATCH 个副本
+        this.frames = new FramePool(maxResource + WRITER_BATCH, pageSize, opts.preallocFrames);
+        this.pageNumbers = new AtomicInteger((int) (length / pageSize));
+        this.allocated = length;
+        this.extentSize = opts.extentSize / pageSize * pageSize;
+        this.allocLock = new ReentrantLock();
+        this.writer = new Thread(this::writeBack, "page-writer");
+        writer.setDaemon(true);
+        writer.start();
+        this.readAhead = opts.readAhead;
+        //队列满时由提交者自己完成读取，异步读请求不会丢失
+        this.ioPool = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 1L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(IO_QUEUE), r -> {
+                    Thread t = new Thread(r, "page-io");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
     }
 
     @Override
     public int newPage(byte[] initData) {
         int pgno = pageNumbers.incrementAndGet();
-        Page pg = new PageImpl(pgno ,initData ,null);
-        flush(pg);
+        ensureAllocated(pageOffset(pgno + 1));
+        store.write(pageOffset(pgno), initData);
+        flushedPages.incrementAndGet();
         return pgno;
     }
 
+    // 文件长度不足 size 时扩展到下一个区段的边界
+    private void ensureAllocated(long size) {
+        if(size <= allocated) {
+            return;
+        }
+        allocLock.lock();
+        try {
+            if(size <= allocated) {
+                return;
+            }
+            long target = extentSize == 0 ? size : (size + extentSize - 1) / extentSize * extentSize;
+            store.allocate(target);
+            allocated = target;
+        } finally {
+            allocLock.unlock();
+        }
+    }
+
     @Override
     public Page getPage(int pgno) throws Exception {
+        if(readAhead > 0) {
+            detectSequential(pgno);
+        }
         return get(pgno);
     }
 
-    private void flush(Page pg){
-        int pgno = pg.getPageNumber();
-        long offset = pageOffset(pgno);
+    // 连续访问相邻页面时，把预读窗口推进到 pgno + readAhead
+    private void detectSequential(int pgno) {
+        int[] seq = sequence.get();
+        if(pgno == seq[0]) {
+            return;
+        }
+        seq[1] = pgno == seq[0] + 1 ? seq[1] + 1 : 0;
+        seq[0] = pgno;
+        if(seq[1] < SEQUENTIAL_STREAK) {
+            seq[2] = pgno;
+            return;
+        }
+        int end = pgno + readAhead;
+        for (int p = Math.max(seq[2], pgno) + 1; p <= end; p++) {
+            prefetch(p);
+        }
+        seq[2] = end;
+    }
+
+    @Override
+    public void prefetch(int pgno) {
+        //预读只是提示，I/O 队列已满时直接放弃
+        if(pgno < 1 || pgno > pageNumbers.get() || isCached(pgno) || ioPool.isShutdown()
+                || ioPool.getQueue().remainingCapacity() == 0) {
+            return;
+        }
+        //缓存满等情况下加载失败，同样放弃
+        getPageAsync(pgno).thenAccept(this::release);
+    }
+
+    @Override
+    public CompletableFuture<Page> getPageAsync(int pgno) {
+        return getAsync(pgno);
+    }
 
-        fileLock.lock();
+    // 后台写线程
+    private void writeBack() {
+        while (!closed) {
+            //不用中断唤醒：写线程正在读写文件时被中断会关闭文件通道
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(WRITER_INTERVAL));
+            if(closed) {
+                break;
+            }
+            flushDirty(pg -> pg.getPageNumber() != 1);
+        }
+    }
+
+    /**
+     * 分批写出满足条件的脏页，每批 force 一次
+     * 写出期间引用着页面，防止其被驱逐后重新载入，旧副本覆盖新内容
+     */
+    private void flushDirty(Predicate<Page> filter) {
+        int rounds = -1;
+        while (true) {
+            List<Page> batch = new ArrayList<>(WRITER_BATCH);
+            int matched = pinIf(pg -> pg.isDirty() && filter.test(pg), batch, WRITER_BATCH);
+            if(rounds < 0) {
+                //一直被重新弄脏的页面留到下一轮，本轮最多按开始时的脏页数分批
+                dirtyPages = matched;
+                rounds = matched / WRITER_BATCH + 1;
+            }
+            batch.sort(Comparator.comparingInt(Page::getPageNumber));
+            for (Page pg : batch) {
+                writing.add(pg.getPageNumber());
+            }
+            int written = writeRuns(batch);
+            for (Page pg : batch) {
+                writing.remove(pg.getPageNumber());
+                release(pg);
+            }
+            if(written > 0) {
+                force();
+            }
+            //正在修改的页面写不出去，留到下一轮，避免空转
+            if(--rounds == 0 || matched <= WRITER_BATCH || written == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按页号有序的页面中，连续的脏页合并成一次聚集写
+     * 一段内的页面按页号升序加锁，写完后一起解锁
+     */
+    private int writeRuns(List<Page> pages) {
+        int written = 0;
+        List<Page> run = new ArrayList<>();
+        List<byte[]> data = new ArrayList<>();
+        for (Page pg : pages) {
+            if(!run.isEmpty() && pg.getPageNumber() != run.get(run.size() - 1).getPageNumber() + 1) {
+                written += writeRun(run, data);
+            }
+            pg.lock();
+            byte[] raw = takeSnapshot(pg);
+            if(raw == null) {
+                pg.unlock();
+                written += writeRun(run, data);
+                continue;
+            }
+            run.add(pg);
+            data.add(raw);
+        }
+        written += writeRun(run, data);
+        return written;
+    }
+
+    // 写出一段连续的页面并解锁
+    private int writeRun(List<Page> run, List<byte[]> data) {
+        if(run.isEmpty()) {
+            return 0;
+        }
         try {
-            ByteBuffer buf = ByteBuffer.wrap(pg.getData());
-            fc.position(offset);
-            fc.write(buf);
-            fc.force(false);
-        }catch (IOException e){
-            Panic.panic(e);
-        }finally {
-            fileLock.unlock();
+            long lsn = 0;
+            for (byte[] raw : data) {
+                lsn = Math.max(lsn, PageImpl.parseLsn(raw));
+            }
+            flushLog(lsn);
+            store.write(pageOffset(run.get(0).getPageNumber()), data.toArray(new byte[0][]));
+            flushedPages.addAndGet(run.size());
+            return run.size();
+        } finally {
+            for (Page pg : run) {
+                pg.unlock();
+            }
+            for (byte[] raw : data) {
+                frames.free(raw);
+            }
+            run.clear();
+            data.clear();
+        }
+    }
+
+    // 写出一个没有修改在进行的脏页（已被驱逐或由调用者独占），不刷盘
+    private void write(Page pg) {
+        pg.lock();
+        try {
+            if(!pg.isDirty()) {
+                return;
+            }
+            pg.setDirty(false);
+            flushLog(pg.getLsn());
+            store.write(pageOffset(pg.getPageNumber()), pg.getData());
+            flushedPages.incrementAndGet();
+        } finally {
+            pg.unlock();
+        }
+    }
+
+    /**
+     * 复制一个可能正被修改的脏页用于写出，需持有页面锁，副本用完后归还 frames
+     * 先清脏标记再复制，复制之后的修改会重新置脏；复制期间有修改时保持脏页并返回 null
+     */
+    private byte[] takeSnapshot(Page pg) {
+        if(!pg.isDirty()) {
+            return null;
+        }
+        pg.setDirty(false);
+        byte[] copy = frames.allocate();
+        if(!pg.snapshot(copy)) {
+            frames.free(copy);
+            pg.setDirty(true);
+            return null;
+        }
+        return copy;
+    }
+
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    // 页面中的修改对应的日志必须先于页面落盘
+    private void flushLog(long lsn) {
+        Logger lg = logger;
+        if(lg != null && lsn > 0) {
+            lg.flush(lsn);
         }
     }
 
+    private void force() {
+        long start = System.nanoTime();
+        store.force();
+        forceNanos.addAndGet(System.nanoTime() - start);
+        forces.incrementAndGet();
+    }
+
     @Override
     protected Page getForCache(long key) throws Exception {
         int pgno = (int) key;
-        long offset = PageCacheImpl.pageOffset(pgno);
+        long offset = pageOffset(pgno);
 
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-        fileLock.lock();
-        try {
-            fc.position(offset);
-            fc.read(buf);
-        }catch (IOException e){
-            Panic.panic(e);
-        }
-        fileLock.unlock();
-        return new PageImpl(pgno ,buf.array() ,this);
+        byte[] data = frames.allocate();
+        store.read(offset, data);
+        return new PageImpl(pgno ,data ,this);
+    }
+
+    @Override
+    protected CompletableFuture<Page> getForCacheAsync(long key) {
+        int pgno = (int) key;
+        byte[] data = frames.allocate();
+        return store.readAsync(pageOffset(pgno), data, ioPool).handle((v, e) -> {
+            if(e != null) {
+                frames.free(data);
+                throw new CompletionException(e);
+            }
+            return new PageImpl(pgno ,data ,this);
+        });
     }
 
     @Override
     protected void releaseForCache(Page pg) {
-        if(pg.isDirty()){
-            flush(pg);
-            pg.setDirty(false);
-        }
+        //被驱逐的页面已没有引用，不会有修改在进行，写回后数组可以复用
+        write(pg);
+        frames.free(pg.getData());
     }
 
     @Override
     public void close() {
-        super.close();
+        ioPool.shutdown();
+        try {
+            ioPool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        closed = true;
+        LockSupport.unpark(writer);
         try {
-            fc.close();
-            file.close();
-        }catch (IOException e){
+            writer.join();
+        } catch (InterruptedException e) {
             Panic.panic(e);
         }
+        //PageOne 的校验位标记正常关闭，必须在其他页面都落盘之后再写入
+        flushDirty(pg -> pg.getPageNumber() != 1);
+        super.close();
+        force();
+        System.out.printf("Page writer flushed %d pages in %d forces, avg force %d us%n", getFlushedPages(), getForces(), getAvgForceMicros());
+        if(store instanceof CompressedPageStore) {
+            System.out.printf("Page store compression ratio: %.2f, space ratio: %.2f%n", getCompressionRatio(), getSpaceRatio());
+        }
+        store.close();
     }
 
     @Override
@@ -114,15 +383,43 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         release(page.getPageNumber());
     }
 
+    /**
+     * 将逻辑页数设为 maxPgno，文件截断到其所在区段的末尾，区段内其余位置留给之后的 newPage 覆盖
+     */
     @Override
     public void truncateByBgno(int maxPgno) {
         long size = pageOffset(maxPgno + 1);
+        if(extentSize > 0) {
+            size = (size + extentSize - 1) / extentSize * extentSize;
+        }
+        allocLock.lock();
         try {
-            file.setLength(size);
-        }catch (IOException e){
-            Panic.panic(e);
+            store.truncate(size);
+            allocated = size;
+            pageNumbers.set(maxPgno);
+        } finally {
+            allocLock.unlock();
         }
-        pageNumbers.set(maxPgno);
+    }
+
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * 写回对页面的引用不算在内：它只在页面锁下复制页面，整理页面不会影响它
+     * 否则写线程引用着页面时整理失败，插入只能换到新页
+     */
+    @Override
+    public boolean isExclusive(Page pg) {
+        int pgno = pg.getPageNumber();
+        return references(pgno) == (writing.contains(pgno) ? 2 : 1);
+    }
+
+    @Override
+    public long getSegmentSize() {
+        return segmentSize;
     }
 
     @Override
@@ -132,10 +429,42 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
 
     @Override
     public void flushPage(Page pg) {
-        flush(pg);
+        write(pg);
+        force();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        return store instanceof CompressedPageStore ? ((CompressedPageStore) store).getCompressionRatio() : 1;
+    }
+
+    @Override
+    public double getSpaceRatio() {
+        return store instanceof CompressedPageStore ? ((CompressedPageStore) store).getSpaceRatio() : 1;
+    }
+
+    @Override
+    public int getDirtyPages() {
+        return dirtyPages;
+    }
+
+    @Override
+    public long getFlushedPages() {
+        return flushedPages.get();
+    }
+
+    @Override
+    public long getForces() {
+        return forces.get();
+    }
+
+    @Override
+    public long getAvgForceMicros() {
+        long n = forces.get();
+        return n == 0 ? 0 : forceNanos.get() / n / 1000;
     }
 
-    private static long pageOffset(int pgno) {
-        return (long) (pgno - 1) * PAGE_SIZE;
+    private long pageOffset(int pgno) {
+        return (long) (pgno - 1) * pageSize;
     }
 }
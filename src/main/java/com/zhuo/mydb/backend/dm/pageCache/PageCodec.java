@@ -0,0 +1,133 @@
+package com.zhuo.mydb.backend.dm.pageCache;
+
+import java.util.Arrays;
+
+/**
+ * 页面压缩编码，LZF 格式的纯 Java 实现
+ * 控制字节 ctrl < 32：后面跟 ctrl + 1 个字面字节
+ * 否则为回溯引用：长度 = (ctrl >> 5) + 2，为 7 时再加下一字节；距离 = ((ctrl & 0x1f) << 8 | 下一字节) + 1
+ *
+ * @author : wzq
+ **/
+public class PageCodec {
+    private static final int HASH_LOG = 13;
+    private static final int MAX_LIT = 32;
+    private static final int MAX_OFF = 1 << 13;
+    private static final int MAX_REF = (1 << 8) + (1 << 3);
+
+    private static final ThreadLocal<int[]> hashTable = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    // 压缩输出在最坏情况下的长度
+    public static int maxCompressedLength(int len) {
+        return len + len / MAX_LIT + 1;
+    }
+
+    /**
+     * 压缩 in[0, inLen) 到 out，out 的长度至少为 maxCompressedLength(inLen)
+     * @return 压缩后的长度
+     */
+    public static int compress(byte[] in, int inLen, byte[] out) {
+        int[] htab = hashTable.get();
+        //表中存位置 + 1，0 表示空
+        Arrays.fill(htab, 0);
+        int ip = 0, op = 1, lit = 0;
+        while (ip < inLen - 2) {
+            int h = hash(in, ip);
+            int ref = htab[h] - 1;
+            htab[h] = ip + 1;
+            int off = ip - ref - 1;
+            if(ref >= 0 && off < MAX_OFF
+                    && in[ref] == in[ip] && in[ref + 1] == in[ip + 1] && in[ref + 2] == in[ip + 2]) {
+                int maxLen = Math.min(MAX_REF, inLen - ip);
+                int len = 3;
+                while (len < maxLen && in[ref + len] == in[ip + len]) {
+                    len++;
+                }
+                //结束当前的字面串
+                if(lit > 0) {
+                    out[op - lit - 1] = (byte) (lit - 1);
+                } else {
+                    op--;
+                }
+                int l = len - 2;
+                if(l < 7) {
+                    out[op++] = (byte) ((l << 5) | (off >> 8));
+                } else {
+                    out[op++] = (byte) ((7 << 5) | (off >> 8));
+                    out[op++] = (byte) (l - 7);
+                }
+                out[op++] = (byte) off;
+                lit = 0;
+                op++;
+                ip += len;
+            } else {
+                out[op++] = in[ip++];
+                if(++lit == MAX_LIT) {
+                    out[op - lit - 1] = (byte) (MAX_LIT - 1);
+                    lit = 0;
+                    op++;
+                }
+            }
+        }
+        while (ip < inLen) {
+            out[op++] = in[ip++];
+            if(++lit == MAX_LIT) {
+                out[op - lit - 1] = (byte) (MAX_LIT - 1);
+                lit = 0;
+                op++;
+            }
+        }
+        if(lit > 0) {
+            out[op - lit - 1] = (byte) (lit - 1);
+        } else {
+            op--;
+        }
+        return op;
+    }
+
+    /**
+     * 解压 in[0, inLen) 到 out
+     * @return 解压后的长度，数据损坏时返回 -1
+     */
+    public static int decompress(byte[] in, int inLen, byte[] out) {
+        int ip = 0, op = 0;
+        while (ip < inLen) {
+            int ctrl = in[ip++] & 0xff;
+            if(ctrl < MAX_LIT) {
+                int n = ctrl + 1;
+                if(ip + n > inLen || op + n > out.length) {
+                    return -1;
+                }
+                System.arraycopy(in, ip, out, op, n);
+                ip += n;
+                op += n;
+                continue;
+            }
+            int len = ctrl >> 5;
+            if(len == 7) {
+                if(ip >= inLen) {
+                    return -1;
+                }
+                len += in[ip++] & 0xff;
+            }
+            if(ip >= inLen) {
+                return -1;
+            }
+            int ref = op - ((ctrl & 0x1f) << 8) - (in[ip++] & 0xff) - 1;
+            len += 2;
+            if(ref < 0 || op + len > out.length) {
+                return -1;
+            }
+            //引用可能与输出重叠，逐字节复制
+            for (int i = 0; i < len; i++) {
+                out[op++] = out[ref++];
+            }
+        }
+        return op;
+    }
+
+    private static int hash(byte[] in, int p) {
+        int v = ((in[p] & 0xff) << 16) | ((in[p + 1] & 0xff) << 8) | (in[p + 2] & 0xff);
+        return (v * 0x9E3779B1) >>> (32 - HASH_LOG);
+    }
+}
@@ -0,0 +1,28 @@
+package com.zhuo.mydb.backend.dm.pageCache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 页面文件的读写方式，PageCacheImpl 通过它访问 .db 文件
+ * 每次读写一整页，offset 为页面在文件中的偏移
+ *
+ * @author : wzq
+ **/
+public interface PageStore {
+    void read(long offset, byte[] page);
+    // 异步读入一页，I/O 在 executor 中进行，默认在 executor 中调用 read
+    default CompletableFuture<Void> readAsync(long offset, byte[] page, ExecutorService executor) {
+        return CompletableFuture.runAsync(() -> read(offset, page), executor);
+    }
+    void write(long offset, byte[] page);
+    // 从 offset 开始依次写入多个连续的页面
+    void write(long offset, byte[][] pages);
+    // 将写入的页面刷入磁盘
+    void force();
+    long size();
+    // 把文件预先扩展到至少 size 字节，扩展出的部分读出为 0
+    void allocate(long size);
+    void truncate(long size);
+    void close();
+}
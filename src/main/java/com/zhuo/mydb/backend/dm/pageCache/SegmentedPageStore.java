@@ -0,0 +1,230 @@
+package com.zhuo.mydb.backend.dm.pageCache;
+
+import com.zhuo.mydb.backend.utils.Panic;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 把页面文件切分成固定大小的段：第 0 段是 .db 文件本身，之后依次为 .db.0001、.db.0002 ...
+ * 段大小是页面大小的整数倍，页面不会跨段，每段由一个 FilePageStore 或 MappedPageStore 读写
+ * 新建的段轮流放在 segmentDirs 指定的目录中（可以位于不同的磁盘），打开时在 .db 所在目录和这些目录中查找
+ * 只有写过的段才在 force 时刷盘
+ *
+ * @author : wzq
+ **/
+public class SegmentedPageStore implements PageStore {
+    private static final String SEGMENT_FORMAT = "%s.%04d";
+
+    private String name;                    // 段文件名的前缀，即 .db 文件名
+    private File[] dirs;                    // 新段轮流放置的目录
+    private File[] searchDirs;              // 打开时查找段文件的目录
+    private long segmentSize;
+    private boolean mmap;
+
+    private volatile Segment[] segments;
+    private Lock lock;                      // 保护段的增加与删除
+
+    private static class Segment {
+        File file;
+        PageStore store;
+        volatile boolean dirty;             // 上次 force 之后是否写过
+
+        Segment(File file, PageStore store) {
+            this.file = file;
+            this.store = store;
+        }
+    }
+
+    public SegmentedPageStore(String path, RandomAccessFile raf, FileChannel fc,
+                              long segmentSize, String[] segmentDirs, boolean mmap) {
+        File db = new File(path + PageCacheImpl.DB_SUFFIX).getAbsoluteFile();
+        this.name = db.getName();
+        this.segmentSize = segmentSize;
+        this.mmap = mmap;
+        this.lock = new ReentrantLock();
+        File home = db.getParentFile();
+        if(segmentDirs == null || segmentDirs.length == 0) {
+            dirs = new File[]{home};
+        } else {
+            dirs = new File[segmentDirs.length];
+            for (int i = 0; i < segmentDirs.length; i++) {
+                dirs[i] = new File(segmentDirs[i]);
+            }
+        }
+        searchDirs = new File[dirs.length + 1];
+        searchDirs[0] = home;
+        System.arraycopy(dirs, 0, searchDirs, 1, dirs.length);
+
+        Segment[] segs = {new Segment(db, newStore(db, raf, fc))};
+        //依次打开已有的段，直到某一段不存在
+        for (int i = 1; ; i++) {
+            File f = find(i);
+            if(f == null) {
+                break;
+            }
+            segs = Arrays.copyOf(segs, i + 1);
+            segs[i] = open(f);
+        }
+        segments = segs;
+    }
+
+    private PageStore newStore(File f, RandomAccessFile raf, FileChannel fc) {
+        return mmap ? new MappedPageStore(raf, fc) : new FilePageStore(f, raf, fc);
+    }
+
+    private String segmentName(int index) {
+        return String.format(SEGMENT_FORMAT, name, index);
+    }
+
+    private File find(int index) {
+        for (File dir : searchDirs) {
+            File f = new File(dir, segmentName(index));
+            if(f.exists()) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    private Segment open(File f) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "rw");
+        } catch (FileNotFoundException e) {
+            Panic.panic(e);
+        }
+        return new Segment(f, newStore(f, raf, raf.getChannel()));
+    }
+
+    private Segment segmentFor(long offset) {
+        return segments[(int) (offset / segmentSize)];
+    }
+
+    @Override
+    public void read(long offset, byte[] page) {
+        int index = (int) (offset / segmentSize);
+        Segment[] segs = segments;
+        if(index >= segs.length) {
+            //尚未分配的位置读出为 0
+            Arrays.fill(page, (byte) 0);
+            return;
+        }
+        segs[index].store.read(offset % segmentSize, page);
+    }
+
+    @Override
+    public CompletableFuture<Void> readAsync(long offset, byte[] page, ExecutorService executor) {
+        int index = (int) (offset / segmentSize);
+        Segment[] segs = segments;
+        if(index >= segs.length) {
+            Arrays.fill(page, (byte) 0);
+            return CompletableFuture.completedFuture(null);
+        }
+        return segs[index].store.readAsync(offset % segmentSize, page, executor);
+    }
+
+    @Override
+    public void write(long offset, byte[] page) {
+        Segment s = segmentFor(offset);
+        s.store.write(offset % segmentSize, page);
+        s.dirty = true;
+    }
+
+    // 按段的边界拆开，每段内仍是一次聚集写
+    @Override
+    public void write(long offset, byte[][] pages) {
+        int from = 0;
+        while (from < pages.length) {
+            long local = offset % segmentSize;
+            int n = (int) Math.min(pages.length - from, (segmentSize - local) / pages[from].length);
+            Segment s = segmentFor(offset);
+            s.store.write(local, Arrays.copyOfRange(pages, from, from + n));
+            s.dirty = true;
+            for (int i = from; i < from + n; i++) {
+                offset += pages[i].length;
+            }
+            from += n;
+        }
+    }
+
+    @Override
+    public void force() {
+        for (Segment s : segments) {
+            if(s.dirty) {
+                s.dirty = false;
+                s.store.force();
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        Segment[] segs = segments;
+        return (segs.length - 1) * segmentSize + segs[segs.length - 1].store.size();
+    }
+
+    // 前面的段扩展到整段，不够时在下一个目录中新建段
+    @Override
+    public void allocate(long size) {
+        lock.lock();
+        try {
+            Segment[] segs = segments;
+            int last = (int) ((size - 1) / segmentSize);
+            for (int i = 0; i <= last; i++) {
+                if(i >= segs.length) {
+                    File f = new File(dirs[(i - 1) % dirs.length], segmentName(i));
+                    segs = Arrays.copyOf(segs, i + 1);
+                    segs[i] = open(f);
+                    segments = segs;
+                }
+                segs[i].store.allocate(i < last ? segmentSize : size - (long) i * segmentSize);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 截断结尾所在的段，删除之后的段
+    @Override
+    public void truncate(long size) {
+        lock.lock();
+        try {
+            Segment[] segs = segments;
+            int last = size == 0 ? 0 : (int) ((size - 1) / segmentSize);
+            for (int i = segs.length - 1; i > last; i--) {
+                segs[i].store.close();
+                try {
+                    Files.delete(segs[i].file.toPath());
+                } catch (IOException e) {
+                    Panic.panic(e);
+                }
+            }
+            if(last < segs.length) {
+                segs = Arrays.copyOf(segs, last + 1);
+                segments = segs;
+                segs[last].store.truncate(size - (long) last * segmentSize);
+            } else {
+                allocate(size);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Segment s : segments) {
+            s.store.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.zhuo.mydb.backend.dm.pageIndex;
+
+import com.zhuo.mydb.backend.dm.page.Page;
+import com.zhuo.mydb.backend.dm.page.PageFsm;
+import com.zhuo.mydb.backend.dm.page.PageX;
+import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import com.zhuo.mydb.backend.utils.Panic;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 把各数据页的空闲空间持久化在 FSM 页中，页面的空闲空间变化时随之更新
+ * 正常关闭后打开时只读 FSM 页即可填充 PageIndex；崩溃后 FSM 页不可信，在后台逐页重建，
+ * 重建完成前插入只会用到已重建的页面和新申请的页面
+ *
+ * @author : wzq
+ **/
+public class FreeSpaceMap {
+    private PageCache pc;
+    private int pageSize;
+    private Lock allocLock;
+    private Thread rebuilder;
+    private volatile boolean closed;
+    private volatile boolean rebuilt = true;
+
+    public FreeSpaceMap(PageCache pc) {
+        this.pc = pc;
+        this.pageSize = pc.getPageSize();
+        this.allocLock = new ReentrantLock();
+    }
+
+    /**
+     * 申请一个新的数据页，下一个页号是 FSM 页的位置时先把它分配成空的 FSM 页
+     */
+    public int newPage(byte[] initData) {
+        allocLock.lock();
+        try {
+            if(PageFsm.isFsmPage(pc.getPageNumber() + 1, pageSize)) {
+                pc.newPage(new byte[pageSize]);
+            }
+            int pgno = pc.newPage(initData);
+            set(pgno, PageX.maxFreeSpace(pageSize));
+            return pgno;
+        } finally {
+            allocLock.unlock();
+        }
+    }
+
+    // 记录数据页pgno的空闲空间
+    public void set(int pgno, int freeSpace) {
+        Page fsm = getPage(PageFsm.fsmPgno(pgno, pageSize));
+        try {
+            if(PageFsm.getFreeSpace(fsm, pgno) != freeSpace) {
+                PageFsm.setFreeSpace(fsm, pgno, freeSpace);
+            }
+        } finally {
+            fsm.release();
+        }
+    }
+
+    /**
+     * 正常关闭后打开时，按 FSM 页填充 pIndex，没有空闲空间的页面不放入索引
+     */
+    public void load(PageIndex pIndex) {
+        int pageNumber = pc.getPageNumber();
+        int group = PageFsm.entriesPerPage(pageSize) + 1;
+        for (int fsmPgno = 2; fsmPgno <= pageNumber; fsmPgno += group) {
+            Page fsm = getPage(fsmPgno);
+            try {
+                int last = Math.min(pageNumber, fsmPgno + group - 1);
+                for (int pgno = fsmPgno + 1; pgno <= last; pgno++) {
+                    int freeSpace = PageFsm.getFreeSpace(fsm, pgno);
+                    if(freeSpace > 0) {
+                        pIndex.add(pgno, freeSpace);
+                    }
+                }
+            } finally {
+                fsm.release();
+            }
+        }
+    }
+
+    /**
+     * 崩溃恢复后在后台读出每个数据页，重新计算空闲空间并写回 FSM 页
+     * 用 update 放入索引，不会和正在使用该页的插入者冲突
+     */
+    public void rebuild(PageIndex pIndex) {
+        int pageNumber = pc.getPageNumber();
+        rebuilt = false;
+        rebuilder = new Thread(() -> {
+            int pgno = 2;
+            for (; pgno <= pageNumber && !closed; pgno++) {
+                if(PageFsm.isFsmPage(pgno, pageSize)) {
+                    continue;
+                }
+                Page pg = getPage(pgno);
+                int freeSpace;
+                try {
+                    freeSpace = PageX.getFreeSpace(pg);
+                } finally {
+                    pg.release();
+                }
+                set(pgno, freeSpace);
+                pIndex.update(pgno, freeSpace);
+            }
+            rebuilt = pgno > pageNumber;
+        }, "fsm-rebuild");
+        rebuilder.setDaemon(true);
+        rebuilder.start();
+    }
+
+    // 关闭前停止后台重建，没有重建完时 FSM 页仍不可信，下次打开时重新重建
+    public void close() {
+        closed = true;
+        if(rebuilder == null) {
+            return;
+        }
+        try {
+            rebuilder.join();
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+    }
+
+    // FSM 页是否与数据页一致（不计关闭前尚未写回的修改）
+    public boolean isValid() {
+        return rebuilt;
+    }
+
+    private Page getPage(int pgno) {
+        Page pg = null;
+        try {
+            pg = pc.getPage(pgno);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        return pg;
+    }
+}
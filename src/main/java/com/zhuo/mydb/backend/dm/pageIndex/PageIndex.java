@@ -1,41 +1,103 @@
 package com.zhuo.mydb.backend.dm.pageIndex;
 
-import com.zhuo.mydb.backend.dm.pageCache.PageCache;
-
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * 每个页面在索引中至多出现一次：select 取走页面，插入者用完后 add 放回
+ * 页面中的记录被释放后通过 update 更新其空闲空间，页面正被插入者取走时由插入者放回时一并计入
+ * 区间用无锁队列实现，页面的状态记在 states 中：当前有效的 PageInfo，或被取走时的 SELECTED
+ * 被 update 替换掉的旧 PageInfo 仍留在队列中，select 取到时丢弃，积累过多时统一清理
+ *
  * @author : wzq
  **/
 
 public class PageIndex {
     // 将一页划成40个区间
     private static final int INTERVALS_NO = 40;
-    private static final int THRESHOLD = PageCache.PAGE_SIZE / INTERVALS_NO;
+    private static final PageInfo SELECTED = new PageInfo(0, 0);
 
-    private Lock lock;
-    private List[] lists;
+    private final int threshold;
+    private List<Queue<PageInfo>> lists;
+    private ConcurrentHashMap<Integer, PageInfo> states;
+    private AtomicInteger stale;                // 队列中已失效的 PageInfo 数
 
 
-    public PageIndex() {
-        lock = new ReentrantLock();
-        lists = new List[INTERVALS_NO+1];
+    public PageIndex(int pageSize) {
+        threshold = pageSize / INTERVALS_NO;
+        lists = new ArrayList<>(INTERVALS_NO+1);
         for (int i = 0; i < INTERVALS_NO+1; i ++) {
-            lists[i] = new ArrayList<>();
+            lists.add(new ConcurrentLinkedQueue<>());
         }
+        states = new ConcurrentHashMap<>();
+        stale = new AtomicInteger();
     }
 
-    @SuppressWarnings("unchecked")
     public void add(int pgno, int freeSpace){
-        lock.lock();
-        try {
-            int number = freeSpace / THRESHOLD;
-            lists[number].add(new PageInfo(pgno ,freeSpace));
-        }finally {
-            lock.unlock();
+        PageInfo pi = new PageInfo(pgno, freeSpace);
+        PageInfo old = states.put(pgno, pi);
+        if(old != null && old != SELECTED) {
+            stale.incrementAndGet();
+        }
+        offer(pi);
+    }
+
+    /**
+     * 页面的空闲空间因释放记录而增加，页面已被取走时忽略
+     */
+    public void update(int pgno, int freeSpace) {
+        PageInfo pi = new PageInfo(pgno, freeSpace);
+        PageInfo[] old = new PageInfo[1];
+        PageInfo cur = states.compute(pgno, (k, v) -> {
+            old[0] = v;
+            return v == SELECTED ? v : pi;
+        });
+        if(cur != pi) {
+            return;
+        }
+        if(old[0] != null) {
+            stale.incrementAndGet();
+        }
+        offer(pi);
+    }
+
+    /**
+     * 把新申请的页面直接记为已取走，由申请者使用后放回
+     */
+    public PageInfo hold(int pgno, int freeSpace) {
+        states.put(pgno, SELECTED);
+        return new PageInfo(pgno, freeSpace);
+    }
+
+    /**
+     * 取走指定的页面，页面不在索引中（已被取走或没有记录）时返回 null
+     */
+    public PageInfo take(int pgno) {
+        PageInfo pi = states.get(pgno);
+        if(pi == null || pi == SELECTED || !states.replace(pgno, pi, SELECTED)) {
+            return null;
+        }
+        //队列中的 PageInfo 已失效，被 select 取到时丢弃
+        stale.incrementAndGet();
+        return pi;
+    }
+
+    private void offer(PageInfo pi) {
+        lists.get(Math.min(pi.freeSpace / threshold, INTERVALS_NO)).offer(pi);
+        if(stale.get() > states.size() + INTERVALS_NO) {
+            purge();
+        }
+    }
+
+    // 清理队列中已失效的 PageInfo
+    private void purge() {
+        stale.set(0);
+        for (Queue<PageInfo> list : lists) {
+            list.removeIf(pi -> states.get(pi.pgno) != pi);
         }
     }
 
@@ -45,24 +107,18 @@ public class PageIndex {
      * @return
      */
     public PageInfo select(int spaceSize) {
-        // 因为每页都是共享资源，所以加锁保证数据不丢失
-        lock.lock();
-        //找出哪一页有空余的位置进行存储
-        try {
-            int number = spaceSize / THRESHOLD;
-            if(number < INTERVALS_NO) number ++;
-            while(number <= INTERVALS_NO) {
-                if(lists[number].isEmpty()) {
-                    number ++;
-                    continue;
+        int number = spaceSize / threshold;
+        if(number < INTERVALS_NO) number ++;
+        //找出哪一页有空余的位置进行存储，多个插入者争同一个页面时只有一个能把状态换成 SELECTED
+        for (; number <= INTERVALS_NO; number++) {
+            PageInfo pi;
+            while((pi = lists.get(number).poll()) != null) {
+                if(states.replace(pi.pgno, pi, SELECTED)) {
+                    return pi;
                 }
-                return (PageInfo) lists[number].remove(0);
+                stale.updateAndGet(n -> Math.max(0, n - 1));
             }
-            return null;
-        } finally {
-            lock.unlock();
         }
+        return null;
     }
-
-
 }
@@ -13,16 +13,23 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * 树的平衡因子在创建时按页面大小确定，之后由根节点的大小得出
+ * 范围查询下降时，把每层中覆盖查询范围的子节点一起预读，多个页面的读取同时进行
+ *
  * @author : wzq
  **/
 public class BPlusTree {
+    // 范围查询每层最多预读的子节点数
+    private static final int RANGE_PREFETCH = 16;
+
     DataManager dm;
     long bootUid;
     DataItem bootDataItem;
     Lock bootLock;
+    int balance;
 
     public static long create(DataManager dm) throws Exception {
-        byte[] rawRoot = Node.newNilRootRaw();
+        byte[] rawRoot = Node.newNilRootRaw(Node.balanceFor(dm.getPageSize()));
         long rootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rawRoot);
         return dm.insert(TransactionManagerImpl.SUPER_XID, Parser.long2Byte(rootUid));
     }
@@ -35,6 +42,9 @@ public class BPlusTree {
         t.dm = dm;
         t.bootDataItem = bootDataItem;
         t.bootLock = new ReentrantLock();
+        Node root = Node.loadNode(t, t.rootUid());
+        t.balance = root.balance;
+        root.release();
         return t;
     }
 
@@ -51,7 +61,7 @@ public class BPlusTree {
     private void updateRootUid(long left, long right, long rightKey) throws Exception {
         bootLock.lock();
         try {
-            byte[] rootRaw = Node.newRootRaw(left, right, rightKey);
+            byte[] rootRaw = Node.newRootRaw(balance, left, right, rightKey);
             long newRootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rootRaw);
             bootDataItem.before();
             SubArray diRaw = bootDataItem.data();
@@ -89,14 +99,36 @@ public class BPlusTree {
         return searchRange(key, key);
     }
 
+    // 与 searchLeaf 相同，每层先预读覆盖 [leftKey, rightKey] 的其余子节点
+    private long searchLeaf(long nodeUid, long leftKey, long rightKey) throws Exception {
+        Node node = Node.loadNode(this, nodeUid);
+        boolean isLeaf = node.isLeaf();
+        List<Long> sons = isLeaf ? null : node.sonsInRange(leftKey, rightKey, RANGE_PREFETCH);
+        node.release();
+
+        if(isLeaf) {
+            return nodeUid;
+        }
+        //第一个子节点马上就要读取，不必预读
+        for (int i = 1; i < sons.size(); i++) {
+            dm.prefetch(sons.get(i));
+        }
+        long next = searchNext(nodeUid, leftKey);
+        return searchLeaf(next, leftKey, rightKey);
+    }
+
     public List<Long> searchRange(long leftKey, long rightKey) throws Exception {
         long rootUid = rootUid();
-        long leafUid = searchLeaf(rootUid, leftKey);
+        long leafUid = searchLeaf(rootUid, leftKey, rightKey);
         List<Long> uids = new ArrayList<>();
         while(true) {
             Node leaf = Node.loadNode(this, leafUid);
             Node.LeafSearchRangeRes res = leaf.leafSearchRange(leftKey, rightKey);
             leaf.release();
+            if(res.siblingUid != 0) {
+                //下一个叶子的读取与本叶子结果的处理重叠
+                dm.prefetch(res.siblingUid);
+            }
             uids.addAll(res.uids);
             if(res.siblingUid == 0) {
                 break;
@@ -156,6 +188,26 @@ public class BPlusTree {
         }
     }
 
+    /**
+     * 删除 (key, uid)，叶子变空也不合并，查找时沿兄弟节点越过空叶子
+     * 分裂可能把与分隔键相等的 key 留在左边的叶子中，从 key - 1 所在的叶子开始找
+     */
+    public boolean remove(long key, long uid) throws Exception {
+        long leafUid = searchLeaf(rootUid(), key == Long.MIN_VALUE ? key : key - 1);
+        while(true) {
+            Node leaf = Node.loadNode(this, leafUid);
+            Node.LeafRemoveRes res = leaf.leafRemove(uid, key);
+            leaf.release();
+            if(res.removed) {
+                return true;
+            }
+            if(res.siblingUid == 0) {
+                return false;
+            }
+            leafUid = res.siblingUid;
+        }
+    }
+
     public void close() {
         bootDataItem.release();
     }
@@ -2,6 +2,7 @@ package com.zhuo.mydb.backend.im;
 
 import com.zhuo.mydb.backend.common.SubArray;
 import com.zhuo.mydb.backend.dm.dataItem.DataItem;
+import com.zhuo.mydb.backend.dm.pageCache.PageCache;
 import com.zhuo.mydb.backend.tm.TransactionManagerImpl;
 import com.zhuo.mydb.backend.utils.Parser;
 
@@ -13,6 +14,7 @@ import java.util.List;
  * Node结构如下：
  * [LeafFlag][KeyNumber][SiblingUid]
  * [Son0][Key0][Son1][Key1]...[SonN][KeyN]
+ * 节点大小由所在树的平衡因子决定，同一棵树的节点大小相同，平衡因子可以由节点大小反推
  */
 public class Node {
     static final int IS_LEAF_OFFSET = 0;
@@ -20,13 +22,26 @@ public class Node {
     static final int SIBLING_OFFSET = NO_KEYS_OFFSET+2;
     static final int NODE_HEADER_SIZE = SIBLING_OFFSET+8;
 
+    // 8K 页面的平衡因子，其他页面大小按比例缩放
     static final int BALANCE_NUMBER = 32;
-    static final int NODE_SIZE = NODE_HEADER_SIZE + (2*8)*(BALANCE_NUMBER*2+2);
 
     BPlusTree tree;
     DataItem dataItem;
     SubArray raw;
     long uid;
+    int balance;
+
+    static int balanceFor(int pageSize) {
+        return BALANCE_NUMBER * pageSize / PageCache.DEFAULT_PAGE_SIZE;
+    }
+
+    static int nodeSize(int balance) {
+        return NODE_HEADER_SIZE + (2*8)*(balance*2+2);
+    }
+
+    static int getRawBalance(SubArray raw) {
+        return ((raw.end-raw.start-NODE_HEADER_SIZE)/(2*8) - 2) / 2;
+    }
 
     static void setRawIsLeaf(SubArray raw, boolean isLeaf) {
         if(isLeaf) {
@@ -83,14 +98,20 @@ public class Node {
 
     static void shiftRawKth(SubArray raw, int kth) {
         int begin = raw.start+NODE_HEADER_SIZE+(kth+1)*(8*2);
-        int end = raw.start+NODE_SIZE-1;
+        int end = raw.end-1;
         for(int i = end; i >= begin; i --) {
             raw.raw[i] = raw.raw[i-(8*2)];
         }
     }
 
-    static byte[] newRootRaw(long left, long right, long key)  {
-        SubArray raw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+    // 删除第 kth 个 [Son][Key]，后面的依次前移
+    static void unshiftRawKth(SubArray raw, int kth) {
+        int begin = raw.start+NODE_HEADER_SIZE+kth*(8*2);
+        System.arraycopy(raw.raw, begin+(8*2), raw.raw, begin, raw.end-begin-(8*2));
+    }
+
+    static byte[] newRootRaw(int balance, long left, long right, long key)  {
+        SubArray raw = new SubArray(new byte[nodeSize(balance)], 0, nodeSize(balance));
 
         setRawIsLeaf(raw, false);
         setRawNoKeys(raw, 2);
@@ -103,8 +124,8 @@ public class Node {
         return raw.raw;
     }
 
-    static byte[] newNilRootRaw()  {
-        SubArray raw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+    static byte[] newNilRootRaw(int balance)  {
+        SubArray raw = new SubArray(new byte[nodeSize(balance)], 0, nodeSize(balance));
 
         setRawIsLeaf(raw, true);
         setRawNoKeys(raw, 0);
@@ -121,6 +142,7 @@ public class Node {
         n.dataItem = di;
         n.raw = di.data();
         n.uid = uid;
+        n.balance = getRawBalance(n.raw);
         return n;
     }
 
@@ -164,6 +186,29 @@ public class Node {
         }
     }
 
+    // 覆盖 [leftKey, rightKey] 的子节点，至多 limit 个
+    public List<Long> sonsInRange(long leftKey, long rightKey, int limit) {
+        dataItem.rLock();
+        try {
+            List<Long> sons = new ArrayList<>();
+            int noKeys = getRawNoKeys(raw);
+            for(int i = 0; i < noKeys && sons.size() < limit; i ++) {
+                //第 i 个子节点存放小于第 i 个 key 的值
+                long ik = getRawKthKey(raw, i);
+                if(ik <= leftKey) {
+                    continue;
+                }
+                sons.add(getRawKthSon(raw, i));
+                if(ik > rightKey) {
+                    break;
+                }
+            }
+            return sons;
+        } finally {
+            dataItem.rUnLock();
+        }
+    }
+
     class LeafSearchRangeRes {
         List<Long> uids;
         long siblingUid;
@@ -204,6 +249,43 @@ public class Node {
         }
     }
 
+    class LeafRemoveRes {
+        boolean removed;
+        long siblingUid;
+    }
+
+    // 在叶子中删除 (key, uid)，节点变空也不合并；本节点的 key 都不大于 key 时返回兄弟节点继续查找
+    public LeafRemoveRes leafRemove(long uid, long key) {
+        LeafRemoveRes res = new LeafRemoveRes();
+        dataItem.before();
+        try {
+            int noKeys = getRawNoKeys(raw);
+            int kth = 0;
+            while(kth < noKeys && getRawKthKey(raw, kth) < key) {
+                kth ++;
+            }
+            while(kth < noKeys && getRawKthKey(raw, kth) == key) {
+                if(getRawKthSon(raw, kth) == uid) {
+                    unshiftRawKth(raw, kth);
+                    setRawNoKeys(raw, noKeys-1);
+                    res.removed = true;
+                    return res;
+                }
+                kth ++;
+            }
+            if(kth == noKeys) {
+                res.siblingUid = getRawSibling(raw);
+            }
+            return res;
+        } finally {
+            if(res.removed) {
+                dataItem.after(TransactionManagerImpl.SUPER_XID);
+            } else {
+                dataItem.unBefore();
+            }
+        }
+    }
+
     class InsertAndSplitRes {
         long siblingUid, newSon, newKey;
     }
@@ -272,7 +354,7 @@ public class Node {
     }
 
     private boolean needSplit() {
-        return BALANCE_NUMBER*2 == getRawNoKeys(raw);
+        return balance*2 == getRawNoKeys(raw);
     }
 
     class SplitRes {
@@ -280,13 +362,13 @@ public class Node {
     }
 
     private SplitRes split() throws Exception {
-        SubArray nodeRaw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+        SubArray nodeRaw = new SubArray(new byte[nodeSize(balance)], 0, nodeSize(balance));
         setRawIsLeaf(nodeRaw, getRawIfLeaf(raw));
-        setRawNoKeys(nodeRaw, BALANCE_NUMBER);
+        setRawNoKeys(nodeRaw, balance);
         setRawSibling(nodeRaw, getRawSibling(raw));
-        copyRawFromKth(raw, nodeRaw, BALANCE_NUMBER);
+        copyRawFromKth(raw, nodeRaw, balance);
         long son = tree.dm.insert(TransactionManagerImpl.SUPER_XID, nodeRaw.raw);
-        setRawNoKeys(raw, BALANCE_NUMBER);
+        setRawNoKeys(raw, balance);
         setRawSibling(raw, son);
 
         SplitRes res = new SplitRes();
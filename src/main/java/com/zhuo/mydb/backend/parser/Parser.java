@@ -49,6 +49,9 @@ public class Parser {
                 case "show":
                     stat = parseShow(tokenizer);
                     break;
+                case "vacuum":
+                    stat = parseVacuum(tokenizer);
+                    break;
                 default:
                     throw Error.InvalidCommandException;
             }
@@ -150,17 +153,27 @@ public class Parser {
             throw Error.InvalidCommandException;
         }
 
+        List<String[]> rows = new ArrayList<>();
         List<String> values = new ArrayList<>();
         while(true) {
             tokenizer.pop();
             String value = tokenizer.peek();
-            if("".equals(value)) {
-                break;
+            //只有不在引号中的 "," 分隔各行，引号中的 "," 和空串都是值
+            boolean end = "".equals(value) && !tokenizer.isQuoted();
+            if(end || (",".equals(value) && !tokenizer.isQuoted())) {
+                if(values.isEmpty()) {
+                    throw Error.InvalidCommandException;
+                }
+                rows.add(values.toArray(new String[values.size()]));
+                values.clear();
+                if(end) {
+                    break;
+                }
             } else {
                 values.add(value);
             }
         }
-        insert.values = values.toArray(new String[values.size()]);
+        insert.values = rows.toArray(new String[rows.size()][]);
 
         return insert;
     }
@@ -273,6 +286,22 @@ public class Parser {
         return ("and".equals(op) || "or".equals(op));
     }
 
+    private static Vacuum parseVacuum(Tokenizer tokenizer) throws Exception {
+        String tableName = tokenizer.peek();
+        if(!isName(tableName)) {
+            throw Error.InvalidCommandException;
+        }
+        tokenizer.pop();
+
+        if(!"".equals(tokenizer.peek())) {
+            throw Error.InvalidCommandException;
+        }
+
+        Vacuum vacuum = new Vacuum();
+        vacuum.tableName = tableName;
+        return vacuum;
+    }
+
     private static Drop parseDrop(Tokenizer tokenizer) throws Exception {
         if(!"table".equals(tokenizer.peek())) {
             throw Error.InvalidCommandException;
@@ -9,6 +9,8 @@ public class Tokenizer {
     private byte[] stat;
     private int pos;
     private String currentToken;
+    private boolean currentQuoted;      // 当前的 token 是否来自引号中的字符串
+    private boolean quoted;
     private boolean flushToken;
     private Exception err;
 
@@ -32,11 +34,18 @@ public class Tokenizer {
                 throw e;
             }
             currentToken = token;
+            currentQuoted = quoted;
             flushToken = false;
         }
         return currentToken;
     }
 
+    // peek 得到的 token 是否写在引号中，引号中的 "," 等是普通的值而不是符号
+    public boolean isQuoted() throws Exception {
+        peek();
+        return currentQuoted;
+    }
+
     public void pop() {
         flushToken = true;
     }
@@ -71,6 +80,7 @@ public class Tokenizer {
     }
 
     private String nextMetaState() throws Exception {
+        quoted = false;
         while(true) {
             Byte b = peekByte();
             if(b == null) {
@@ -121,6 +131,7 @@ public class Tokenizer {
     private String nextQuoteState() throws Exception {
         byte quote = peekByte();
         popByte();
+        quoted = true;
         StringBuilder sb = new StringBuilder();
         while(true) {
             Byte b = peekByte();
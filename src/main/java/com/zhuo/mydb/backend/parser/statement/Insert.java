@@ -2,5 +2,6 @@ package com.zhuo.mydb.backend.parser.statement;
 
 public class Insert {
     public String tableName;
-    public String[] values;
+    // 每个元素是一行的值，多行之间在语句中用逗号分隔
+    public String[][] values;
 }
\ No newline at end of file
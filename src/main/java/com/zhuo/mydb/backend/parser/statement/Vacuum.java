@@ -0,0 +1,5 @@
+package com.zhuo.mydb.backend.parser.statement;
+
+public class Vacuum {
+    public String tableName;
+}
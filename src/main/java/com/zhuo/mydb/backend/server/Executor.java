@@ -73,6 +73,8 @@ public class Executor {
                 res = tbm.delete(xid, (Delete)stat);
             } else if(Update.class.isInstance(stat)) {
                 res = tbm.update(xid, (Update)stat);
+            } else if(Vacuum.class.isInstance(stat)) {
+                res = tbm.vacuum(xid, (Vacuum)stat);
             }
             return res;
         } catch(Exception e1) {
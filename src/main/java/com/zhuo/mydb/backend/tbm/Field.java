@@ -17,8 +17,13 @@ import java.util.List;
  * 二进制格式为：
  * [FieldName][TypeName][IndexUid]
  * 如果field无索引，IndexUid为0
+ * 记录中字符串值的格式为 [Length 4][Bytes]，移入溢出链的值为 [-1 4][Length 4][OverflowUid 8]
  */
 public class Field {
+    private static final int OVERFLOW_MARK = -1;
+    // 溢出指针的长度，不超过它的值不值得移出
+    static final int OVERFLOW_RAW_SIZE = 16;
+
     long uid;
     private Table tb;
     String fieldName;
@@ -103,6 +108,11 @@ public class Field {
         bt.insert(uKey, uid);
     }
 
+    public void remove(Object key, long uid) throws Exception {
+        long uKey = value2Uid(key);
+        bt.remove(uKey, uid);
+    }
+
     public List<Long> search(long left, long right) throws Exception {
         return bt.searchRange(left, right);
     }
@@ -135,7 +145,11 @@ public class Field {
         return uid;
     }
 
+    // 已在溢出链中的值只写入指针
     public byte[] value2Raw(Object v) {
+        if(v instanceof OverflowValue) {
+            return overflow2Raw((OverflowValue) v);
+        }
         byte[] raw = null;
         switch(fieldType) {
             case "int32":
@@ -151,6 +165,14 @@ public class Field {
         return raw;
     }
 
+    public boolean isString() {
+        return "string".equals(fieldType);
+    }
+
+    public byte[] overflow2Raw(OverflowValue ov) {
+        return Bytes.concat(Parser.int2Byte(OVERFLOW_MARK), Parser.int2Byte(ov.length), Parser.long2Byte(ov.uid));
+    }
+
     class ParseValueRes {
         Object v;
         int shift;
@@ -168,6 +190,14 @@ public class Field {
                 res.shift = 8;
                 break;
             case "string":
+                if(Parser.parseInt(Arrays.copyOf(raw, 4)) == OVERFLOW_MARK) {
+                    OverflowValue ov = new OverflowValue();
+                    ov.length = Parser.parseInt(Arrays.copyOfRange(raw, 4, 8));
+                    ov.uid = Parser.parseLong(Arrays.copyOfRange(raw, 8, OVERFLOW_RAW_SIZE));
+                    res.v = ov;
+                    res.shift = OVERFLOW_RAW_SIZE;
+                    break;
+                }
                 ParseStringRes r = Parser.parseString(raw);
                 res.v = r.str;
                 res.shift = r.next;
@@ -0,0 +1,9 @@
+package com.zhuo.mydb.backend.tbm;
+
+/**
+ * 存放在溢出链中的字符串值，记录中只保存指针，查询用到该字段时才读出
+ */
+public class OverflowValue {
+    public long uid;
+    public int length;
+}
@@ -1,11 +1,13 @@
 package com.zhuo.mydb.backend.tbm;
 
 import com.google.common.primitives.Bytes;
+import com.zhuo.mydb.backend.dm.DataManager;
 import com.zhuo.mydb.backend.parser.statement.*;
 import com.zhuo.mydb.backend.tm.TransactionManagerImpl;
 import com.zhuo.mydb.backend.utils.Panic;
 import com.zhuo.mydb.backend.utils.ParseStringRes;
 import com.zhuo.mydb.backend.utils.Parser;
+import com.zhuo.mydb.backend.vm.VacuumRes;
 import com.zhuo.mydb.common.Error;
 
 import java.util.*;
@@ -17,6 +19,9 @@ import java.util.*;
  * [Field1Uid][Field2Uid]...[FieldNUid]
  */
 public class Table {
+    // 读取记录时提前预读的记录数
+    private static final int READ_AHEAD = 16;
+
     TableManager tbm;
     long uid;
     String name;
@@ -95,7 +100,9 @@ public class Table {
     public int delete(long xid, Delete delete) throws Exception {
         List<Long> uids = parseWhere(delete.where);
         int count = 0;
-        for (Long uid : uids) {
+        for (int i = 0; i < uids.size(); i++) {
+            prefetch(uids, i);
+            long uid = uids.get(i);
             if(((TableManagerImpl)tbm).vm.delete(xid, uid)) {
                 count ++;
             }
@@ -117,15 +124,35 @@ public class Table {
         }
         Object value = fd.string2Value(update.value);
         int count = 0;
-        for (Long uid : uids) {
+        for (int i = 0; i < uids.size(); i++) {
+            prefetch(uids, i);
+            long uid = uids.get(i);
             byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uid);
             if(raw == null) continue;
 
-            ((TableManagerImpl)tbm).vm.delete(xid, uid);
-
             Map<String, Object> entry = parseEntry(raw);
+            //索引列不变时新版本接在旧版本的链上，不用改索引
+            boolean hot = !fd.isIndexed() || value.equals(fetch(entry.get(fd.fieldName)));
+            if(hot) {
+                //同一条链上的版本共用未修改字段的溢出链，只有被修改的字段需要时另存
+                Set<Long> shared = overflowUids(entry);
+                entry.put(fd.fieldName, value);
+                raw = entry2Raw(xid, entry);
+                if(((TableManagerImpl)tbm).vm.update(xid, uid, raw)) {
+                    count ++;
+                } else {
+                    //事务中止时还会按 uid 释放这些溢出链，槽号不能回收
+                    freeOverflows(parseEntry(raw), shared, null, null);
+                }
+                continue;
+            }
+
+            //新行与旧行分别回收，溢出值另存一份
+            entry = fetchAll(entry);
             entry.put(fd.fieldName, value);
-            raw = entry2Raw(entry);
+            raw = entry2Raw(xid, entry);
+
+            ((TableManagerImpl)tbm).vm.delete(xid, uid);
             long uuid = ((TableManagerImpl)tbm).vm.insert(xid, raw);
             
             count ++;
@@ -139,25 +166,162 @@ public class Table {
         return count;
     }
 
+    /**
+     * 释放对所有事务都不可见的旧版本，整行都不可见时删除它在各个索引中的项，最后释放版本的溢出链
+     * 先释放记录再删索引项，中途崩溃时残留的索引项只会读到无效的记录
+     * 索引只指向版本链的链头，链头的索引列与链上各版本相同
+     * 链上的版本可能共用溢出链，仍留在链上的版本用到的溢出链不释放
+     * 释放的记录已不再被索引和版本链指向，最后交给 recycle，等其他事务不再持有它们的 uid 后复用槽号
+     */
+    public int vacuum() throws Exception {
+        List<Long> uids = parseWhere(null);
+        List<Long> freed = new ArrayList<>();
+        int count = 0;
+        for (int i = 0; i < uids.size(); i++) {
+            prefetch(uids, i);
+            long uid = uids.get(i);
+            VacuumRes res = ((TableManagerImpl)tbm).vm.vacuum(uid);
+            if(res.root != null) {
+                Map<String, Object> entry = parseEntry(res.root);
+                for (Field field : fields) {
+                    if(field.isIndexed()) {
+                        field.remove(fetch(entry.get(field.fieldName)), uid);
+                    }
+                }
+            }
+            Set<Long> shared = new HashSet<>();
+            for (byte[] raw : res.kept) {
+                shared.addAll(overflowUids(parseEntry(raw)));
+            }
+            //保留的链头不会再被读取，溢出值可以释放，已释放过的溢出链再次释放时直接返回
+            //链头仍引用着这些溢出链，之后每次 vacuum 都会再释放一次，槽号不能回收
+            Set<Long> stubbed = res.stub == null ? new HashSet<>() : overflowUids(parseEntry(res.stub));
+            for (byte[] raw : res.freed) {
+                freeOverflows(parseEntry(raw), shared, stubbed, freed);
+            }
+            if(res.stub != null) {
+                freeOverflows(parseEntry(res.stub), shared, stubbed, freed);
+            }
+            freed.addAll(res.uids);
+            count += res.freed.size();
+        }
+        ((TableManagerImpl)tbm).vm.recycle(freed);
+        return count;
+    }
+
+    /**
+     * 释放记录中的溢出链，shared 中的溢出链仍被其他版本使用，跳过
+     * 释放的各块记入 freed 以便回收槽号；referenced 中的溢出链之后还会被按 uid 再次释放，freed 为 null 时都是如此，不记
+     */
+    private void freeOverflows(Map<String, Object> entry, Set<Long> shared, Set<Long> referenced, List<Long> freed) throws Exception {
+        for (long uid : overflowUids(entry)) {
+            if(!shared.contains(uid)) {
+                List<Long> chunks = ((TableManagerImpl)tbm).vm.freeOverflow(uid);
+                if(freed != null && !referenced.contains(uid)) {
+                    freed.addAll(chunks);
+                }
+            }
+        }
+    }
+
+    private Set<Long> overflowUids(Map<String, Object> entry) {
+        Set<Long> uids = new HashSet<>();
+        for (Object v : entry.values()) {
+            if(v instanceof OverflowValue) {
+                uids.add(((OverflowValue) v).uid);
+            }
+        }
+        return uids;
+    }
+
+    // 只输出查询的字段，溢出值只在被查询时读出
     public String read(long xid, Select read) throws Exception {
+        List<Field> projected = project(read.fields);
         List<Long> uids = parseWhere(read.where);
         StringBuilder sb = new StringBuilder();
-        for (Long uid : uids) {
+        for (int i = 0; i < uids.size(); i++) {
+            prefetch(uids, i);
+            long uid = uids.get(i);
             byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uid);
             if(raw == null) continue;
             Map<String, Object> entry = parseEntry(raw);
-            sb.append(printEntry(entry)).append("\n");
+            for (Field field : projected) {
+                entry.put(field.fieldName, fetch(entry.get(field.fieldName)));
+            }
+            sb.append(printEntry(entry, projected)).append("\n");
         }
         return sb.toString();
     }
 
+    private List<Field> project(String[] names) throws Exception {
+        if(names == null || Arrays.asList(names).contains("*")) {
+            return fields;
+        }
+        List<Field> projected = new ArrayList<>();
+        for (String name : names) {
+            Field fd = null;
+            for (Field f : fields) {
+                if(f.fieldName.equals(name)) {
+                    fd = f;
+                    break;
+                }
+            }
+            if(fd == null) {
+                throw Error.FieldNotFoundException;
+            }
+            projected.add(fd);
+        }
+        return projected;
+    }
+
+    // 读出溢出链中的值，其他值原样返回
+    private Object fetch(Object v) throws Exception {
+        if(v instanceof OverflowValue) {
+            return new String(((TableManagerImpl)tbm).vm.readOverflow(((OverflowValue) v).uid));
+        }
+        return v;
+    }
+
+    private Map<String, Object> fetchAll(Map<String, Object> entry) throws Exception {
+        for (Map.Entry<String, Object> e : entry.entrySet()) {
+            e.setValue(fetch(e.getValue()));
+        }
+        return entry;
+    }
+
+    /**
+     * 处理第 i 条记录前，保证其后 READ_AHEAD 条记录所在的页面已经开始读取
+     * 第一条记录时一次发出整个窗口的预读，之后每条记录推进一条
+     */
+    private void prefetch(List<Long> uids, int i) {
+        DataManager dm = ((TableManagerImpl)tbm).dm;
+        int from = i == 0 ? 1 : i + READ_AHEAD;
+        int to = Math.min(uids.size() - 1, i + READ_AHEAD);
+        for (int j = from; j <= to; j++) {
+            dm.prefetch(uids.get(j));
+        }
+    }
+
+    // 多行插入时记录一次批量写入，按顺序填满页面
     public void insert(long xid, Insert insert) throws Exception {
-        Map<String, Object> entry = string2Entry(insert.values);
-        byte[] raw = entry2Raw(entry);
-        long uid = ((TableManagerImpl)tbm).vm.insert(xid, raw);
-        for (Field field : fields) {
-            if(field.isIndexed()) {
-                field.insert(entry.get(field.fieldName), uid);
+        List<Map<String, Object>> entries = new ArrayList<>(insert.values.length);
+        List<byte[]> raws = new ArrayList<>(insert.values.length);
+        for (String[] values : insert.values) {
+            Map<String, Object> entry = string2Entry(values);
+            entries.add(entry);
+            raws.add(entry2Raw(xid, entry));
+        }
+        List<Long> uids;
+        if(raws.size() == 1) {
+            uids = Collections.singletonList(((TableManagerImpl)tbm).vm.insert(xid, raws.get(0)));
+        } else {
+            uids = ((TableManagerImpl)tbm).vm.insertBatch(xid, raws);
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            for (Field field : fields) {
+                if(field.isIndexed()) {
+                    field.insert(entries.get(i).get(field.fieldName), uids.get(i));
+                }
             }
         }
     }
@@ -250,7 +414,7 @@ public class Table {
         return res;
     }
 
-    private String printEntry(Map<String, Object> entry) {
+    private String printEntry(Map<String, Object> entry, List<Field> fields) {
         StringBuilder sb = new StringBuilder("[");
         for (int i = 0; i < fields.size(); i++) {
             Field field = fields.get(i);
@@ -275,12 +439,40 @@ public class Table {
         return entry;
     }
 
-    private byte[] entry2Raw(Map<String, Object> entry) {
-        byte[] raw = new byte[0];
-        for (Field field : fields) {
-            raw = Bytes.concat(raw, field.value2Raw(entry.get(field.fieldName)));
+    /**
+     * 记录超过页面的 1/4 时，从最长的字符串开始移入溢出链，直到记录不超过这个大小，
+     * 使一页至少能放下几条记录
+     */
+    private byte[] entry2Raw(long xid, Map<String, Object> entry) throws Exception {
+        byte[][] raws = new byte[fields.size()][];
+        boolean[] moved = new boolean[fields.size()];
+        int size = 0;
+        for (int i = 0; i < fields.size(); i++) {
+            raws[i] = fields.get(i).value2Raw(entry.get(fields.get(i).fieldName));
+            size += raws[i].length;
+        }
+        int threshold = ((TableManagerImpl)tbm).dm.getPageSize() / 4;
+        while(size > threshold) {
+            int max = -1;
+            for (int i = 0; i < fields.size(); i++) {
+                if(fields.get(i).isString() && !moved[i] && raws[i].length > Field.OVERFLOW_RAW_SIZE
+                        && (max < 0 || raws[i].length > raws[max].length)) {
+                    max = i;
+                }
+            }
+            if(max < 0) {
+                break;
+            }
+            byte[] value = ((String) entry.get(fields.get(max).fieldName)).getBytes();
+            OverflowValue ov = new OverflowValue();
+            ov.length = value.length;
+            ov.uid = ((TableManagerImpl)tbm).vm.insertOverflow(xid, value);
+            byte[] raw = fields.get(max).overflow2Raw(ov);
+            size += raw.length - raws[max].length;
+            raws[max] = raw;
+            moved[max] = true;
         }
-        return raw;
+        return Bytes.concat(raws);
     }
 
     @Override
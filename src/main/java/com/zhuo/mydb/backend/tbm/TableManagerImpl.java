@@ -150,4 +150,15 @@ public class TableManagerImpl implements TableManager {
         int count = table.delete(xid, delete);
         return ("delete " + count).getBytes();
     }
-}
\ No newline at end of file
+    @Override
+    public byte[] vacuum(long xid, Vacuum vacuum) throws Exception {
+        lock.lock();
+        Table table = tableCache.get(vacuum.tableName);
+        lock.unlock();
+        if(table == null) {
+            throw Error.TableNotFoundException;
+        }
+        int count = table.vacuum();
+        return ("vacuum " + count).getBytes();
+    }
+}
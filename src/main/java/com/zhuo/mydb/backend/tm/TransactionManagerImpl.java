@@ -59,8 +59,7 @@ public class TransactionManagerImpl implements TransactionManager{
 
         ByteBuffer buf = ByteBuffer.allocate(LEN_XID_HEADER_LENGTH);
         try {
-            fc.position(0);
-            fc.read(buf);
+            fc.read(buf, 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
@@ -83,8 +82,7 @@ public class TransactionManagerImpl implements TransactionManager{
         tmp[0] = status;
         ByteBuffer buf = ByteBuffer.wrap(tmp);
         try {
-            fc.position(offset);
-            fc.write(buf);
+            fc.write(buf, offset);
         } catch (IOException e) {
             Panic.panic(e);
         }
@@ -100,8 +98,7 @@ public class TransactionManagerImpl implements TransactionManager{
         xidCounter ++;
         ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(xidCounter));
         try {
-            fc.position(0);
-            fc.write(buf);
+            fc.write(buf, 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
@@ -135,13 +132,12 @@ public class TransactionManagerImpl implements TransactionManager{
         updateXID(xid ,FIELD_TRAN_ABORTED);
     }
 
-    // 检测XID事务是否处于status状态
+    // 检测XID事务是否处于status状态，按位置读取，不改变通道的 position，可与提交并发
     private boolean checkXID(long xid, byte status) {
         long offset = getXidPosition(xid);
         ByteBuffer buf = ByteBuffer.wrap(new byte[XID_FIELD_SIZE]);
         try {
-            fc.position(offset);
-            fc.read(buf);
+            fc.read(buf, offset);
         } catch (IOException e) {
             Panic.panic(e);
         }
@@ -1,9 +1,10 @@
 package com.zhuo.mydb.backend.utils;
 
 public class Types {
-    public static long addressToUid(int pgno, short offset) {
+    // slot 是页内的槽号，见 PageX
+    public static long addressToUid(int pgno, int slot) {
         long u0 = pgno;
-        long u1 = offset;
+        long u1 = slot & 0xFFFF;
         return u0 << 32 | u1;
     }
 
@@ -3,6 +3,7 @@ package com.zhuo.mydb.backend.vm;
 import com.google.common.primitives.Bytes;
 import com.zhuo.mydb.backend.common.SubArray;
 import com.zhuo.mydb.backend.dm.dataItem.DataItem;
+import com.zhuo.mydb.backend.tm.TransactionManagerImpl;
 import com.zhuo.mydb.backend.utils.Parser;
 
 import java.util.Arrays;
@@ -10,13 +11,15 @@ import java.util.Arrays;
 /**
  * VM向上层抽象出entry
  * entry结构：
- * [XMIN] [XMAX] [data]
+ * [XMIN] [XMAX] [NEXT] [data]
+ * NEXT 是原地更新（不改索引列）时产生的下一个版本的 uid，索引只指向链头，读取时沿链找到可见的版本
  */
 public class Entry {
 
     private static final int OF_XMIN = 0;
     private static final int OF_XMAX = OF_XMIN+8;
-    private static final int OF_DATA = OF_XMAX+8;
+    private static final int OF_NEXT = OF_XMAX+8;
+    private static final int OF_DATA = OF_NEXT+8;
 
     private long uid;
     private DataItem dataItem;
@@ -41,7 +44,8 @@ public class Entry {
     public static byte[] wrapEntryRaw(long xid, byte[] data) {
         byte[] xmin = Parser.long2Byte(xid);
         byte[] xmax = new byte[8];
-        return Bytes.concat(xmin, xmax, data);
+        byte[] next = new byte[8];
+        return Bytes.concat(xmin, xmax, next, data);
     }
 
     public void release() {
@@ -79,7 +83,7 @@ public class Entry {
         dataItem.rLock();
         try {
             SubArray sa = dataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start+OF_XMAX, sa.start+OF_DATA));
+            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start+OF_XMAX, sa.start+OF_NEXT));
         } finally {
             dataItem.rUnLock();
         }
@@ -95,6 +99,47 @@ public class Entry {
         }
     }
 
+    public long getNext() {
+        dataItem.rLock();
+        try {
+            SubArray sa = dataItem.data();
+            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start+OF_NEXT, sa.start+OF_DATA));
+        } finally {
+            dataItem.rUnLock();
+        }
+    }
+
+    // 删除该版本并指向新版本，两者在同一条日志中
+    public void setXmax(long xid, long next) {
+        dataItem.before();
+        try {
+            SubArray sa = dataItem.data();
+            System.arraycopy(Parser.long2Byte(xid), 0, sa.raw, sa.start+OF_XMAX, 8);
+            System.arraycopy(Parser.long2Byte(next), 0, sa.raw, sa.start+OF_NEXT, 8);
+        } finally {
+            dataItem.after(xid);
+        }
+    }
+
+    /**
+     * 清理时跳过链中被回收的版本，仅当 NEXT 仍为 expect 时修改，返回是否修改
+     * 与 setXmax(xid, next) 持有同一把 DataItem 写锁，不会覆盖并发更新刚挂上的新版本
+     */
+    public boolean setNext(long expect, long next) {
+        dataItem.before();
+        SubArray sa = dataItem.data();
+        if(Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start+OF_NEXT, sa.start+OF_DATA)) != expect) {
+            dataItem.unBefore();
+            return false;
+        }
+        try {
+            System.arraycopy(Parser.long2Byte(next), 0, sa.raw, sa.start+OF_NEXT, 8);
+        } finally {
+            dataItem.after(TransactionManagerImpl.SUPER_XID);
+        }
+        return true;
+    }
+
     public long getUid() {
         return uid;
     }
@@ -4,9 +4,13 @@ package com.zhuo.mydb.backend.vm;
  * @author : wzq
  **/
 
+import com.zhuo.mydb.backend.common.collection.LongIntMap;
+import com.zhuo.mydb.backend.common.collection.LongList;
+import com.zhuo.mydb.backend.common.collection.LongLongMap;
+import com.zhuo.mydb.backend.common.collection.LongObjectMap;
 import com.zhuo.mydb.common.Error;
 
-import java.util.*;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -14,31 +18,32 @@ import java.util.concurrent.locks.ReentrantLock;
  * 维护了一个依赖等待图，以进行死锁检测
  */
 public class LockTable {
-    private Map<Long, List<Long>> x2u;  // 某个XID已经获得的资源的UID列表
-    private Map<Long, Long> u2x;        // UID被某个XID持有
-    private Map<Long, List<Long>> wait; // 正在等待UID的XID列表
-    private Map<Long, Lock> waitLock;   // 正在等待资源的XID的锁
-    private Map<Long, Long> waitU;      // XID正在等待的UID
+    private LongObjectMap<LongList> x2u;    // 某个XID已经获得的资源的UID列表
+    private LongLongMap u2x;                // UID被某个XID持有
+    private LongObjectMap<LongList> wait;   // 正在等待UID的XID列表
+    private LongObjectMap<CountDownLatch> waitLock;   // 正在等待资源的XID的门闩，资源转给它时由放锁的线程打开
+    private LongLongMap waitU;              // XID正在等待的UID
     private Lock lock;
 
 
     public LockTable() {
-        x2u = new HashMap<>();
-        u2x = new HashMap<>();
-        wait = new HashMap<>();
-        waitLock = new HashMap<>();
-        waitU = new HashMap<>();
+        x2u = new LongObjectMap<>();
+        u2x = new LongLongMap();
+        wait = new LongObjectMap<>();
+        waitLock = new LongObjectMap<>();
+        waitU = new LongLongMap();
+        xidStamp = new LongIntMap();
         lock = new ReentrantLock();
     }
 
     /**
-     * 添加 xid 和 uid 之间 锁，能立刻添加就直接返回null ，不能就返回等待的锁
+     * 添加 xid 和 uid 之间 锁，能立刻添加就直接返回null ，不能就返回等待的门闩，await 返回时已持有该资源
      * @param xid
      * @param uid
      * @return
      * @throws Exception
      */
-    public Lock add(long xid, long uid) throws Exception{
+    public CountDownLatch add(long xid, long uid) throws Exception{
         lock.lock();
         try {
             //如果当前事务已经拥有该资源的时
@@ -62,8 +67,8 @@ public class LockTable {
                 removeFromList(wait, uid, xid);
                 throw Error.DeadlockException;
             }
-            //将等待锁添加到相应的Map中
-            Lock l = new ReentrantLock();
+            //将等待的门闩添加到相应的Map中
+            CountDownLatch l = new CountDownLatch(1);
             waitLock.put(xid, l);
             return l;
         }finally {
@@ -74,10 +79,10 @@ public class LockTable {
     public void remove(long xid){
         lock.lock();
         try {
-            List<Long> l = x2u.get(xid);
+            LongList l = x2u.get(xid);
             if(l != null){
                 while (!l.isEmpty()){
-                    Long uid = l.remove(0);
+                    long uid = l.removeAt(0);
                     selectNewXID(uid);
                 }
             }
@@ -92,19 +97,20 @@ public class LockTable {
     // 从等待队列中选择一个xid来占用uid
     private void selectNewXID(long uid) {
         u2x.remove(uid);
-        List<Long> l = wait.get(uid);
+        LongList l = wait.get(uid);
         if(l == null) return;
         assert !l.isEmpty();
 
         while(!l.isEmpty()) {
-            long xid = l.remove(0);
+            long xid = l.removeAt(0);
             if(!waitLock.containsKey(xid)) {
                 continue;
             } else {
                 u2x.put(uid, xid);
-                Lock lo = waitLock.remove(xid);
+                putIntoList(x2u, xid, uid);
+                CountDownLatch lo = waitLock.remove(xid);
                 waitU.remove(xid);
-                lo.unlock();
+                lo.countDown();
                 break;
             }
         }
@@ -112,15 +118,15 @@ public class LockTable {
         if(l.isEmpty()) wait.remove(uid);
     }
 
-    private Map<Long, Integer> xidStamp;
+    private LongIntMap xidStamp;
     private int stamp;
 
     private boolean hasDeadLock() {
-        xidStamp = new HashMap<>();
+        xidStamp.clear();
         stamp = 1;
-        for(long xid : x2u.keySet()) {
-            Integer s = xidStamp.get(xid);
-            if(s != null && s > 0) {
+        for(int i = x2u.first(); i >= 0; i = x2u.next(i)) {
+            long xid = x2u.keyAt(i);
+            if(xidStamp.get(xid, 0) > 0) {
                 continue;
             }
             stamp ++;
@@ -132,51 +138,42 @@ public class LockTable {
     }
 
     private boolean dfs(long xid) {
-        Integer stp = xidStamp.get(xid);
-        if(stp != null && stp == stamp) {
-            return true;
-        }
-        if(stp != null && stp < stamp) {
-            return false;
+        if(xidStamp.containsKey(xid)) {
+            int stp = xidStamp.get(xid, 0);
+            if(stp == stamp) {
+                return true;
+            }
+            if(stp < stamp) {
+                return false;
+            }
         }
         xidStamp.put(xid, stamp);
 
-        Long uid = waitU.get(xid);
-        if(uid == null) return false;
-        Long x = u2x.get(uid);
-        assert x != null;
-        return dfs(x);
+        if(!waitU.containsKey(xid)) return false;
+        long uid = waitU.get(xid, 0);
+        assert u2x.containsKey(uid);
+        return dfs(u2x.get(uid, 0));
     }
 
-    private void putIntoList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
-        if (!listMap.containsKey(uid0)) {
-            listMap.put(uid0, new ArrayList<>());
+    private void putIntoList(LongObjectMap<LongList> listMap, long uid0, long uid1) {
+        LongList l = listMap.get(uid0);
+        if (l == null) {
+            l = new LongList();
+            listMap.put(uid0, l);
         }
-        listMap.get(uid0).add(0, uid1);
+        l.add(0, uid1);
     }
 
-    private boolean isInList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
-        List<Long> l = listMap.get(uid0);
+    private boolean isInList(LongObjectMap<LongList> listMap, long uid0, long uid1) {
+        LongList l = listMap.get(uid0);
         if (l == null) return false;
-        for (long e : l) {
-            if (e == uid1) {
-                return true;
-            }
-        }
-        return false;
+        return l.contains(uid1);
     }
 
-    private void removeFromList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
-        List<Long> l = listMap.get(uid0);
+    private void removeFromList(LongObjectMap<LongList> listMap, long uid0, long uid1) {
+        LongList l = listMap.get(uid0);
         if(l == null) return;
-        Iterator<Long> i = l.iterator();
-        while(i.hasNext()) {
-            long e = i.next();
-            if(e == uid1) {
-                i.remove();
-                break;
-            }
-        }
+        l.remove(uid1);
         if(l.isEmpty()) {
             listMap.remove(uid0);
         }
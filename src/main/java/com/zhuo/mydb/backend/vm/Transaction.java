@@ -1,10 +1,10 @@
 package com.zhuo.mydb.backend.vm;
 
+import com.zhuo.mydb.backend.common.collection.LongList;
+import com.zhuo.mydb.backend.common.collection.LongObjectMap;
+import com.zhuo.mydb.backend.common.collection.LongSet;
 import com.zhuo.mydb.backend.tm.TransactionManagerImpl;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * vm对一个事务的抽象
  * @author : wzq
@@ -15,22 +15,23 @@ public class Transaction {
     //事务的等级
     public int level;
     //快照
-    public Map<Long, Boolean> snapshot;
+    public LongSet snapshot;
     //错误
     public Exception err;
 
     public boolean autoAborted;
+    //本事务插入的记录，中止时释放
+    public LongList inserted = new LongList();
+    //本事务插入的溢出链，中止时释放
+    public LongList overflows = new LongList();
 
-    public static Transaction newTransaction(long xid, int level, Map<Long, Transaction> active) {
+    public static Transaction newTransaction(long xid, int level, LongObjectMap<Transaction> active) {
         Transaction t = new Transaction();
         t.xid = xid;
         t.level = level;
         //读已提交的时候不需要快照读，可重复读才需要
         if(level != 0) {
-            t.snapshot = new HashMap<>();
-            for(Long x : active.keySet()) {
-                t.snapshot.put(x, true);
-            }
+            t.snapshot = active.keySet();
         }
         return t;
     }
@@ -40,6 +41,6 @@ public class Transaction {
             return false;
         }
         //判断事务xid是否在快照的活跃事务中
-        return snapshot.containsKey(xid);
+        return snapshot.contains(xid);
     }
 }
@@ -0,0 +1,20 @@
+package com.zhuo.mydb.backend.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 清理一条版本链的结果
+ */
+public class VacuumRes {
+    // 整条链都被回收时为链上最后一个版本的内容（索引列与链头相同），调用者据此删除索引项，否则为 null
+    public byte[] root;
+    // 被回收的各个版本的内容，调用者据此释放它们的溢出值
+    public List<byte[]> freed = new ArrayList<>();
+    // 链头已不可见但链上还有可见的版本时，链头因被索引指向而保留，为其内容，调用者释放它的溢出值，否则为 null
+    public byte[] stub;
+    // 仍留在链上的其他版本的内容，同一条链上的版本可能共用溢出链，它们用到的溢出链不能释放
+    public List<byte[]> kept = new ArrayList<>();
+    // 被回收的各个版本的 uid，调用者删除索引项后交给 VersionManager.recycle
+    public List<Long> uids = new ArrayList<>();
+}
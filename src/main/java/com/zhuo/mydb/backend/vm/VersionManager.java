@@ -1,19 +1,34 @@
 package com.zhuo.mydb.backend.vm;
 
+import com.zhuo.mydb.backend.common.DBOptions;
 import com.zhuo.mydb.backend.dm.DataManager;
 import com.zhuo.mydb.backend.tm.TransactionManager;
 
+import java.util.List;
+
 public interface VersionManager {
     byte[] read(long xid, long uid) throws Exception;
     long insert(long xid, byte[] data) throws Exception;
+    List<Long> insertBatch(long xid, List<byte[]> datas) throws Exception;
     boolean delete(long xid, long uid) throws Exception;
+    // 不改变索引列的更新，新版本接在 uid 的版本链上，索引不变
+    boolean update(long xid, long uid, byte[] data) throws Exception;
+    // 释放 uid 的版本链中已对所有事务不可见的版本
+    VacuumRes vacuum(long uid) throws Exception;
+    // 溢出链存放记录中过大的值，不带版本，随引用它的版本一起可见，由上层在版本被回收时释放
+    long insertOverflow(long xid, byte[] data) throws Exception;
+    byte[] readOverflow(long uid) throws Exception;
+    // 释放整条溢出链，返回各块的 uid
+    List<Long> freeOverflow(long uid) throws Exception;
+    // 清理释放的记录已不再被索引和版本链指向，等此刻的活跃事务都结束后回收它们的槽号
+    void recycle(List<Long> uids) throws Exception;
 
     long begin(int level);
     void commit(long xid) throws Exception;
     void abort(long xid);
 
-    public static VersionManager newVersionManager(TransactionManager tm, DataManager dm) {
-        return new VersionManagerImpl(tm, dm);
+    public static VersionManager newVersionManager(TransactionManager tm, DataManager dm, DBOptions opts) {
+        return new VersionManagerImpl(tm, dm, opts);
     }
 
 }
\ No newline at end of file
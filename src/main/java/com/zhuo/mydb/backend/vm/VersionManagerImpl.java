@@ -1,14 +1,21 @@
 package com.zhuo.mydb.backend.vm;
 
 import com.zhuo.mydb.backend.common.AbstractCache;
+import com.zhuo.mydb.backend.common.DBOptions;
+import com.zhuo.mydb.backend.common.collection.LongList;
+import com.zhuo.mydb.backend.common.collection.LongObjectMap;
 import com.zhuo.mydb.backend.dm.DataManager;
+import com.zhuo.mydb.backend.dm.DataManagerImpl;
 import com.zhuo.mydb.backend.tm.TransactionManager;
 import com.zhuo.mydb.backend.tm.TransactionManagerImpl;
 import com.zhuo.mydb.backend.utils.Panic;
 import com.zhuo.mydb.common.Error;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -16,17 +23,36 @@ import java.util.concurrent.locks.ReentrantLock;
  * @author : wzq
  **/
 public class VersionManagerImpl extends AbstractCache<Entry> implements VersionManager{
+    // Entry 对象本身的开销，其 DataItem 由 DM 的缓存计入
+    private static final int ENTRY_OVERHEAD = 32;
+
     TransactionManager tm;
     DataManager dm;
-    Map<Long, Transaction> activeTransaction;
+    LongObjectMap<Transaction> activeTransaction;
     Lock lock;
     LockTable lt;
+    // 等待回收槽号的已释放记录，按 stamp 从小到大排列；lastXid 为开始过的最大事务号，均由 lock 保护
+    private Deque<RecycleBatch> recycling = new ArrayDeque<>();
+    private long lastXid;
+
+    private static class RecycleBatch {
+        // 交来时尚未开始的最小事务号，清理界限不小于它时，交来时的活跃事务都已结束
+        final long stamp;
+        final LongList uids;
+
+        RecycleBatch(long stamp, LongList uids) {
+            this.stamp = stamp;
+            this.uids = uids;
+        }
+    }
 
-    public VersionManagerImpl(TransactionManager tm, DataManager dm) {
-        super(0);
+    public VersionManagerImpl(TransactionManager tm, DataManager dm, DBOptions opts) {
+        super(opts.entryCacheMem(), opts.cacheShards, true);
         this.tm = tm;
+        //空闲的 Entry 仍引用着 DataItem，DM 的缓存满时先驱逐它们
+        ((DataManagerImpl) dm).setUpperCache(this);
         this.dm = dm;
-        this.activeTransaction = new HashMap<>();
+        this.activeTransaction = new LongObjectMap<>();
         activeTransaction.put(TransactionManagerImpl.SUPER_XID, Transaction.newTransaction(TransactionManagerImpl.SUPER_XID, 0, null));
         this.lock = new ReentrantLock();
         this.lt = new LockTable();
@@ -41,6 +67,11 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         return entry;
     }
 
+    @Override
+    protected int weigh(Entry entry) {
+        return ENTRY_OVERHEAD;
+    }
+
     @Override
     protected void releaseForCache(Entry entry) {
         entry.remove();
@@ -62,10 +93,23 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             throw t.err;
         }
 
-        Entry entry = null;
+        //沿版本链找到对当前事务可见的版本
+        Entry entry = visibleEntry(t, uid);
+        if(entry == null) {
+            return null;
+        }
+        try {
+            return entry.data();
+        }finally {
+            entry.release();
+        }
+    }
+
+    // 记录已被释放时返回 null
+    private Entry getEntry(long uid) throws Exception {
         try {
             //通过 唯一标识 获取 Cache 中的数据
-            entry = super.get(uid);
+            return super.get(uid);
         }catch (Exception e){
             if(e == Error.NullEntryException){
                 return null;
@@ -73,15 +117,42 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
                 throw e;
             }
         }
-        //结合隔离级别判断该数据是否可见
+    }
+
+    /**
+     * 从 uid 开始沿版本链找到对 t 可见的版本，没有时返回 null，返回的 Entry 需要 release
+     * 链上的版本按更新顺序排列，结合隔离级别判断，至多有一个对 t 可见
+     * 后继版本已被释放时重新读取前一版本的 NEXT：清理先改链再释放，NEXT 已变说明后继刚被摘掉，沿新的 NEXT 继续；
+     * NEXT 未变说明后继没有保留下来（如其插入事务已中止），链到此为止
+     */
+    private Entry visibleEntry(Transaction t, long uid) throws Exception {
+        Entry entry = getEntry(uid);
         try {
-            if(Visibility.isVisible(tm, t, entry)){
-                return entry.data();
-            }else {
-                return null;
+            while(entry != null) {
+                if(Visibility.isVisible(tm, t, entry)) {
+                    Entry visible = entry;
+                    entry = null;
+                    return visible;
+                }
+                Entry succ = null;
+                while(succ == null) {
+                    long next = entry.getNext();
+                    if(next == 0) {
+                        return null;
+                    }
+                    succ = getEntry(next);
+                    if(succ == null && entry.getNext() == next) {
+                        return null;
+                    }
+                }
+                entry.release();
+                entry = succ;
+            }
+            return null;
+        } finally {
+            if(entry != null) {
+                entry.release();
             }
-        }finally {
-            entry.release();
         }
     }
 
@@ -97,11 +168,15 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         //构造一条记录
         byte[] raw = Entry.wrapEntryRaw(xid, data);
         //将记录进行插入
-        return dm.insert(xid, raw);
+        long uid = dm.insert(xid, raw);
+        if(xid != TransactionManagerImpl.SUPER_XID) {
+            t.inserted.add(uid);
+        }
+        return uid;
     }
 
     @Override
-    public boolean delete(long xid, long uid) throws Exception {
+    public List<Long> insertBatch(long xid, List<byte[]> datas) throws Exception {
         lock.lock();
         Transaction t = activeTransaction.get(xid);
         lock.unlock();
@@ -109,51 +184,289 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         if(t.err != null) {
             throw t.err;
         }
-        //获取记录
-        Entry entry = null;
+        List<byte[]> raws = new ArrayList<>(datas.size());
+        for (byte[] data : datas) {
+            raws.add(Entry.wrapEntryRaw(xid, data));
+        }
+        List<Long> uids = dm.insertBatch(xid, raws);
+        if(xid != TransactionManagerImpl.SUPER_XID) {
+            for (long uid : uids) {
+                t.inserted.add(uid);
+            }
+        }
+        return uids;
+    }
+
+    @Override
+    public long insertOverflow(long xid, byte[] data) throws Exception {
+        lock.lock();
+        Transaction t = activeTransaction.get(xid);
+        lock.unlock();
+
+        if(t.err != null) {
+            throw t.err;
+        }
+        long uid = dm.insertOverflow(xid, data);
+        if(xid != TransactionManagerImpl.SUPER_XID) {
+            t.overflows.add(uid);
+        }
+        return uid;
+    }
+
+    @Override
+    public byte[] readOverflow(long uid) throws Exception {
+        return dm.readOverflow(uid);
+    }
+
+    @Override
+    public List<Long> freeOverflow(long uid) throws Exception {
+        return dm.freeOverflow(TransactionManagerImpl.SUPER_XID, uid);
+    }
+
+    /**
+     * 此刻的活跃事务可能在清理前从索引或版本链上取得了这些 uid，槽号被复用后会读到别的记录
+     * 因此按此刻最大的事务号分批，清理界限越过这一批后（这些事务都已结束）才交给 DM 回收槽号
+     * 仍被缓存引用而回收不了的 uid 留到下一批；未回收的批次只在内存中，关闭后其槽号不再回收
+     */
+    @Override
+    public void recycle(List<Long> uids) throws Exception {
+        LongList ready = new LongList();
+        lock.lock();
         try {
-            entry = super.get(uid);
-        }catch (Exception e){
-            if(e == Error.NullEntryException){
-                return false;
-            }else {
-                throw e;
+            if(!uids.isEmpty()) {
+                LongList batch = new LongList(uids.size());
+                for (long uid : uids) {
+                    batch.add(uid);
+                }
+                recycling.add(new RecycleBatch(lastXid + 1, batch));
+            }
+            long horizon = vacuumHorizon();
+            while (!recycling.isEmpty() && recycling.peekFirst().stamp <= horizon) {
+                ready.addAll(recycling.pollFirst().uids);
+            }
+        } finally {
+            lock.unlock();
+        }
+        LongList busy = new LongList();
+        for (int i = 0; i < ready.size(); i++) {
+            if(!dm.recycle(ready.get(i))) {
+                busy.add(ready.get(i));
+            }
+        }
+        if(!busy.isEmpty()) {
+            lock.lock();
+            try {
+                recycling.add(new RecycleBatch(lastXid + 1, busy));
+            } finally {
+                lock.unlock();
             }
         }
+    }
+
+    @Override
+    public boolean delete(long xid, long uid) throws Exception {
+        lock.lock();
+        Transaction t = activeTransaction.get(xid);
+        lock.unlock();
+
+        if(t.err != null) {
+            throw t.err;
+        }
+        Entry entry = lockVisible(t, uid);
+        if(entry == null) {
+            return false;
+        }
+        try {
+            entry.setXmax(xid);
+            return true;
+        }finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * 不改变索引列的更新：新版本尽量放在旧版本所在的页面，旧版本指向新版本，索引不变
+     */
+    @Override
+    public boolean update(long xid, long uid, byte[] data) throws Exception {
+        lock.lock();
+        Transaction t = activeTransaction.get(xid);
+        lock.unlock();
+
+        if(t.err != null) {
+            throw t.err;
+        }
+        Entry entry = lockVisible(t, uid);
+        if(entry == null) {
+            return false;
+        }
         try {
+            long next = dm.insertNear(xid, entry.getUid(), Entry.wrapEntryRaw(xid, data));
+            if(xid != TransactionManagerImpl.SUPER_XID) {
+                t.inserted.add(next);
+            }
+            entry.setXmax(xid, next);
+            return true;
+        }finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * 找到对 t 可见的版本并加锁，没有可以修改的版本时返回 null，返回的 Entry 需要 release
+     * 等锁期间该版本被其他事务删除或更新并已提交时，读已提交从链上重新查找，可重复读按版本跳跃中止
+     */
+    private Entry lockVisible(Transaction t, long uid) throws Exception {
+        long xid = t.xid;
+        while(true) {
             //可见性分析
-            if(!Visibility.isVisible(tm, t, entry)){
-                return false;
+            Entry entry = visibleEntry(t, uid);
+            if(entry == null) {
+                return null;
             }
-            Lock l = null;
+            boolean locked = false;
             try {
-                l = lt.add(xid, uid);
-            }catch (Exception e){
-                t.err = Error.ConcurrentUpdateException;
-                internAbort(xid, true);
-                t.autoAborted = true;
-                throw t.err;
+                CountDownLatch l = null;
+                try {
+                    l = lt.add(xid, entry.getUid());
+                }catch (Exception e){
+                    t.err = Error.ConcurrentUpdateException;
+                    internAbort(xid, true);
+                    t.autoAborted = true;
+                    throw t.err;
+                }
+                //进行等待时，等到持有者提交或中止后资源转给本事务
+                if(l != null){
+                    l.await();
+                }
+                //如果该事务为删除该条记录（版本）的事务，则不能删除，防止重复删除，影响性能
+                if(entry.getXmax() == xid){
+                    return null;
+                }
+                //如果存在版本跳跃
+                if(Visibility.isVersionSkip(tm, t, entry)) {
+                    t.err = Error.ConcurrentUpdateException;
+                    internAbort(xid, true);
+                    t.autoAborted = true;
+                    throw t.err;
+                }
+                long xmax = entry.getXmax();
+                if(xmax != 0 && tm.isCommitted(xmax)) {
+                    continue;
+                }
+                locked = true;
+                return entry;
+            }finally {
+                if(!locked) {
+                    entry.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * 回收从 uid 开始的版本链中对所有事务都不可见的版本
+     * 整条链都已不可见时全部释放；否则只把链中间不可见的版本从链上摘掉后释放，链头仍被索引指向，保留
+     * 摘除时前一版本的 NEXT 已被并发的更新改掉则跳过，留给下一次清理
+     * 先改链再释放，正在沿链读取的事务遇到已释放的版本时重新读取前一版本的 NEXT
+     */
+    @Override
+    public VacuumRes vacuum(long uid) throws Exception {
+        long horizon = vacuumHorizon();
+        VacuumRes res = new VacuumRes();
+        List<Entry> chain = new ArrayList<>();
+        List<Long> freed = new ArrayList<>();
+        try {
+            for (long cur = uid; cur != 0; ) {
+                Entry entry = getEntry(cur);
+                if(entry == null) {
+                    break;
+                }
+                chain.add(entry);
+                cur = entry.getNext();
             }
-            //进行等待时
-            if(l != null){
-                l.lock();
-                l.unlock();
+            if(chain.isEmpty()) {
+                return res;
             }
-            //如果该事务为删除该条记录（版本）的事务，则不能删除，防止重复删除，影响性能
-            if(entry.getXmax() == xid){
-                return false;
+            boolean allDead = true;
+            for (Entry entry : chain) {
+                if(!isDead(entry, horizon)) {
+                    allDead = false;
+                    break;
+                }
             }
-            //如果存在版本跳跃
-            if(Visibility.isVersionSkip(tm, t, entry)) {
-                t.err = Error.ConcurrentUpdateException;
-                internAbort(xid, true);
-                t.autoAborted = true;
-                throw t.err;
+            if(allDead) {
+                res.root = chain.get(chain.size() - 1).data();
+            } else if(isDead(chain.get(0), horizon)) {
+                res.stub = chain.get(0).data();
             }
-            entry.setXmax(xid);
+            Entry prev = chain.get(0);
+            for (int i = 0; i < chain.size(); i++) {
+                Entry entry = chain.get(i);
+                if(allDead || (i > 0 && isDead(entry, horizon))) {
+                    if(!allDead && !prev.setNext(entry.getUid(), entry.getNext())) {
+                        res.kept.add(entry.data());
+                        continue;
+                    }
+                    res.freed.add(entry.data());
+                    freed.add(entry.getUid());
+                } else {
+                    if(i > 0 || res.stub == null) {
+                        res.kept.add(entry.data());
+                    }
+                    prev = entry;
+                }
+            }
+        } finally {
+            for (Entry entry : chain) {
+                entry.release();
+            }
+        }
+        for (long u : freed) {
+            dm.free(TransactionManagerImpl.SUPER_XID, u);
+        }
+        res.uids.addAll(freed);
+        return res;
+    }
+
+    /**
+     * 版本的插入事务已中止，或删除事务在清理界限之前提交，则任何活跃或之后开始的事务都看不到它
+     */
+    private boolean isDead(Entry entry, long horizon) {
+        if(tm.isAborted(entry.getXmin())) {
             return true;
-        }finally {
-            entry.release();
+        }
+        long xmax = entry.getXmax();
+        return xmax != 0 && xmax < horizon && tm.isCommitted(xmax);
+    }
+
+    /**
+     * 清理界限：最老的活跃事务，以及可重复读事务快照中仍视为活跃的事务
+     * 在此之前提交的删除对所有活跃事务都已生效
+     */
+    private long vacuumHorizon() {
+        lock.lock();
+        try {
+            long horizon = Long.MAX_VALUE;
+            for (int i = activeTransaction.first(); i >= 0; i = activeTransaction.next(i)) {
+                Transaction t = activeTransaction.valueAt(i);
+                if(t.xid == TransactionManagerImpl.SUPER_XID) {
+                    continue;
+                }
+                horizon = Math.min(horizon, t.xid);
+                if(t.snapshot == null) {
+                    continue;
+                }
+                for (int j = t.snapshot.first(); j >= 0; j = t.snapshot.next(j)) {
+                    long xid = t.snapshot.keyAt(j);
+                    if(xid != TransactionManagerImpl.SUPER_XID) {
+                        horizon = Math.min(horizon, xid);
+                    }
+                }
+            }
+            return horizon;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -169,6 +482,7 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             long xid = tm.begin();
             Transaction t = Transaction.newTransaction(xid, level, activeTransaction);
             activeTransaction.put(xid, t);
+            lastXid = Math.max(lastXid, xid);
             return xid;
         }finally {
             lock.unlock();
@@ -190,13 +504,16 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             System.out.println(activeTransaction.keySet());
             Panic.panic(n);
         }
+        //日志写入时不刷盘，提交前统一落盘，数据页面之后由页面缓存按需写回
+        dm.flushLog();
+        //先记为已提交再放锁：等锁的事务醒来时看到的修改已提交，会沿版本链重新查找，不会覆盖本事务挂上的新版本
+        tm.commit(xid);
         //解除事务占用的一切锁和相应的资源，移出活跃事务列表
         lock.lock();
         activeTransaction.remove(xid);
         lock.unlock();
 
         lt.remove(xid);
-        tm.commit(xid);
     }
 
 
@@ -219,6 +536,23 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         //还没有的话
         //取消相应的锁
         lt.remove(xid);
+        //中止事务插入的记录对任何事务都不可见，释放其空间
+        for (int i = 0; i < t.inserted.size(); i++) {
+            try {
+                dm.free(xid, t.inserted.get(i));
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+        }
+        t.inserted.clear();
+        for (int i = 0; i < t.overflows.size(); i++) {
+            try {
+                dm.freeOverflow(xid, t.overflows.get(i));
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+        }
+        t.overflows.clear();
         //标识该事务已经结束
         tm.abort(xid);
     }
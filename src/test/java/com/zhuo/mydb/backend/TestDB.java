@@ -0,0 +1,99 @@
+package com.zhuo.mydb.backend;
+
+import com.zhuo.mydb.backend.common.DBOptions;
+import com.zhuo.mydb.backend.dm.DataManager;
+import com.zhuo.mydb.backend.dm.DataManagerImpl;
+import com.zhuo.mydb.backend.dm.pageCache.PageCacheImpl;
+import com.zhuo.mydb.backend.server.Executor;
+import com.zhuo.mydb.backend.tbm.TableManager;
+import com.zhuo.mydb.backend.tm.TransactionManager;
+import com.zhuo.mydb.backend.vm.VersionManager;
+import com.zhuo.mydb.backend.vm.VersionManagerImpl;
+
+import java.io.File;
+import java.lang.reflect.Field;
+
+/**
+ * 测试用的数据库：创建、正常关闭后重新打开、模拟崩溃后重新打开
+ * 崩溃时停掉页面缓存的后台写线程，缓存中的脏页不再写出，磁盘上只剩已刷盘的日志和之前写出的页面
+ *
+ * @author : wzq
+ **/
+public class TestDB {
+    public final String path;
+    public final DBOptions opts;
+    public TransactionManager tm;
+    public DataManager dm;
+    public VersionManager vm;
+    public TableManager tbm;
+
+    private TestDB(String path, DBOptions opts) {
+        this.path = path;
+        this.opts = opts;
+    }
+
+    public static TestDB create(File dir, DBOptions opts) {
+        TestDB db = new TestDB(new File(dir, "t").getPath(), opts);
+        db.tm = TransactionManager.create(db.path);
+        db.dm = DataManager.create(db.path, opts, db.tm);
+        db.vm = new VersionManagerImpl(db.tm, db.dm, opts);
+        db.tbm = TableManager.create(db.path, db.vm, db.dm);
+        return db;
+    }
+
+    public static TestDB create(File dir) {
+        return create(dir, new DBOptions(16L << 20));
+    }
+
+    private void open() {
+        tm = TransactionManager.open(path);
+        dm = DataManager.open(path, opts, tm);
+        vm = new VersionManagerImpl(tm, dm, opts);
+        tbm = TableManager.open(path, vm, dm);
+    }
+
+    public void close() {
+        dm.close();
+        tm.close();
+    }
+
+    public void reopen() {
+        close();
+        open();
+    }
+
+    private PageCacheImpl pageCache() throws Exception {
+        Field pc = DataManagerImpl.class.getDeclaredField("pc");
+        pc.setAccessible(true);
+        return (PageCacheImpl) pc.get(dm);
+    }
+
+    // 页面文件的逻辑页数
+    public int pageNumber() throws Exception {
+        return pageCache().getPageNumber();
+    }
+
+    public void crash() throws Exception {
+        PageCacheImpl pc = pageCache();
+        Field closed = PageCacheImpl.class.getDeclaredField("closed");
+        closed.setAccessible(true);
+        closed.set(pc, true);
+        Field writer = PageCacheImpl.class.getDeclaredField("writer");
+        writer.setAccessible(true);
+        ((Thread) writer.get(pc)).join();
+        open();
+    }
+
+    public Executor session() {
+        return new Executor(tbm);
+    }
+
+    public static String exec(Executor session, String sql) throws Exception {
+        byte[] res = session.execute(sql.getBytes());
+        return res == null ? "" : new String(res).trim();
+    }
+
+    public String exec(String sql) throws Exception {
+        return exec(session(), sql);
+    }
+}
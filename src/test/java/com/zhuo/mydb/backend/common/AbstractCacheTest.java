@@ -0,0 +1,251 @@
+package com.zhuo.mydb.backend.common;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * 同一 key 的并发未命中只加载一次；加载失败的帧不缓存、不被引用，之后的 get 重新加载；
+ * 并发 get 时各段的权重之和不超过容量；2Q 策略下一次全表扫描不会挤出热点资源
+ *
+ * @author : wzq
+ **/
+public class AbstractCacheTest {
+    private static class TestCache extends AbstractCache<Long> {
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger evictions = new AtomicInteger();
+        final AtomicBoolean fail = new AtomicBoolean();
+        volatile CountDownLatch gate = new CountDownLatch(0);
+
+        TestCache(long maxResource) {
+            super(maxResource, 1);
+        }
+
+        TestCache(long maxResource, int segmentCount) {
+            super(maxResource, segmentCount);
+        }
+
+        TestCache(long maxResource, String policy) {
+            super(maxResource, 1, false, policy);
+        }
+
+        @Override
+        protected Long getForCache(long key) throws Exception {
+            loads.incrementAndGet();
+            gate.await();
+            if(fail.getAndSet(false)) {
+                throw new IllegalStateException("load failed");
+            }
+            return key;
+        }
+
+        @Override
+        protected void releaseForCache(Long obj) {
+            evictions.incrementAndGet();
+        }
+    }
+
+    // 启动 n 个线程同时 get(key)，返回成功取得资源的线程数
+    private static int getConcurrently(TestCache cache, long key, int n, CountDownLatch started) throws Exception {
+        AtomicInteger succeeded = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Thread t = new Thread(() -> {
+                started.countDown();
+                try {
+                    assertEquals(Long.valueOf(key), cache.get(key));
+                    succeeded.incrementAndGet();
+                } catch (Exception e) {
+                    //加载失败时调用者看到异常
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        started.await();
+        //让其他线程都进入等待
+        Thread.sleep(100);
+        cache.gate.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        return succeeded.get();
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        TestCache cache = new TestCache(0);
+        cache.gate = new CountDownLatch(1);
+        int n = getConcurrently(cache, 7, 8, new CountDownLatch(8));
+        assertEquals(8, n);
+        assertEquals(1, cache.loads.get());
+        assertEquals(8, cache.references(7));
+        for (int i = 0; i < 8; i++) {
+            cache.release(7);
+        }
+        //没有容量限制的缓存在引用归零时释放资源
+        assertEquals(1, cache.evictions.get());
+        assertFalse(cache.isCached(7));
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        TestCache cache = new TestCache(16);
+        cache.fail.set(true);
+        try {
+            cache.get(3);
+            fail("load failure not reported");
+        } catch (IllegalStateException e) {
+            assertEquals("load failed", e.getMessage());
+        }
+        assertFalse(cache.isCached(3));
+        assertEquals(Long.valueOf(3), cache.get(3));
+        assertEquals(1, cache.references(3));
+        cache.release(3);
+    }
+
+    @Test
+    public void testWaitersOfFailedLoadRetry() throws Exception {
+        TestCache cache = new TestCache(16);
+        cache.fail.set(true);
+        cache.gate = new CountDownLatch(1);
+        int n = getConcurrently(cache, 5, 6, new CountDownLatch(6));
+        //失败的帧不能被等待者引用，引用数与成功取得资源的线程数一致
+        assertEquals(n, cache.references(5));
+        assertTrue(n >= 5);
+        for (int i = 0; i < n; i++) {
+            cache.release(5);
+        }
+        assertEquals(0, cache.references(5));
+        assertEquals(Long.valueOf(5), cache.get(5));
+        cache.release(5);
+    }
+
+    @Test
+    public void testEvictsIdleWhenFull() throws Exception {
+        TestCache cache = new TestCache(2);
+        for (long key = 1; key <= 3; key++) {
+            cache.get(key);
+            cache.release(key);
+        }
+        assertEquals(1, cache.evictions.get());
+        List<Long> cached = new ArrayList<>();
+        for (long key = 1; key <= 3; key++) {
+            if(cache.isCached(key)) {
+                cached.add(key);
+            }
+        }
+        assertEquals(2, cached.size());
+
+        //所有资源都被引用时不能驱逐，容量满时报错
+        for (long key : cached) {
+            cache.get(key);
+        }
+        try {
+            cache.get(4);
+            fail("cache full not reported");
+        } catch (Exception e) {
+            assertSame(com.zhuo.mydb.common.Error.CacheFullException, e);
+        }
+        assertFalse(cache.isCached(4));
+        for (long key : cached) {
+            cache.release(key);
+        }
+        assertEquals(Long.valueOf(4), cache.get(4));
+        cache.release(4);
+    }
+
+    @Test
+    public void testWeightNeverExceedsCapacity() throws Exception {
+        //资源的权重为 1 ~ 4，加载时先按 1 登记，加载完成后按实际权重驱逐
+        TestCache cache = new TestCache(256, 4) {
+            @Override
+            protected int weigh(Long obj) {
+                return (int) (obj % 4) + 1;
+            }
+        };
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong maxWeight = new AtomicLong();
+        Thread sampler = new Thread(() -> {
+            while (!done.get()) {
+                long w = cache.weight();
+                if(w > maxWeight.get()) {
+                    maxWeight.set(w);
+                }
+            }
+        });
+        sampler.start();
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger errors = new AtomicInteger();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> {
+                Random r = new Random();
+                try {
+                    for (int j = 0; j < 20000; j++) {
+                        long key = r.nextInt(1000);
+                        assertEquals(Long.valueOf(key), cache.get(key));
+                        cache.release(key);
+                    }
+                } catch (Throwable e) {
+                    errors.incrementAndGet();
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        done.set(true);
+        sampler.join();
+        assertEquals(0, errors.get());
+        assertTrue(cache.evictions.get() > 0);
+        assertTrue(maxWeight.get() <= 256);
+        assertTrue(cache.weight() <= 256);
+    }
+
+    private static void touch(TestCache cache, long from, long to) throws Exception {
+        for (long key = from; key < to; key++) {
+            cache.get(key);
+            cache.release(key);
+        }
+    }
+
+    // 热点资源 [0, 20) 被再次访问后扫描一遍 [5000, 6000)，返回扫描后仍在缓存中的热点资源数
+    private static int hotAfterScan(TestCache cache) throws Exception {
+        touch(cache, 0, 20);
+        touch(cache, 1000, 1100);
+        //热点资源第一次被淘汰后很快又被访问
+        touch(cache, 0, 20);
+        touch(cache, 5000, 6000);
+        int cached = 0;
+        for (long key = 0; key < 20; key++) {
+            if(cache.isCached(key)) {
+                cached++;
+            }
+        }
+        return cached;
+    }
+
+    @Test
+    public void testTwoQueueKeepsHotThroughScan() throws Exception {
+        TestCache cache = new TestCache(100, ReplacementPolicy.TWO_QUEUE);
+        assertEquals(20, hotAfterScan(cache));
+        int loads = cache.loads.get();
+        touch(cache, 0, 20);
+        assertEquals(loads, cache.loads.get());
+
+        //CLOCK 下扫描冲掉了热点资源
+        cache = new TestCache(100, ReplacementPolicy.CLOCK);
+        assertEquals(0, hotAfterScan(cache));
+    }
+}
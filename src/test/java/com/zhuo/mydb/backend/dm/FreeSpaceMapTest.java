@@ -0,0 +1,147 @@
+package com.zhuo.mydb.backend.dm;
+
+import com.zhuo.mydb.backend.TestDB;
+import com.zhuo.mydb.backend.common.DBOptions;
+import com.zhuo.mydb.backend.dm.page.Page;
+import com.zhuo.mydb.backend.dm.page.PageFsm;
+import com.zhuo.mydb.backend.dm.page.PageX;
+import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * FSM 页中记录的空闲空间与数据页一致：正常关闭后直接读 FSM 页，崩溃后在后台重建
+ *
+ * @author : wzq
+ **/
+public class FreeSpaceMapTest {
+    private static final int RECORDS = 9000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestDB db;
+
+    @Before
+    public void setUp() throws Exception {
+        //4K 页面下 9000 条记录占两千多页，跨越多个 FSM 页
+        DBOptions opts = new DBOptions(16L << 20);
+        opts.pageSize = PageCache.MIN_PAGE_SIZE;
+        db = TestDB.create(folder.getRoot(), opts);
+        long xid = db.tm.begin();
+        List<Long> uids = new ArrayList<>();
+        for (int i = 0; i < RECORDS; i++) {
+            uids.add(db.dm.insert(xid, new byte[1000]));
+        }
+        for (int i = 0; i < uids.size(); i += 2) {
+            db.dm.free(xid, uids.get(i));
+        }
+        db.dm.flushLog();
+        db.tm.commit(xid);
+    }
+
+    private DataManagerImpl dm() {
+        return (DataManagerImpl) db.dm;
+    }
+
+    // FSM 页与数据页不一致的页数
+    private int mismatches() throws Exception {
+        PageCache pc = dm().pc;
+        int pageSize = pc.getPageSize();
+        int bad = 0;
+        for (int pgno = 2; pgno <= pc.getPageNumber(); pgno++) {
+            if(PageFsm.isFsmPage(pgno, pageSize)) {
+                continue;
+            }
+            Page pg = pc.getPage(pgno);
+            Page fsm = pc.getPage(PageFsm.fsmPgno(pgno, pageSize));
+            if(PageX.getFreeSpace(pg) != PageFsm.getFreeSpace(fsm, pgno)) {
+                bad++;
+            }
+            pg.release();
+            fsm.release();
+        }
+        return bad;
+    }
+
+    private void insert(int count) throws Exception {
+        long xid = db.tm.begin();
+        for (int i = 0; i < count; i++) {
+            db.dm.insert(xid, new byte[1000]);
+        }
+        db.dm.flushLog();
+        db.tm.commit(xid);
+    }
+
+    private void awaitRebuilt() throws Exception {
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (!dm().fsm.isValid()) {
+            assertTrue("FSM rebuild timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testLoadAfterCleanClose() throws Exception {
+        assertEquals(0, mismatches());
+        int pages = dm().pc.getPageNumber();
+        assertTrue(pages > PageFsm.entriesPerPage(PageCache.MIN_PAGE_SIZE));
+
+        db.reopen();
+        assertTrue(dm().fsm.isValid());
+        assertEquals(0, mismatches());
+        //释放出的空间在重新打开后仍能被找到，不会一直申请新页面
+        insert(RECORDS / 4);
+        assertTrue(dm().pc.getPageNumber() < pages + 10);
+        assertEquals(0, mismatches());
+        db.close();
+    }
+
+    @Test
+    public void testFreeOnHeldInsertPage() throws Exception {
+        //setUp 中释放的记录有一部分在本线程正在填充的页面上，换页时该页要按当前的空闲空间放回
+        insert(RECORDS / 4);
+        db.reopen();
+        assertEquals(0, mismatches());
+        db.close();
+    }
+
+    @Test
+    public void testPinnedPagesKeepFreeSpace() throws Exception {
+        //页面被其他人引用时插入整理不了它，FSM 仍要记录整理后的空间
+        PageCache pc = dm().pc;
+        List<Page> pinned = new ArrayList<>();
+        for (int pgno = 2; pgno <= 1000; pgno++) {
+            pinned.add(pc.getPage(pgno));
+        }
+        insert(RECORDS / 4);
+        for (Page pg : pinned) {
+            pg.release();
+        }
+        db.reopen();
+        assertEquals(0, mismatches());
+        db.close();
+    }
+
+    @Test
+    public void testRebuildAfterCrash() throws Exception {
+        insert(500);
+        db.crash();
+        awaitRebuilt();
+        assertEquals(0, mismatches());
+
+        insert(500);
+        //重建完成后正常关闭，下次打开直接读 FSM 页
+        db.reopen();
+        assertTrue(dm().fsm.isValid());
+        assertEquals(0, mismatches());
+        db.close();
+    }
+}
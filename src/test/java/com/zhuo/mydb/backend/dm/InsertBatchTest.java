@@ -0,0 +1,150 @@
+package com.zhuo.mydb.backend.dm;
+
+import com.zhuo.mydb.backend.TestDB;
+import com.zhuo.mydb.backend.common.SubArray;
+import com.zhuo.mydb.backend.dm.dataItem.DataItem;
+import com.zhuo.mydb.backend.server.Executor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.zhuo.mydb.backend.TestDB.exec;
+import static org.junit.Assert.*;
+
+/**
+ * 批量插入按顺序填满页面，每页一条日志；崩溃后已提交的批量插入重做，活跃事务的不重做
+ *
+ * @author : wzq
+ **/
+public class InsertBatchTest {
+    private static final int RECORDS = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] record(int i) {
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte) i);
+        data[0] = (byte) (i >> 8);
+        return data;
+    }
+
+    private static List<byte[]> records(int from, int count) {
+        List<byte[]> datas = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            datas.add(record(i));
+        }
+        return datas;
+    }
+
+    private static byte[] read(DataManager dm, long uid) throws Exception {
+        DataItem di = dm.read(uid);
+        if(di == null) {
+            return null;
+        }
+        SubArray sa = di.data();
+        byte[] data = Arrays.copyOfRange(sa.raw, sa.start, sa.end);
+        di.release();
+        return data;
+    }
+
+    @Test
+    public void testBatchFillsPagesInOrder() throws Exception {
+        TestDB db = TestDB.create(folder.getRoot());
+        long xid = db.tm.begin();
+        List<Long> uids = db.dm.insertBatch(xid, records(0, RECORDS));
+        db.dm.flushLog();
+        db.tm.commit(xid);
+
+        assertEquals(RECORDS, uids.size());
+        for (int i = 1; i < uids.size(); i++) {
+            //同一页内槽号递增，换页时页号递增
+            assertTrue(uids.get(i) > uids.get(i - 1));
+        }
+        for (int i = 0; i < RECORDS; i++) {
+            assertArrayEquals(record(i), read(db.dm, uids.get(i)));
+        }
+        db.reopen();
+        for (int i = 0; i < RECORDS; i++) {
+            assertArrayEquals(record(i), read(db.dm, uids.get(i)));
+        }
+        db.close();
+    }
+
+    @Test
+    public void testOneLogPerPage() throws Exception {
+        File single = folder.newFolder("single"), batch = folder.newFolder("batch");
+        TestDB db = TestDB.create(single);
+        long xid = db.tm.begin();
+        for (byte[] data : records(0, RECORDS)) {
+            db.dm.insert(xid, data);
+        }
+        db.dm.flushLog();
+        db.tm.commit(xid);
+        db.close();
+
+        TestDB db2 = TestDB.create(batch);
+        xid = db2.tm.begin();
+        db2.dm.insertBatch(xid, records(0, RECORDS));
+        db2.dm.flushLog();
+        db2.tm.commit(xid);
+        db2.close();
+        //每条日志都有头部和校验，按页合并后日志更短
+        assertTrue(new File(db2.path + ".log").length() < new File(db.path + ".log").length());
+    }
+
+    @Test
+    public void testRecoverBatches() throws Exception {
+        TestDB db = TestDB.create(folder.getRoot());
+        long committed = db.tm.begin();
+        List<Long> kept = db.dm.insertBatch(committed, records(0, RECORDS));
+        db.dm.flushLog();
+        db.tm.commit(committed);
+
+        long active = db.tm.begin();
+        List<Long> lost = db.dm.insertBatch(active, records(RECORDS, 300));
+        long other = db.tm.begin();
+        db.dm.insert(other, record(9));
+        db.dm.flushLog();
+        db.tm.commit(other);
+
+        db.crash();
+        for (int i = 0; i < RECORDS; i++) {
+            assertArrayEquals(record(i), read(db.dm, kept.get(i)));
+        }
+        for (long uid : lost) {
+            assertNull(read(db.dm, uid));
+        }
+        //活跃事务的批量插入用过的槽号不会再分配出去
+        long xid = db.tm.begin();
+        Set<Long> reused = new HashSet<>(db.dm.insertBatch(xid, records(0, 300)));
+        db.dm.flushLog();
+        db.tm.commit(xid);
+        reused.retainAll(lost);
+        assertTrue(reused.isEmpty());
+        db.close();
+    }
+
+    @Test
+    public void testMultiRowInsertStatement() throws Exception {
+        TestDB db = TestDB.create(folder.getRoot());
+        Executor e = db.session();
+        exec(e, "create table t id int32, name string (index id)");
+        exec(e, "insert into t values 1 'a, b', 2 ',', 3 c");
+        exec(e, "begin");
+        exec(e, "insert into t values 4 d, 5 e");
+        exec(e, "abort");
+        assertEquals("[1, a, b]\n[2, ,]\n[3, c]", exec(e, "select * from t"));
+
+        db.crash();
+        assertEquals("[1, a, b]\n[2, ,]\n[3, c]", db.exec("select * from t"));
+        db.close();
+    }
+}
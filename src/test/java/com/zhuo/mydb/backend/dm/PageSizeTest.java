@@ -0,0 +1,102 @@
+package com.zhuo.mydb.backend.dm;
+
+import com.zhuo.mydb.backend.common.DBOptions;
+import com.zhuo.mydb.backend.common.SubArray;
+import com.zhuo.mydb.backend.dm.dataItem.DataItem;
+import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import com.zhuo.mydb.backend.tm.TransactionManager;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 页面大小在创建时选定，重新打开时以数据库头为准，与启动参数无关
+ *
+ * @author : wzq
+ **/
+@RunWith(Parameterized.class)
+public class PageSizeTest {
+    @Parameterized.Parameters(name = "pageSize={0}, compress={1}")
+    public static Collection<Object[]> params() {
+        List<Object[]> params = new ArrayList<>();
+        for (int pageSize : new int[]{PageCache.MIN_PAGE_SIZE, 1 << 14, PageCache.MAX_PAGE_SIZE}) {
+            params.add(new Object[]{pageSize, false});
+            params.add(new Object[]{pageSize, true});
+        }
+        return params;
+    }
+
+    @Parameterized.Parameter(0)
+    public int pageSize;
+
+    @Parameterized.Parameter(1)
+    public boolean compress;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] record(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static byte[] read(DataManager dm, long uid) throws Exception {
+        DataItem di = dm.read(uid);
+        SubArray sa = di.data();
+        byte[] data = Arrays.copyOfRange(sa.raw, sa.start, sa.end);
+        di.release();
+        return data;
+    }
+
+    @Test
+    public void testReopenWithRecordedPageSize() throws Exception {
+        String path = new File(folder.getRoot(), "t").getPath();
+        DBOptions opts = new DBOptions(16L << 20);
+        opts.pageSize = pageSize;
+        opts.compress = compress;
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, opts, tm);
+        assertEquals(pageSize, dm.getPageSize());
+
+        Random random = new Random(pageSize);
+        List<Long> uids = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        long xid = tm.begin();
+        for (int i = 0; i < 200; i++) {
+            //小记录与接近半页的记录交替，占满多个页面
+            byte[] data = record(random, i % 2 == 0 ? 20 : pageSize / 2 - 64);
+            uids.add(dm.insert(xid, data));
+            records.add(data);
+        }
+        byte[] overflow = record(random, pageSize * 3 + 7);
+        long overflowUid = dm.insertOverflow(xid, overflow);
+        dm.flushLog();
+        tm.commit(xid);
+        dm.close();
+        tm.close();
+
+        //打开时使用默认的页面大小与存储方式
+        DBOptions defaults = new DBOptions(16L << 20);
+        tm = TransactionManager.open(path);
+        dm = DataManager.open(path, defaults, tm);
+        assertEquals(pageSize, dm.getPageSize());
+        for (int i = 0; i < uids.size(); i++) {
+            assertArrayEquals(records.get(i), read(dm, uids.get(i)));
+        }
+        assertArrayEquals(overflow, dm.readOverflow(overflowUid));
+        dm.close();
+        tm.close();
+    }
+}
@@ -0,0 +1,224 @@
+package com.zhuo.mydb.backend.dm;
+
+import com.zhuo.mydb.backend.TestDB;
+import com.zhuo.mydb.backend.common.DBOptions;
+import com.zhuo.mydb.backend.common.SubArray;
+import com.zhuo.mydb.backend.dm.dataItem.DataItem;
+import com.zhuo.mydb.backend.dm.logger.Logger;
+import com.zhuo.mydb.backend.dm.page.Page;
+import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import com.zhuo.mydb.backend.server.Executor;
+import com.zhuo.mydb.backend.tm.TransactionManager;
+import com.zhuo.mydb.backend.vm.VersionManager;
+import com.zhuo.mydb.backend.vm.VersionManagerImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.zhuo.mydb.backend.TestDB.exec;
+import static org.junit.Assert.*;
+
+/**
+ * 崩溃恢复：已提交的修改重做，活跃事务的插入不重做但占住它的槽号；已写出的页面 LSN 不小于日志时跳过重做；
+ * 提交时日志先于事务状态落盘
+ *
+ * @author : wzq
+ **/
+public class RecoverTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] read(DataManager dm, long uid) throws Exception {
+        DataItem di = dm.read(uid);
+        if(di == null) {
+            return null;
+        }
+        SubArray sa = di.data();
+        byte[] data = Arrays.copyOfRange(sa.raw, sa.start, sa.end);
+        di.release();
+        return data;
+    }
+
+    @Test
+    public void testActiveInsertIsNotRedone() throws Exception {
+        TestDB db = TestDB.create(folder.getRoot());
+        long committed = db.tm.begin();
+        long uid1 = db.dm.insert(committed, new byte[]{1, 1, 1});
+        db.dm.flushLog();
+        db.tm.commit(committed);
+
+        long active = db.tm.begin();
+        long uid2 = db.dm.insert(active, new byte[]{2, 2, 2});
+        //另一个事务提交时把活跃事务的插入日志一起刷盘
+        long other = db.tm.begin();
+        long uid3 = db.dm.insert(other, new byte[]{3, 3, 3});
+        db.dm.flushLog();
+        db.tm.commit(other);
+
+        db.crash();
+        assertArrayEquals(new byte[]{1, 1, 1}, read(db.dm, uid1));
+        assertNull(read(db.dm, uid2));
+        assertArrayEquals(new byte[]{3, 3, 3}, read(db.dm, uid3));
+
+        //新的插入不会拿到活跃事务用过的 uid
+        long xid = db.tm.begin();
+        long uid4 = db.dm.insert(xid, new byte[]{4, 4, 4});
+        db.dm.flushLog();
+        db.tm.commit(xid);
+        assertNotEquals(uid2, uid4);
+        assertNull(read(db.dm, uid2));
+        db.close();
+    }
+
+    @Test
+    public void testActiveInsertOnLastSlot() throws Exception {
+        TestDB db = TestDB.create(folder.getRoot());
+        Executor e = db.session(), e2 = db.session();
+        exec(e, "create table t id int32, name string, v int32 (index id)");
+        exec(e, "insert into t values 4 n4 40");
+        //活跃事务的插入占了页面上的最后一个槽
+        exec(e2, "begin");
+        exec(e2, "insert into t values 6 n6 60");
+        //空事务的提交把日志刷盘
+        exec(e, "begin");
+        exec(e, "commit");
+
+        db.crash();
+        e = db.session();
+        //更新产生的新版本不能落到活跃事务的槽上，使 id = 6 的旧索引项指向它
+        exec(e, "update t set name = q where id = 4");
+        assertEquals("[4, q, 40]", exec(e, "select * from t"));
+        exec(e, "update t set v = 41 where id = 4");
+        exec(e, "insert into t values 8 n8 80");
+        assertEquals("[4, q, 41]\n[8, n8, 80]", exec(e, "select * from t"));
+        assertEquals("", exec(e, "select * from t where id = 6"));
+
+        db.reopen();
+        assertEquals("[4, q, 41]\n[8, n8, 80]", db.exec("select * from t"));
+        db.close();
+    }
+
+    private static boolean isDirty(DataManager dm, int pgno) throws Exception {
+        Page pg = ((DataManagerImpl) dm).pc.getPage(pgno);
+        try {
+            return pg.isDirty();
+        } finally {
+            pg.release();
+        }
+    }
+
+    @Test
+    public void testRedoSkipsWrittenPages() throws Exception {
+        TestDB db = TestDB.create(folder.getRoot());
+        long xid = db.tm.begin();
+        long uid = db.dm.insert(xid, new byte[]{5, 5, 5});
+        db.dm.flushLog();
+        db.tm.commit(xid);
+        int pgno = (int) (uid >>> 32);
+        //等后台写线程把数据页写出
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (isDirty(db.dm, pgno) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertFalse(isDirty(db.dm, pgno));
+
+        //页面的 LSN 已覆盖插入日志，重做不再改动页面
+        db.crash();
+        assertFalse(isDirty(db.dm, pgno));
+        assertArrayEquals(new byte[]{5, 5, 5}, read(db.dm, uid));
+        db.close();
+    }
+
+    @Test
+    public void testCommitFlushesLogFirst() throws Exception {
+        String path = new File(folder.getRoot(), "t").getPath();
+        DBOptions opts = new DBOptions(16L << 20);
+        Logger lg = Logger.create(path);
+        AtomicLong flushed = new AtomicLong();
+        Logger logger = new Logger() {
+            @Override
+            public long log(byte[] data) {
+                return lg.log(data);
+            }
+            @Override
+            public void flush(long lsn) {
+                lg.flush(lsn);
+                flushed.accumulateAndGet(lsn, Math::max);
+            }
+            @Override
+            public long getLsn() {
+                return lg.getLsn();
+            }
+            @Override
+            public void truncate(long x) throws Exception {
+                lg.truncate(x);
+            }
+            @Override
+            public byte[] next() {
+                return lg.next();
+            }
+            @Override
+            public long getPosition() {
+                return lg.getPosition();
+            }
+            @Override
+            public void rewind() {
+                lg.rewind();
+            }
+            @Override
+            public void close() {
+                lg.close();
+            }
+        };
+        TransactionManager tm = TransactionManager.create(path);
+        //记下事务被记为已提交时落盘的日志位置
+        AtomicLong flushedAtCommit = new AtomicLong(-1);
+        TransactionManager recording = new TransactionManager() {
+            @Override
+            public long begin() {
+                return tm.begin();
+            }
+            @Override
+            public void commit(long xid) {
+                flushedAtCommit.set(flushed.get());
+                tm.commit(xid);
+            }
+            @Override
+            public void abort(long xid) {
+                tm.abort(xid);
+            }
+            @Override
+            public boolean isActive(long xid) {
+                return tm.isActive(xid);
+            }
+            @Override
+            public boolean isCommitted(long xid) {
+                return tm.isCommitted(xid);
+            }
+            @Override
+            public boolean isAborted(long xid) {
+                return tm.isAborted(xid);
+            }
+            @Override
+            public void close() {
+                tm.close();
+            }
+        };
+        DataManagerImpl dm = new DataManagerImpl(PageCache.create(path, opts), logger, recording, opts);
+        dm.initPageOne();
+        VersionManager vm = new VersionManagerImpl(recording, dm, opts);
+
+        long xid = vm.begin(0);
+        vm.insert(xid, new byte[]{7, 7, 7});
+        long lsn = lg.getLsn();
+        vm.commit(xid);
+        assertTrue(flushedAtCommit.get() >= lsn);
+        assertTrue(tm.isCommitted(xid));
+        dm.close();
+        tm.close();
+    }
+}
@@ -0,0 +1,229 @@
+package com.zhuo.mydb.backend.dm.page;
+
+import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * PageX 的槽页结构：槽号不变、释放与整理、回收槽号后复用、恢复时补齐缺少的槽
+ *
+ * @author : wzq
+ **/
+public class PageXTest {
+    private static Page newPage(int pageSize) {
+        return new PageImpl(2, PageX.initRaw(pageSize), null);
+    }
+
+    private static byte[] record(int seed, int length) {
+        byte[] raw = new byte[length];
+        Arrays.fill(raw, (byte) seed);
+        return raw;
+    }
+
+    private static byte[] read(Page pg, int slot) {
+        int offset = PageX.getOffset(pg, slot);
+        return Arrays.copyOfRange(pg.getData(), offset, offset + PageX.getLength(pg, slot));
+    }
+
+    @Test
+    public void testInsertAndFree() {
+        Page pg = newPage(PageCache.DEFAULT_PAGE_SIZE);
+        int free = PageX.getFreeSpace(pg);
+        assertEquals(PageX.maxFreeSpace(PageCache.DEFAULT_PAGE_SIZE), free);
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i, PageX.nextSlot(pg));
+            assertEquals(i, PageX.insert(pg, record(i, 100)));
+        }
+        assertEquals(10, PageX.getSlotCount(pg));
+        for (int i = 1; i <= 10; i++) {
+            assertArrayEquals(record(i, 100), read(pg, i));
+        }
+
+        PageX.free(pg, 3);
+        assertEquals(0, PageX.getOffset(pg, 3));
+        assertEquals(0, PageX.getLength(pg, 3));
+        //释放的槽在回收前不会复用
+        assertEquals(11, PageX.insert(pg, record(11, 100)));
+        //槽号越界时读出为 0
+        assertEquals(0, PageX.getOffset(pg, 0));
+        assertEquals(0, PageX.getOffset(pg, 12));
+    }
+
+    @Test
+    public void testCompactKeepsSlots() {
+        Page pg = newPage(PageCache.MIN_PAGE_SIZE);
+        int n = 0;
+        while (PageX.canInsert(pg, 200)) {
+            PageX.insert(pg, record(++n, 200));
+        }
+        for (int slot = 1; slot <= n; slot += 2) {
+            PageX.free(pg, slot);
+        }
+        //释放的空间要整理之后才能连续使用
+        assertFalse(PageX.canInsert(pg, 200));
+        int free = PageX.getFreeSpace(pg);
+        PageX.compact(pg);
+        assertEquals(free, PageX.getFreeSpace(pg));
+        assertEquals(free, PageX.getContiguousFreeSpace(pg));
+        assertEquals(n, PageX.getSlotCount(pg));
+        for (int slot = 1; slot <= n; slot++) {
+            if(slot % 2 == 1) {
+                assertEquals(0, PageX.getOffset(pg, slot));
+            } else {
+                assertArrayEquals(record(slot, 200), read(pg, slot));
+            }
+        }
+        assertTrue(PageX.canInsert(pg, 200));
+        assertEquals(n + 1, PageX.insert(pg, record(99, 200)));
+    }
+
+    @Test
+    public void testRecycleReusesSlots() {
+        Page pg = newPage(PageCache.DEFAULT_PAGE_SIZE);
+        for (int i = 1; i <= 10; i++) {
+            PageX.insert(pg, record(i, 100));
+        }
+        PageX.free(pg, 3);
+        PageX.free(pg, 5);
+        PageX.free(pg, 9);
+        PageX.free(pg, 10);
+        assertTrue(PageX.isDead(pg, 3));
+        assertEquals(11, PageX.nextSlot(pg));
+
+        //存活的记录与越界的槽不能回收
+        PageX.recycle(pg, 4);
+        PageX.recycle(pg, 11);
+        assertArrayEquals(record(4, 100), read(pg, 4));
+        assertEquals(10, PageX.getSlotCount(pg));
+
+        PageX.recycle(pg, 5);
+        PageX.recycle(pg, 3);
+        assertFalse(PageX.isDead(pg, 3));
+        assertEquals(3, PageX.nextSlot(pg));
+        //末尾的槽 9 还被占用，回收槽 10 后槽目录只缩到 9，回收槽 9 后两个一起去掉
+        int free = PageX.getFreeSpace(pg);
+        PageX.recycle(pg, 10);
+        assertEquals(9, PageX.getSlotCount(pg));
+        PageX.recycle(pg, 9);
+        assertEquals(8, PageX.getSlotCount(pg));
+        assertEquals(free + 8, PageX.getFreeSpace(pg));
+
+        assertEquals(3, PageX.insert(pg, record(13, 100)));
+        assertEquals(5, PageX.insert(pg, record(15, 100)));
+        assertEquals(9, PageX.insert(pg, record(19, 100)));
+        assertArrayEquals(record(13, 100), read(pg, 3));
+        assertArrayEquals(record(15, 100), read(pg, 5));
+        assertArrayEquals(record(8, 100), read(pg, 8));
+        assertEquals(9, PageX.getSlotCount(pg));
+    }
+
+    @Test
+    public void testRecycledSlotsKeepPageReusable() {
+        //反复插入、释放、回收，槽目录不会越来越长
+        Page pg = newPage(PageCache.MIN_PAGE_SIZE);
+        for (int i = 1; i <= 10; i++) {
+            PageX.insert(pg, record(i, 100));
+        }
+        for (int round = 0; round < 10000; round++) {
+            int slot = 1 + round % 10;
+            PageX.free(pg, slot);
+            PageX.recycle(pg, slot);
+            if(!PageX.canInsert(pg, 100)) {
+                PageX.compact(pg);
+            }
+            assertEquals(slot, PageX.insert(pg, record(round, 100)));
+        }
+        assertEquals(10, PageX.getSlotCount(pg));
+    }
+
+    @Test
+    public void testCountFit() {
+        Page pg = newPage(PageCache.MIN_PAGE_SIZE);
+        List<byte[]> raws = Arrays.asList(record(1, 1000), record(2, 1000), record(3, 1000), record(4, 1000), record(5, 1000));
+        int fit = PageX.countFit(pg, raws, 0);
+        assertEquals(4, fit);
+        for (int i = 0; i < fit; i++) {
+            PageX.insert(pg, raws.get(i));
+        }
+        assertEquals(0, PageX.countFit(pg, raws, fit));
+    }
+
+    @Test
+    public void testLargestPage() {
+        //64K 页面的偏移最多到 0xFFFF，页尾的 LSN 不会被记录覆盖
+        Page pg = newPage(PageCache.MAX_PAGE_SIZE);
+        int max = PageX.maxFreeSpace(PageCache.MAX_PAGE_SIZE);
+        assertTrue(PageX.canInsert(pg, max));
+        assertFalse(PageX.canInsert(pg, max + 1));
+        byte[] raw = record(7, max);
+        assertEquals(1, PageX.insert(pg, raw));
+        assertArrayEquals(raw, read(pg, 1));
+        assertEquals(0, PageX.getFreeSpace(pg));
+    }
+
+    @Test
+    public void testRecoverInsert() {
+        Page pg = newPage(PageCache.DEFAULT_PAGE_SIZE);
+        PageX.insert(pg, record(1, 50));
+        //槽 2、3 属于没有重做的插入，保持为已释放
+        PageX.recoverInsert(pg, record(4, 50), 4);
+        assertEquals(4, PageX.getSlotCount(pg));
+        assertEquals(0, PageX.getOffset(pg, 2));
+        assertEquals(0, PageX.getOffset(pg, 3));
+        assertArrayEquals(record(4, 50), read(pg, 4));
+        assertEquals(5, PageX.nextSlot(pg));
+
+        //重复重做：等长时原地覆盖，长度不同时重新分配
+        PageX.recoverInsert(pg, record(5, 50), 4);
+        assertArrayEquals(record(5, 50), read(pg, 4));
+        PageX.recoverInsert(pg, record(6, 80), 4);
+        assertArrayEquals(record(6, 80), read(pg, 4));
+        assertArrayEquals(record(1, 50), read(pg, 1));
+        assertEquals(4, PageX.getSlotCount(pg));
+    }
+
+    @Test
+    public void testRecoverFree() {
+        Page pg = newPage(PageCache.DEFAULT_PAGE_SIZE);
+        PageX.insert(pg, record(1, 50));
+        PageX.insert(pg, record(2, 50));
+        PageX.recoverFree(pg, 2);
+        assertEquals(0, PageX.getOffset(pg, 2));
+        assertEquals(2, PageX.getSlotCount(pg));
+
+        //页面上还没有这个槽：占住槽号，之后的插入从下一个槽开始
+        PageX.recoverFree(pg, 5);
+        assertEquals(5, PageX.getSlotCount(pg));
+        for (int slot = 2; slot <= 5; slot++) {
+            assertEquals(0, PageX.getOffset(pg, slot));
+        }
+        assertEquals(6, PageX.insert(pg, record(6, 50)));
+        assertArrayEquals(record(1, 50), read(pg, 1));
+
+        //槽号已回收并可能被复用：没有重做的插入重新占住它
+        PageX.recycle(pg, 3);
+        PageX.recoverFree(pg, 3);
+        assertTrue(PageX.isDead(pg, 3));
+        assertEquals(7, PageX.nextSlot(pg));
+    }
+
+    @Test
+    public void testRecoverFreeCompactsFullPage() {
+        Page pg = newPage(PageCache.MIN_PAGE_SIZE);
+        int n = 0;
+        while (PageX.canInsert(pg, 100)) {
+            PageX.insert(pg, record(++n, 100));
+        }
+        PageX.free(pg, 1);
+        //扩展槽数需要的空间来自整理出的已释放记录
+        PageX.recoverFree(pg, n + 2);
+        assertEquals(n + 2, PageX.getSlotCount(pg));
+        for (int slot = 2; slot <= n; slot++) {
+            assertArrayEquals(record(slot, 100), read(pg, slot));
+        }
+    }
+}
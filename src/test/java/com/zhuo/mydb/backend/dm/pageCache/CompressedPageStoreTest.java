@@ -0,0 +1,84 @@
+package com.zhuo.mydb.backend.dm.pageCache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 压缩存储的映射项只在数据落盘之后写入 .pmap：崩溃丢掉未刷盘的数据时，映射仍指向上一次 force 时的页面
+ *
+ * @author : wzq
+ **/
+public class CompressedPageStoreTest {
+    private static final int PAGE_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File db;
+    private File map;
+
+    private CompressedPageStore open() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(db, "rw");
+        return new CompressedPageStore(raf, raf.getChannel(), new RandomAccessFile(map, "rw"), PAGE_SIZE);
+    }
+
+    // 随机内容压缩不了，原样存放，读到丢失的数据时得到全零的页面而不是解压失败
+    private static byte[] page(int seed) {
+        byte[] page = new byte[PAGE_SIZE];
+        new Random(seed).nextBytes(page);
+        return page;
+    }
+
+    private static byte[] read(PageStore store, int i) {
+        byte[] page = new byte[PAGE_SIZE];
+        store.read((long) i * PAGE_SIZE, page);
+        return page;
+    }
+
+    @Test
+    public void testMapNotAheadOfData() throws Exception {
+        String path = new File(folder.getRoot(), "t").getPath();
+        db = new File(path + PageCacheImpl.DB_SUFFIX);
+        map = new File(path + CompressedPageStore.MAP_SUFFIX);
+        CompressedPageStore store = open();
+        for (int i = 0; i < 4; i++) {
+            store.write((long) i * PAGE_SIZE, page(i));
+        }
+        store.force();
+        byte[] forced = Files.readAllBytes(db.toPath());
+
+        //重写两页后不 force 就崩溃：新数据没有落盘，.pmap 中此时的内容就是崩溃后留下的映射
+        store.write(0, page(100));
+        store.write(2L * PAGE_SIZE, page(102));
+        assertArrayEquals(page(100), read(store, 0));
+        byte[] crashedMap = Files.readAllBytes(map.toPath());
+        long length = db.length();
+        store.close();
+
+        //模拟掉电：.db 中上次 force 之后写入的内容丢失
+        Files.write(db.toPath(), Arrays.copyOf(forced, (int) length));
+        Files.write(map.toPath(), crashedMap);
+        store = open();
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(page(i), read(store, i));
+        }
+
+        //force 之后新页面连同映射一起落盘
+        store.write(0, page(100));
+        store.force();
+        store.close();
+        store = open();
+        assertArrayEquals(page(100), read(store, 0));
+        assertArrayEquals(page(1), read(store, 1));
+        store.close();
+    }
+}
@@ -0,0 +1,145 @@
+package com.zhuo.mydb.backend.dm.pageCache;
+
+import com.zhuo.mydb.backend.common.DBOptions;
+import com.zhuo.mydb.backend.dm.page.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 后台写回：PageOne 只在关闭时、其他页面都落盘之后才写出；脏页分批写出，每批只 force 一次；
+ * 压缩存储的压缩率与磁盘占用率可以从页面缓存读出
+ *
+ * @author : wzq
+ **/
+public class PageCacheTest {
+    private static final int PAGE_SIZE = PageCache.MIN_PAGE_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String path;
+    private PageCacheImpl pc;
+
+    @Before
+    public void setUp() {
+        pc = create("t", false);
+    }
+
+    private PageCacheImpl create(String name, boolean compress) {
+        path = new File(folder.getRoot(), name).getPath();
+        DBOptions opts = new DBOptions(1 << 20);
+        opts.pageSize = PAGE_SIZE;
+        opts.compress = compress;
+        return PageCache.create(path, opts);
+    }
+
+    @After
+    public void tearDown() {
+        if(pc != null) {
+            pc.close();
+        }
+    }
+
+    private static byte[] filled(int b) {
+        byte[] raw = new byte[PAGE_SIZE];
+        Arrays.fill(raw, (byte) b);
+        return raw;
+    }
+
+    // 直接从文件读出页面，不经过缓存
+    private byte[] onDisk(int pgno) throws Exception {
+        byte[] raw = new byte[PAGE_SIZE];
+        try (RandomAccessFile f = new RandomAccessFile(path + PageCacheImpl.DB_SUFFIX, "r")) {
+            f.seek((long) (pgno - 1) * PAGE_SIZE);
+            f.readFully(raw);
+        }
+        return raw;
+    }
+
+    private static void modify(Page pg, int b) {
+        pg.lock();
+        try {
+            Arrays.fill(pg.getData(), (byte) b);
+            pg.setDirty(true);
+        } finally {
+            pg.unlock();
+        }
+    }
+
+    @Test
+    public void testPageOneWrittenOnlyOnClose() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            pc.newPage(filled(i));
+        }
+        Page one = pc.getPage(1);
+        Page two = pc.getPage(2);
+        modify(one, 11);
+        modify(two, 12);
+        two.release();
+        //等后台写线程跑过几轮：其他脏页被写出，PageOne 不会
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Arrays.equals(filled(12), onDisk(2)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertArrayEquals(filled(12), onDisk(2));
+        Thread.sleep(1500);
+        assertArrayEquals(filled(1), onDisk(1));
+
+        one.release();
+        pc.close();
+        pc = null;
+        assertArrayEquals(filled(11), onDisk(1));
+    }
+
+    @Test
+    public void testWriterBatchesForces() throws Exception {
+        int n = 100;
+        for (int i = 1; i <= n; i++) {
+            pc.newPage(filled(i));
+        }
+        long flushed = pc.getFlushedPages();
+        long forces = pc.getForces();
+        for (int i = 2; i <= n; i++) {
+            Page pg = pc.getPage(i);
+            modify(pg, i + 1);
+            pg.release();
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (pc.getFlushedPages() - flushed < n - 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(n - 1, pc.getFlushedPages() - flushed);
+        assertArrayEquals(filled(n + 1), onDisk(n));
+        //一批最多 64 页，99 个脏页至少两批，每批只 force 一次
+        long f = pc.getForces() - forces;
+        assertTrue(f >= 1 && f < n - 1);
+        assertTrue(pc.getForces() < pc.getFlushedPages());
+        //下一轮已没有脏页
+        Thread.sleep(1000);
+        assertEquals(0, pc.getDirtyPages());
+    }
+
+    @Test
+    public void testCompressionRatio() throws Exception {
+        assertEquals(1, pc.getCompressionRatio(), 0);
+        pc.newPage(filled(1));
+        assertEquals(1, pc.getSpaceRatio(), 0);
+        pc.close();
+
+        pc = create("c", true);
+        for (int i = 1; i <= 20; i++) {
+            pc.newPage(filled(i));
+        }
+        assertTrue(pc.getCompressionRatio() < 1);
+        assertTrue(pc.getSpaceRatio() < 1);
+    }
+}
@@ -0,0 +1,167 @@
+package com.zhuo.mydb.backend.dm.pageCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * 各种 PageStore 的读写、关闭后重新打开、截断
+ *
+ * @author : wzq
+ **/
+@RunWith(Parameterized.class)
+public class PageStoreTest {
+    private static final int PAGE_SIZE = 4096;
+    // 分段存储每段 4 页，测试中的页面会跨越多个段
+    private static final long SEGMENT_SIZE = 4 * PAGE_SIZE;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> stores() {
+        return Arrays.asList(new Object[][]{{"file"}, {"mmap"}, {"compressed"}, {"segmented"}, {"segmented-mmap"}});
+    }
+
+    @Parameterized.Parameter
+    public String kind;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String path;
+    private PageStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        path = new File(folder.getRoot(), "t").getPath();
+        store = open();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    private PageStore open() throws Exception {
+        File f = new File(path + PageCacheImpl.DB_SUFFIX);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        switch (kind) {
+            case "mmap":
+                return new MappedPageStore(raf, raf.getChannel());
+            case "compressed":
+                return new CompressedPageStore(raf, raf.getChannel(),
+                        new RandomAccessFile(path + CompressedPageStore.MAP_SUFFIX, "rw"), PAGE_SIZE);
+            case "segmented":
+                return new SegmentedPageStore(path, raf, raf.getChannel(), SEGMENT_SIZE, null, false);
+            case "segmented-mmap":
+                return new SegmentedPageStore(path, raf, raf.getChannel(), SEGMENT_SIZE, null, true);
+            default:
+                return new FilePageStore(f, raf, raf.getChannel());
+        }
+    }
+
+    private void reopen() throws Exception {
+        store.force();
+        store.close();
+        store = open();
+    }
+
+    // 前半页是可压缩的重复内容，后半页是随机数据
+    private static byte[] page(int seed) {
+        byte[] page = new byte[PAGE_SIZE];
+        Arrays.fill(page, 0, PAGE_SIZE / 2, (byte) seed);
+        byte[] tail = new byte[PAGE_SIZE / 2];
+        new Random(seed).nextBytes(tail);
+        System.arraycopy(tail, 0, page, PAGE_SIZE / 2, tail.length);
+        return page;
+    }
+
+    private byte[] read(int i) {
+        byte[] page = new byte[PAGE_SIZE];
+        store.read((long) i * PAGE_SIZE, page);
+        return page;
+    }
+
+    private void write(int from, int count) {
+        store.allocate((long) (from + count) * PAGE_SIZE);
+        for (int i = from; i < from + count; i++) {
+            store.write((long) i * PAGE_SIZE, page(i));
+        }
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        write(0, 10);
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(page(i), read(i));
+        }
+        //覆盖写入新的内容
+        store.write(3L * PAGE_SIZE, page(100));
+        assertArrayEquals(page(100), read(3));
+        assertArrayEquals(page(4), read(4));
+
+        reopen();
+        assertTrue(store.size() >= 10L * PAGE_SIZE);
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(i == 3 ? page(100) : page(i), read(i));
+        }
+    }
+
+    @Test
+    public void testGatheringWrite() throws Exception {
+        write(0, 2);
+        //跨越段边界的连续页面
+        byte[][] pages = new byte[7][];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = page(i + 50);
+        }
+        store.allocate(9L * PAGE_SIZE);
+        store.write(2L * PAGE_SIZE, pages);
+        reopen();
+        assertArrayEquals(page(0), read(0));
+        assertArrayEquals(page(1), read(1));
+        for (int i = 0; i < pages.length; i++) {
+            assertArrayEquals(pages[i], read(i + 2));
+        }
+    }
+
+    @Test
+    public void testReadAsync() throws Exception {
+        write(0, 10);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            byte[][] pages = new byte[10][PAGE_SIZE];
+            for (int i = 0; i < 10; i++) {
+                store.readAsync((long) i * PAGE_SIZE, pages[i], executor).join();
+                assertArrayEquals(page(i), pages[i]);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        write(0, 10);
+        store.truncate(5L * PAGE_SIZE);
+        assertEquals(5L * PAGE_SIZE, store.size());
+        //截断后重新写入的页面不会读到旧内容
+        write(5, 3);
+        reopen();
+        for (int i = 0; i < 8; i++) {
+            assertArrayEquals(page(i), read(i));
+        }
+    }
+}
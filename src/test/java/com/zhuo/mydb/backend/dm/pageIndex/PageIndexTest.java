@@ -0,0 +1,86 @@
+package com.zhuo.mydb.backend.dm.pageIndex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 并发的 select、take、add 与 update：一个页面同一时刻只会交给一个插入者，用完放回后仍只在索引中出现一次
+ *
+ * @author : wzq
+ **/
+public class PageIndexTest {
+    private static final int PAGE_SIZE = 8192;
+    private static final int PAGES = 64;
+
+    @Test
+    public void testConcurrentSelectNeverSharesPage() throws Exception {
+        PageIndex pIndex = new PageIndex(PAGE_SIZE);
+        for (int pgno = 1; pgno <= PAGES; pgno++) {
+            pIndex.add(pgno, PAGE_SIZE / 2);
+        }
+        ConcurrentHashMap<Integer, Thread> owners = new ConcurrentHashMap<>();
+        AtomicInteger shared = new AtomicInteger();
+        AtomicInteger tooSmall = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> {
+                Random r = new Random();
+                try {
+                    for (int j = 0; j < 50000; j++) {
+                        int op = r.nextInt(3);
+                        if(op == 2) {
+                            //其他线程释放了页面中的记录，页面被取走时忽略
+                            pIndex.update(r.nextInt(PAGES) + 1, r.nextInt(PAGE_SIZE));
+                            continue;
+                        }
+                        PageInfo pi;
+                        if(op == 0) {
+                            int size = r.nextInt(PAGE_SIZE / 4);
+                            pi = pIndex.select(size);
+                            if(pi != null && pi.freeSpace < size) {
+                                tooSmall.incrementAndGet();
+                            }
+                        } else {
+                            pi = pIndex.take(r.nextInt(PAGES) + 1);
+                        }
+                        if(pi == null) {
+                            continue;
+                        }
+                        if(owners.putIfAbsent(pi.pgno, Thread.currentThread()) != null) {
+                            shared.incrementAndGet();
+                            continue;
+                        }
+                        Thread.yield();
+                        owners.remove(pi.pgno);
+                        pIndex.add(pi.pgno, r.nextInt(PAGE_SIZE));
+                    }
+                } catch (Throwable e) {
+                    errors.incrementAndGet();
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(0, errors.get());
+        assertEquals(0, shared.get());
+        assertEquals(0, tooSmall.get());
+
+        //所有页面都已放回，每个页面恰好能被取走一次
+        for (int pgno = 1; pgno <= PAGES; pgno++) {
+            assertNotNull(pIndex.take(pgno));
+            assertNull(pIndex.take(pgno));
+        }
+        assertNull(pIndex.select(0));
+    }
+}
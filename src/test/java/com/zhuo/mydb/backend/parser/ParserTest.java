@@ -0,0 +1,52 @@
+package com.zhuo.mydb.backend.parser;
+
+import com.zhuo.mydb.backend.parser.statement.Insert;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多行 insert 的解析：只有不在引号中的 "," 分隔各行
+ *
+ * @author : wzq
+ **/
+public class ParserTest {
+    private static String[][] values(String sql) throws Exception {
+        Insert insert = (Insert) Parser.Parse(sql.getBytes());
+        assertEquals("t", insert.tableName);
+        return insert.values;
+    }
+
+    @Test
+    public void testSingleRow() throws Exception {
+        assertArrayEquals(new String[][]{{"1", "a", "10"}}, values("insert into t values 1 a 10"));
+    }
+
+    @Test
+    public void testMultipleRows() throws Exception {
+        assertArrayEquals(new String[][]{{"1", "a"}, {"2", "b"}, {"3", "c"}},
+                values("insert into t values 1 a, 2 b ,3 c"));
+    }
+
+    @Test
+    public void testQuotedComma() throws Exception {
+        assertArrayEquals(new String[][]{{"1", ","}}, values("insert into t values 1 ','"));
+        assertArrayEquals(new String[][]{{"1", "a, b"}, {"2", ","}},
+                values("insert into t values 1 'a, b', 2 \",\""));
+    }
+
+    @Test
+    public void testQuotedEmptyString() throws Exception {
+        assertArrayEquals(new String[][]{{"1", ""}, {"2", ""}}, values("insert into t values 1 '', 2 \"\""));
+    }
+
+    @Test(expected = Exception.class)
+    public void testEmptyRow() throws Exception {
+        values("insert into t values 1 a, , 2 b");
+    }
+
+    @Test(expected = Exception.class)
+    public void testTrailingComma() throws Exception {
+        values("insert into t values 1 a,");
+    }
+}
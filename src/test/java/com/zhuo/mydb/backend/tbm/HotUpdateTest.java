@@ -0,0 +1,162 @@
+package com.zhuo.mydb.backend.tbm;
+
+import com.zhuo.mydb.backend.TestDB;
+import com.zhuo.mydb.backend.server.Executor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Map;
+
+import static com.zhuo.mydb.backend.TestDB.exec;
+import static org.junit.Assert.*;
+
+/**
+ * 不改索引列的更新把新版本接在版本链上，不增加索引项；vacuum 回收链上的死版本；崩溃后链可以恢复
+ *
+ * @author : wzq
+ **/
+public class HotUpdateTest {
+    private static final int ROWS = 200;
+    private static final String PAD = new String(new char[400]).replace('\0', 'p');
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestDB db;
+    private Executor e;
+
+    @Before
+    public void setUp() throws Exception {
+        db = TestDB.create(folder.getRoot());
+        e = db.session();
+        exec(e, "create table t id int32, s string, v int32 (index id)");
+        StringBuilder sql = new StringBuilder("insert into t values ");
+        for (int i = 0; i < ROWS; i++) {
+            sql.append(i == 0 ? "" : ", ").append(i).append(' ').append(PAD).append(" 0");
+        }
+        exec(e, sql.toString());
+    }
+
+    // id 索引中的项数
+    private int indexEntries() throws Exception {
+        java.lang.reflect.Field cache = TableManagerImpl.class.getDeclaredField("tableCache");
+        cache.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        Map<String, Table> tables = (Map<String, Table>) cache.get(db.tbm);
+        for (Field fd : tables.get("t").fields) {
+            if(fd.isIndexed()) {
+                return fd.search(0, Long.MAX_VALUE).size();
+            }
+        }
+        return 0;
+    }
+
+    // v 等于给定值的行数
+    private static int countV(Executor e, int v) throws Exception {
+        int n = 0;
+        for (String line : exec(e, "select id, v from t").split("\n")) {
+            if(line.endsWith(", " + v + "]")) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void testUpdateDoesNotGrowIndex() throws Exception {
+        for (int r = 1; r <= 10; r++) {
+            exec(e, "update t set v = " + r + " where id < " + ROWS);
+        }
+        assertEquals(ROWS, indexEntries());
+        assertEquals(ROWS, countV(e, 10));
+        assertEquals("[7, 10]", exec(e, "select id, v from t where id = 7"));
+
+        //改索引列的更新插入新行，旧行由 vacuum 删掉索引项
+        exec(e, "update t set id = 1000 where id = 7");
+        assertEquals(ROWS + 1, indexEntries());
+        exec(e, "vacuum t");
+        assertEquals(ROWS, indexEntries());
+        assertEquals("[1000, 10]", exec(e, "select id, v from t where id = 1000"));
+        assertEquals("", exec(e, "select id, v from t where id = 7"));
+    }
+
+    @Test
+    public void testVacuumKeepsSpaceStable() throws Exception {
+        //更新时新旧两个版本同时存在，先更新两轮让空间达到稳定
+        for (int r = 1; r <= 2; r++) {
+            exec(e, "update t set v = " + r + " where id < " + ROWS);
+            exec(e, "vacuum t");
+        }
+        int pages = db.pageNumber();
+        //不回收时每轮要多出约一张表大小的页面，回收后新版本复用旧版本的空间
+        for (int r = 3; r <= 20; r++) {
+            exec(e, "update t set v = " + r + " where id < " + ROWS);
+            assertEquals("vacuum " + ROWS, exec(e, "vacuum t"));
+        }
+        assertTrue(db.pageNumber() <= pages + 5);
+        assertEquals(ROWS, countV(e, 20));
+    }
+
+    @Test
+    public void testHotUpdatesKeepPagesFlat() throws Exception {
+        for (int r = 1; r <= 10; r++) {
+            exec(e, "update t set v = " + r + " where id < 20");
+            exec(e, "vacuum t");
+        }
+        int pages = db.pageNumber();
+        //新版本优先放在旧版本所在的页，死版本的槽号不回收时这几页的槽目录会一直涨，直到占满整页
+        for (int r = 11; r <= 1000; r++) {
+            exec(e, "update t set v = " + r + " where id < 20");
+            assertEquals("vacuum 20", exec(e, "vacuum t"));
+        }
+        assertTrue(db.pageNumber() <= pages + 1);
+        assertEquals(20, countV(e, 1000));
+        assertEquals(ROWS, indexEntries());
+    }
+
+    @Test
+    public void testSnapshotReadsOldVersion() throws Exception {
+        Executor rr = db.session();
+        exec(rr, "begin isolation level repeatable read");
+        assertEquals(ROWS, countV(rr, 0));
+        for (int r = 1; r <= 3; r++) {
+            exec(e, "update t set v = " + r + " where id < " + ROWS);
+        }
+        //快照还要读链上最早的版本，vacuum 只能回收中间的版本
+        exec(e, "vacuum t");
+        assertEquals(ROWS, countV(rr, 0));
+        assertEquals(ROWS, countV(e, 3));
+        exec(rr, "commit");
+        exec(e, "vacuum t");
+        assertEquals(ROWS, countV(e, 3));
+        assertEquals(ROWS, indexEntries());
+    }
+
+    @Test
+    public void testRecoverChain() throws Exception {
+        for (int r = 1; r <= 3; r++) {
+            exec(e, "update t set v = " + r + " where id < " + ROWS);
+        }
+        Executor active = db.session();
+        exec(active, "begin");
+        exec(active, "update t set v = 99 where id < 100");
+        //其他事务的提交把活跃事务的日志一起刷盘
+        exec(e, "update t set v = 4 where id = 150");
+
+        db.crash();
+        e = db.session();
+        assertEquals(ROWS - 1, countV(e, 3));
+        assertEquals(0, countV(e, 99));
+        assertEquals("[150, 4]", exec(e, "select id, v from t where id = 150"));
+        exec(e, "vacuum t");
+        exec(e, "update t set v = 5 where id < " + ROWS);
+        assertEquals(ROWS, countV(e, 5));
+        assertEquals(ROWS, indexEntries());
+
+        db.reopen();
+        assertEquals(ROWS, countV(db.session(), 5));
+        db.close();
+    }
+}
@@ -0,0 +1,108 @@
+package com.zhuo.mydb.backend.tbm;
+
+import com.zhuo.mydb.backend.TestDB;
+import com.zhuo.mydb.backend.server.Executor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.zhuo.mydb.backend.TestDB.exec;
+import static org.junit.Assert.*;
+
+/**
+ * 放不进一页的字符串存成溢出链：读出、重新打开、HOT 更新共用未修改的溢出值、回收后复用
+ *
+ * @author : wzq
+ **/
+public class OverflowTest {
+    private static final int ROWS = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestDB db;
+    private Executor e;
+
+    private static String big(String s) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 20000) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        db = TestDB.create(folder.getRoot());
+        e = db.session();
+        exec(e, "create table t id int32, body string, tag string (index id)");
+        for (int i = 0; i < ROWS; i++) {
+            exec(e, "insert into t values " + i + " " + big("b" + i) + " tag" + i);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertEquals("[7, " + big("b7") + ", tag7]", exec(e, "select * from t where id = 7"));
+        assertEquals("[tag8, " + big("b8") + "]", exec(e, "select tag, body from t where id = 8"));
+        assertEquals(ROWS, exec(e, "select id, tag from t").split("\n").length);
+
+        db.reopen();
+        assertEquals("[7, " + big("b7") + ", tag7]", db.exec("select * from t where id = 7"));
+        db.crash();
+        assertEquals("[9, " + big("b9") + ", tag9]", db.exec("select * from t where id = 9"));
+        db.close();
+    }
+
+    @Test
+    public void testUpdateSharesUnchangedValues() throws Exception {
+        int pages = db.pageNumber();
+        //只改小字段，新版本沿用原来的溢出链，回收旧版本时不能释放它
+        for (int r = 0; r < 5; r++) {
+            exec(e, "update t set tag = x" + r + " where id < " + ROWS);
+            exec(e, "vacuum t");
+        }
+        assertTrue(db.pageNumber() <= pages + 5);
+        assertEquals("[3, " + big("b3") + ", x4]", exec(e, "select * from t where id = 3"));
+
+        Executor rr = db.session();
+        exec(rr, "begin isolation level repeatable read");
+        assertEquals("[1, " + big("b1") + ", x4]", exec(rr, "select * from t where id = 1"));
+        exec(e, "update t set body = " + big("c") + " where id = 1");
+        exec(e, "update t set tag = y where id = 1");
+        exec(e, "vacuum t");
+        //快照仍能读到旧的溢出值
+        assertEquals("[1, " + big("b1") + ", x4]", exec(rr, "select * from t where id = 1"));
+        exec(rr, "commit");
+        exec(e, "vacuum t");
+        assertEquals("[1, " + big("c") + ", y]", exec(e, "select * from t where id = 1"));
+
+        db.reopen();
+        assertEquals("[1, " + big("c") + ", y]", db.exec("select * from t where id = 1"));
+        assertEquals("[2, " + big("b2") + ", x4]", db.exec("select * from t where id = 2"));
+        db.close();
+    }
+
+    @Test
+    public void testFreedChainsAreReused() throws Exception {
+        exec(e, "delete from t where id < " + ROWS / 2);
+        exec(e, "vacuum t");
+        int pages = db.pageNumber();
+        for (int i = 0; i < ROWS / 2; i++) {
+            exec(e, "insert into t values " + (1000 + i) + " " + big("r" + i) + " re");
+        }
+        assertTrue(db.pageNumber() <= pages + 10);
+
+        //中止的插入连同溢出值都读不到
+        exec(e, "begin");
+        for (int i = 0; i < 20; i++) {
+            exec(e, "insert into t values " + (2000 + i) + " " + big("a" + i) + " ab");
+        }
+        exec(e, "abort");
+        assertEquals("", exec(e, "select * from t where id > 1999"));
+        assertEquals("[1005, " + big("r5") + ", re]", exec(e, "select * from t where id = 1005"));
+        assertEquals("[60, " + big("b60") + ", tag60]", exec(e, "select * from t where id = 60"));
+        db.close();
+    }
+}
@@ -0,0 +1,74 @@
+package com.zhuo.mydb.backend.vm;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 等待资源的事务在持有者释放后被唤醒并获得资源，成环时报死锁
+ *
+ * @author : wzq
+ **/
+public class LockTableTest {
+    @Test
+    public void testWaitAndHandOver() throws Exception {
+        LockTable lt = new LockTable();
+        assertNull(lt.add(1, 100));
+        //重复获取已持有的资源不需要等待
+        assertNull(lt.add(1, 100));
+        CountDownLatch l2 = lt.add(2, 100);
+        CountDownLatch l3 = lt.add(3, 100);
+        assertNotNull(l2);
+        assertNotNull(l3);
+        assertEquals(1, l2.getCount());
+
+        lt.remove(1);
+        //资源只交给一个等待的事务，其余事务继续等待
+        assertEquals(1, l2.getCount() + l3.getCount());
+        long next = l2.getCount() == 0 ? 2 : 3;
+        lt.remove(next);
+        assertEquals(0, l2.getCount() + l3.getCount());
+        lt.remove(5 - next);
+        assertNull(lt.add(4, 100));
+    }
+
+    @Test
+    public void testWaiterBlocksUntilRelease() throws Exception {
+        LockTable lt = new LockTable();
+        lt.add(1, 100);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            try {
+                CountDownLatch l = lt.add(2, 100);
+                if(l != null) {
+                    l.await();
+                }
+                acquired.countDown();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        lt.remove(1);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        t.join();
+    }
+
+    @Test
+    public void testDeadLock() throws Exception {
+        LockTable lt = new LockTable();
+        lt.add(1, 100);
+        lt.add(2, 200);
+        assertNotNull(lt.add(1, 200));
+        try {
+            lt.add(2, 100);
+            fail("dead lock not detected");
+        } catch (Exception e) {
+            assertSame(com.zhuo.mydb.common.Error.DeadlockException, e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.zhuo.mydb.benchmark;
+
+import com.zhuo.mydb.backend.common.DBOptions;
+import com.zhuo.mydb.backend.dm.page.Page;
+import com.zhuo.mydb.backend.dm.pageCache.FilePageStore;
+import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import com.zhuo.mydb.backend.dm.pageCache.PageCacheImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 冷缓存下读入一批随机页面：逐页 getPage 阻塞读 与 每次用 getPageAsync 同时发出 depth 个读请求
+ * 每次迭代前新建页面缓存，关闭预读，只比较读取方式
+ * 运行：mvn -Pbench test -Dbench.args="AsyncReadBenchmark"
+ *
+ * @author : wzq
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class AsyncReadBenchmark {
+    private static final int PAGE_SIZE = PageCache.DEFAULT_PAGE_SIZE;
+    private static final int PAGES = 16384;
+    private static final int READS = 4096;
+
+    @Param({"16"})
+    public int depth;
+
+    private File dir;
+    private File file;
+    private int[] pgnos;
+    private PageCacheImpl pc;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("asyncread").toFile();
+        file = new File(dir, "bench.db");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FilePageStore store = new FilePageStore(file, raf, raf.getChannel());
+        byte[] page = new byte[PAGE_SIZE];
+        for (int i = 0; i < PAGES; i++) {
+            store.write((long) i * PAGE_SIZE, page);
+        }
+        store.close();
+        Random random = new Random(42);
+        pgnos = new int[READS];
+        for (int i = 0; i < READS; i++) {
+            pgnos[i] = 2 + random.nextInt(PAGES - 1);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws Exception {
+        DBOptions opts = new DBOptions((long) PAGES * PAGE_SIZE * 2);
+        opts.readAhead = 0;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        pc = new PageCacheImpl(new FilePageStore(file, raf, raf.getChannel()), PAGE_SIZE, 0, PAGES * 2, opts);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        pc.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void sync() throws Exception {
+        for (int pgno : pgnos) {
+            Page pg = pc.getPage(pgno);
+            pg.release();
+        }
+    }
+
+    @Benchmark
+    public void async() {
+        List<CompletableFuture<Page>> inflight = new ArrayList<>(depth);
+        for (int i = 0; i < READS; i += depth) {
+            for (int j = i; j < Math.min(READS, i + depth); j++) {
+                inflight.add(pc.getPageAsync(pgnos[j]));
+            }
+            for (CompletableFuture<Page> f : inflight) {
+                f.join().release();
+            }
+            inflight.clear();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.zhuo.mydb.benchmark;
+
+import com.zhuo.mydb.backend.common.DBOptions;
+import com.zhuo.mydb.backend.dm.DataManager;
+import com.zhuo.mydb.backend.parser.Parser;
+import com.zhuo.mydb.backend.parser.statement.Begin;
+import com.zhuo.mydb.backend.parser.statement.Create;
+import com.zhuo.mydb.backend.parser.statement.Insert;
+import com.zhuo.mydb.backend.parser.statement.Select;
+import com.zhuo.mydb.backend.tbm.TableManager;
+import com.zhuo.mydb.backend.tm.TransactionManager;
+import com.zhuo.mydb.backend.vm.VersionManagerImpl;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * 基准测试用的数据库：一张以 id 为索引的表 t，直接调用 TableManager，不经过 Executor 的日志输出
+ * 每次 open 都是新的页面缓存，第一次扫描时缓存是冷的
+ *
+ * @author : wzq
+ **/
+class BenchDB {
+    private final File dir;
+    private final String path;
+    private TransactionManager tm;
+    private DataManager dm;
+    private TableManager tbm;
+
+    // 建表并插入 rows 行，每行带一个长度为 pad 的字符串
+    BenchDB(int rows, int pad) throws Exception {
+        dir = Files.createTempDirectory("benchdb").toFile();
+        path = new File(dir, "t").getPath();
+        DBOptions opts = new DBOptions(64L << 20);
+        tm = TransactionManager.create(path);
+        dm = DataManager.create(path, opts, tm);
+        tbm = TableManager.create(path, new VersionManagerImpl(tm, dm, opts), dm);
+        long xid = tbm.begin(new Begin()).xid;
+        tbm.create(xid, (Create) Parser.Parse("create table t id int32, name string (index id)".getBytes()));
+        tbm.commit(xid);
+
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < pad; i++) {
+            name.append('x');
+        }
+        int batch = 100;
+        for (int i = 0; i < rows; i += batch) {
+            StringBuilder sql = new StringBuilder("insert into t values ");
+            for (int j = i; j < Math.min(rows, i + batch); j++) {
+                sql.append(j == i ? "" : ", ").append(j).append(' ').append(name);
+            }
+            xid = tbm.begin(new Begin()).xid;
+            tbm.insert(xid, (Insert) Parser.Parse(sql.toString().getBytes()));
+            tbm.commit(xid);
+        }
+        close();
+    }
+
+    void open(DBOptions opts) {
+        tm = TransactionManager.open(path);
+        dm = DataManager.open(path, opts, tm);
+        tbm = TableManager.open(path, new VersionManagerImpl(tm, dm, opts), dm);
+    }
+
+    byte[] select(String sql) throws Exception {
+        long xid = tbm.begin(new Begin()).xid;
+        byte[] res = tbm.read(xid, (Select) Parser.Parse(sql.getBytes()));
+        tbm.commit(xid);
+        return res;
+    }
+
+    void close() {
+        dm.close();
+        tm.close();
+    }
+
+    void delete() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+}
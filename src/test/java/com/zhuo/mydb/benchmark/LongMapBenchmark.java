@@ -0,0 +1,95 @@
+package com.zhuo.mydb.benchmark;
+
+import com.zhuo.mydb.backend.common.collection.LongIntMap;
+import com.zhuo.mydb.backend.common.collection.LongObjectMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以 uid 为键的 put / get / remove 循环，对比装箱的 HashMap 与原始类型的 LongObjectMap、LongIntMap
+ * 键是 pgno << 32 | slot 形式的 uid，不会落在 Long 的缓存范围内，每次装箱都要分配对象
+ * 运行：mvn -Pbench test -Dbench.args="LongMapBenchmark -prof gc"，看 gc.alloc.rate.norm 一列
+ *
+ * @author : wzq
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongMapBenchmark {
+    private static final int KEYS = 4096;
+
+    private long[] uids;
+    private int cursor;
+    private final Object value = new Object();
+
+    private Map<Long, Object> boxedObjects;
+    private Map<Long, Integer> boxedInts;
+    private LongObjectMap<Object> objects;
+    private LongIntMap ints;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        uids = new long[KEYS];
+        boxedObjects = new HashMap<>();
+        boxedInts = new HashMap<>();
+        objects = new LongObjectMap<>();
+        ints = new LongIntMap();
+        for (int i = 0; i < KEYS; i++) {
+            uids[i] = ((long) (random.nextInt(1 << 20) + 2) << 32) | (random.nextInt(256) + 1);
+            //先放入一半的键，其余的键在循环中加入再删除
+            if(i % 2 == 0) {
+                boxedObjects.put(uids[i], value);
+                boxedInts.put(uids[i], i);
+                objects.put(uids[i], value);
+                ints.put(uids[i], i);
+            }
+        }
+    }
+
+    private long nextUid() {
+        cursor = (cursor + 1) & (KEYS - 1);
+        return uids[cursor];
+    }
+
+    @Benchmark
+    public void hashMapObject(Blackhole bh) {
+        long uid = nextUid();
+        boxedObjects.put(uid ^ 1, value);
+        bh.consume(boxedObjects.get(uid));
+        bh.consume(boxedObjects.remove(uid ^ 1));
+    }
+
+    @Benchmark
+    public void longObjectMap(Blackhole bh) {
+        long uid = nextUid();
+        objects.put(uid ^ 1, value);
+        bh.consume(objects.get(uid));
+        bh.consume(objects.remove(uid ^ 1));
+    }
+
+    // 缓存的引用计数：读出、加一、写回
+    @Benchmark
+    public void hashMapInt(Blackhole bh) {
+        long uid = nextUid();
+        Integer n = boxedInts.get(uid);
+        boxedInts.put(uid, n == null ? 1 : n + 1000);
+        bh.consume(boxedInts.get(uid));
+    }
+
+    @Benchmark
+    public void longIntMap(Blackhole bh) {
+        long uid = nextUid();
+        int n = ints.get(uid, -1);
+        ints.put(uid, n == -1 ? 1 : n + 1000);
+        bh.consume(ints.get(uid, -1));
+    }
+}
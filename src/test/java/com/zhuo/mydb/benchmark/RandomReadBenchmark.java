@@ -0,0 +1,102 @@
+package com.zhuo.mydb.benchmark;
+
+import com.zhuo.mydb.backend.dm.pageCache.FilePageStore;
+import com.zhuo.mydb.backend.dm.pageCache.MappedPageStore;
+import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import com.zhuo.mydb.backend.dm.pageCache.PageStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个线程同时随机读页面文件时的吞吐量，读线程数分别为 1、2、4、8、16
+ * 页面 I/O 使用带偏移的读，没有全局锁，吞吐量应随线程数增长，直到磁盘或 CPU 饱和
+ * 运行：mvn -Pbench test -Dbench.args="RandomReadBenchmark"
+ *
+ * @author : wzq
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RandomReadBenchmark {
+    private static final int PAGE_SIZE = PageCache.DEFAULT_PAGE_SIZE;
+    private static final int PAGES = 16384;
+
+    @Param({"file", "mmap"})
+    public String store;
+
+    private File dir;
+    private PageStore pageStore;
+
+    @State(Scope.Thread)
+    public static class Buffer {
+        byte[] page = new byte[PAGE_SIZE];
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("randread").toFile();
+        File f = new File(dir, "bench.db");
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        pageStore = "mmap".equals(store) ? new MappedPageStore(raf, raf.getChannel())
+                : new FilePageStore(f, raf, raf.getChannel());
+        byte[] page = new byte[PAGE_SIZE];
+        for (int i = 0; i < PAGES; i++) {
+            ThreadLocalRandom.current().nextBytes(page);
+            pageStore.write((long) i * PAGE_SIZE, page);
+        }
+        pageStore.force();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pageStore.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private byte[] read(Buffer buffer) {
+        long offset = (long) ThreadLocalRandom.current().nextInt(PAGES) * PAGE_SIZE;
+        pageStore.read(offset, buffer.page);
+        return buffer.page;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] threads01(Buffer buffer) {
+        return read(buffer);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public byte[] threads02(Buffer buffer) {
+        return read(buffer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] threads04(Buffer buffer) {
+        return read(buffer);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] threads08(Buffer buffer) {
+        return read(buffer);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public byte[] threads16(Buffer buffer) {
+        return read(buffer);
+    }
+}
@@ -0,0 +1,55 @@
+package com.zhuo.mydb.benchmark;
+
+import com.zhuo.mydb.backend.common.DBOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 冷缓存下的范围扫描：每次调用前重新打开数据库，页面缓存为空，比较不预读与预读 8 页
+ * 操作系统的文件缓存不会被清空，要测真正的冷读需在两次运行之间自行清空
+ * 运行：mvn -Pbench test -Dbench.args="ReadAheadBenchmark"
+ *
+ * @author : wzq
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ReadAheadBenchmark {
+    private static final int ROWS = 50000;
+
+    @Param({"0", "8"})
+    public int readAhead;
+
+    private BenchDB db;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        db = new BenchDB(ROWS, 100);
+    }
+
+    @Setup(Level.Iteration)
+    public void open() {
+        DBOptions opts = new DBOptions(64L << 20);
+        opts.readAhead = readAhead;
+        db.open(opts);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        db.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.delete();
+    }
+
+    @Benchmark
+    public byte[] rangeScan() throws Exception {
+        return db.select("select * from t where id > " + ROWS / 4 + " and id < " + ROWS * 3 / 4);
+    }
+}
@@ -0,0 +1,170 @@
+package com.zhuo.mydb.benchmark;
+
+import com.zhuo.mydb.backend.common.DBOptions;
+import com.zhuo.mydb.backend.dm.page.Page;
+import com.zhuo.mydb.backend.dm.pageCache.FilePageStore;
+import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import com.zhuo.mydb.backend.dm.pageCache.PageCacheImpl;
+import com.zhuo.mydb.backend.dm.pageCache.PageStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 点查询与全表扫描同时进行时页面缓存的命中率
+ * lookup 线程在热点页面中随机读取，scan 线程不断顺序读过所有页面，试图把热点页面挤出缓存
+ * 命中率只统计点查询：一次 getPage 期间本线程没有读文件即为命中，关闭预读以免异步读入混入统计
+ * 运行：mvn -Pbench test -Dbench.args="ScanResistanceBenchmark"，每组参数结束时打印命中率
+ *
+ * @author : wzq
+ **/
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanResistanceBenchmark {
+    private static final int PAGE_SIZE = PageCache.DEFAULT_PAGE_SIZE;
+    private static final int PAGES = 8192;
+    private static final int CACHE_PAGES = 1024;
+    private static final int HOT_PAGES = 512;
+
+    @Param({"clock", "2q"})
+    public String policy;
+
+    private File dir;
+    private CountingStore store;
+    private PageCacheImpl pc;
+    private AtomicLong lookups = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    // 记录每个线程读文件的次数
+    private static class CountingStore implements PageStore {
+        private final PageStore store;
+        private final ThreadLocal<long[]> reads = ThreadLocal.withInitial(() -> new long[1]);
+
+        CountingStore(PageStore store) {
+            this.store = store;
+        }
+
+        long reads() {
+            return reads.get()[0];
+        }
+
+        @Override
+        public void read(long offset, byte[] page) {
+            reads.get()[0]++;
+            store.read(offset, page);
+        }
+
+        @Override
+        public void write(long offset, byte[] page) {
+            store.write(offset, page);
+        }
+
+        @Override
+        public void write(long offset, byte[][] pages) {
+            store.write(offset, pages);
+        }
+
+        @Override
+        public void force() {
+            store.force();
+        }
+
+        @Override
+        public long size() {
+            return store.size();
+        }
+
+        @Override
+        public void allocate(long size) {
+            store.allocate(size);
+        }
+
+        @Override
+        public void truncate(long size) {
+            store.truncate(size);
+        }
+
+        @Override
+        public void close() {
+            store.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("scan").toFile();
+        File f = new File(dir, "bench.db");
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        PageStore file = new FilePageStore(f, raf, raf.getChannel());
+        byte[] page = new byte[PAGE_SIZE];
+        for (int i = 0; i < PAGES; i++) {
+            file.write((long) i * PAGE_SIZE, page);
+        }
+        DBOptions opts = new DBOptions((long) CACHE_PAGES * PAGE_SIZE);
+        opts.pagePolicy = policy;
+        opts.readAhead = 0;
+        store = new CountingStore(file);
+        pc = new PageCacheImpl(store, PAGE_SIZE, 0, CACHE_PAGES, opts);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters() {
+        lookups.set(0);
+        misses.set(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        long n = lookups.get();
+        System.out.printf("%n%s point lookup hit ratio: %.3f%n", policy, n == 0 ? 0 : 1 - (double) misses.get() / n);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pc.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public int lookup() throws Exception {
+        //跳过 PageOne，热点页面集中在文件开头
+        int pgno = 2 + ThreadLocalRandom.current().nextInt(HOT_PAGES);
+        long before = store.reads();
+        Page pg = pc.getPage(pgno);
+        pg.release();
+        lookups.incrementAndGet();
+        if(store.reads() != before) {
+            misses.incrementAndGet();
+        }
+        return pgno;
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = 2;
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int scan(Cursor cursor) throws Exception {
+        Page pg = pc.getPage(cursor.next);
+        pg.release();
+        cursor.next = cursor.next == PAGES ? 2 : cursor.next + 1;
+        return cursor.next;
+    }
+}
@@ -0,0 +1,83 @@
+package com.zhuo.mydb.benchmark;
+
+import com.zhuo.mydb.backend.dm.pageCache.FilePageStore;
+import com.zhuo.mydb.backend.dm.pageCache.MappedPageStore;
+import com.zhuo.mydb.backend.dm.pageCache.PageCache;
+import com.zhuo.mydb.backend.dm.pageCache.PageStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写回一段连续的脏页：逐页带偏移写 与 合并成一次聚集写，两者都在写完后 force 一次
+ * 运行：mvn -Pbench test -Dbench.args="WriteBackBenchmark"
+ *
+ * @author : wzq
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBackBenchmark {
+    private static final int PAGE_SIZE = PageCache.DEFAULT_PAGE_SIZE;
+    private static final int REGIONS = 64;
+
+    @Param({"file", "mmap"})
+    public String store;
+
+    @Param({"8", "64"})
+    public int runLength;
+
+    private File dir;
+    private PageStore pageStore;
+    private byte[][] pages;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("writeback").toFile();
+        File f = new File(dir, "bench.db");
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        pageStore = "mmap".equals(store) ? new MappedPageStore(raf, raf.getChannel())
+                : new FilePageStore(f, raf, raf.getChannel());
+        pageStore.allocate((long) REGIONS * runLength * PAGE_SIZE);
+        pages = new byte[runLength][PAGE_SIZE];
+        for (byte[] page : pages) {
+            ThreadLocalRandom.current().nextBytes(page);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pageStore.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    // 每次写到不同的区域，避免总是覆盖同一批页面
+    private long nextOffset() {
+        return (long) ThreadLocalRandom.current().nextInt(REGIONS) * runLength * PAGE_SIZE;
+    }
+
+    @Benchmark
+    public void perPage() {
+        long offset = nextOffset();
+        for (int i = 0; i < runLength; i++) {
+            pageStore.write(offset + (long) i * PAGE_SIZE, pages[i]);
+        }
+        pageStore.force();
+    }
+
+    @Benchmark
+    public void coalesced() {
+        pageStore.write(nextOffset(), pages);
+        pageStore.force();
+    }
+}